@@ -47,6 +47,21 @@ public class JsonUtils {
     }
   }
   
+  /**
+   * Serializes an object to UTF-8 encoded JSON bytes.
+   * 
+   * @param mapper is the jackson object mapper to use
+   * @param obj is the object to serialize
+   * @return byte[] is the object serialized to UTF-8 encoded JSON
+   */
+  public static byte[] serializeToBytes(ObjectMapper mapper, Object obj) {
+    try {
+      return mapper.writeValueAsBytes(obj);
+    } catch (Exception e) {
+      throw new JsonException("Error serializing object", e);
+    }
+  }
+  
   /**
    * Deserializes JSON to a specific class.
    * 
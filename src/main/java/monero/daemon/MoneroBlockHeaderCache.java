@@ -0,0 +1,148 @@
+package monero.daemon;
+
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.atomic.LongAdder;
+
+import monero.daemon.model.MoneroBlockHeader;
+import monero.utils.MoneroException;
+
+/**
+ * Bounded cache of block headers by height.
+ *
+ * The cache holds a window of at most maxSize headers.  When full, headers
+ * farthest from the most recently cached range are evicted, so sequential
+ * scans in either direction keep the headers around the scan position.
+ *
+ * Headers are checked for prevId continuity with their cached neighbors as
+ * they are cached.  A mismatch indicates the chain was reorganized, in which
+ * case the cached headers on the other side of the mismatch are dropped.
+ */
+public class MoneroBlockHeaderCache {
+
+  public static final int DEFAULT_MAX_SIZE = 10000;
+
+  private TreeMap<Long, MoneroBlockHeader> headers;
+  private int maxSize;
+  private final LongAdder hits = new LongAdder();
+  private final LongAdder misses = new LongAdder();
+
+  public MoneroBlockHeaderCache() {
+    this(DEFAULT_MAX_SIZE);
+  }
+
+  public MoneroBlockHeaderCache(int maxSize) {
+    this.headers = new TreeMap<Long, MoneroBlockHeader>();
+    setMaxSize(maxSize);
+  }
+
+  /**
+   * Get a cached header and count the lookup as a hit or miss.
+   *
+   * @param height is the height of the header to get
+   * @return the cached header, null if not cached
+   */
+  public synchronized MoneroBlockHeader get(long height) {
+    MoneroBlockHeader header = headers.get(height);
+    if (header == null) misses.increment();
+    else hits.increment();
+    return header;
+  }
+
+  /**
+   * Get the cached header with the greatest height.
+   *
+   * @return the highest cached header, null if the cache is empty
+   */
+  public synchronized MoneroBlockHeader getHighest() {
+    Map.Entry<Long, MoneroBlockHeader> entry = headers.lastEntry();
+    return entry == null ? null : entry.getValue();
+  }
+
+  /**
+   * Cache a contiguous range of headers in ascending height order.
+   *
+   * Cached headers below the range are dropped if the first header does not
+   * link to them, and cached headers above the range are dropped if they do
+   * not link to the last header.  The range is not cached if it is not
+   * contiguous itself.
+   *
+   * @param range is the range of headers to cache
+   */
+  public synchronized void putAll(List<MoneroBlockHeader> range) {
+    if (range.isEmpty()) return;
+
+    // only cache contiguous ranges
+    for (int i = 1; i < range.size(); i++) {
+      MoneroBlockHeader prev = range.get(i - 1);
+      MoneroBlockHeader header = range.get(i);
+      if (header.getHeight() != prev.getHeight() + 1 || !prev.getId().equals(header.getPrevId())) return;
+    }
+    MoneroBlockHeader first = range.get(0);
+    MoneroBlockHeader last = range.get(range.size() - 1);
+
+    // drop headers below the range from another fork
+    MoneroBlockHeader below = headers.get(first.getHeight() - 1);
+    if (below != null && !below.getId().equals(first.getPrevId())) headers.headMap(first.getHeight()).clear();
+
+    // drop headers above the range from another fork
+    MoneroBlockHeader above = headers.get(last.getHeight() + 1);
+    if (above != null && !last.getId().equals(above.getPrevId())) headers.tailMap(last.getHeight() + 1).clear();
+
+    // cache the range and evict headers farthest from it
+    for (MoneroBlockHeader header : range) headers.put(header.getHeight(), header);
+    while (headers.size() > maxSize) {
+      if (first.getHeight() - headers.firstKey() >= headers.lastKey() - last.getHeight()) headers.pollFirstEntry();
+      else headers.pollLastEntry();
+    }
+  }
+
+  /**
+   * Drop cached headers at or above a height, e.g. above a reorg point.
+   *
+   * @param height is the lowest height to drop
+   */
+  public synchronized void invalidateFrom(long height) {
+    headers.tailMap(height).clear();
+  }
+
+  /**
+   * Drop all cached headers.  Hit and miss counts are not reset.
+   */
+  public synchronized void clear() {
+    headers.clear();
+  }
+
+  public synchronized int size() {
+    return headers.size();
+  }
+
+  public synchronized int getMaxSize() {
+    return maxSize;
+  }
+
+  public synchronized void setMaxSize(int maxSize) {
+    if (maxSize <= 0) throw new MoneroException("Max cache size must be positive: " + maxSize);
+    this.maxSize = maxSize;
+    while (headers.size() > maxSize) headers.pollFirstEntry();
+  }
+
+  /**
+   * Get the number of lookups which found a cached header.
+   *
+   * @return the number of cache hits
+   */
+  public long getHits() {
+    return hits.sum();
+  }
+
+  /**
+   * Get the number of lookups which did not find a cached header.
+   *
+   * @return the number of cache misses
+   */
+  public long getMisses() {
+    return misses.sum();
+  }
+}
@@ -25,6 +25,7 @@ package monero.daemon;
 import java.math.BigInteger;
 import java.util.Collection;
 import java.util.List;
+import java.util.function.Consumer;
 
 import monero.daemon.model.MoneroAltChain;
 import monero.daemon.model.MoneroBan;
@@ -193,6 +194,31 @@ public interface MoneroDaemon {
    */
   public List<MoneroBlock> getBlocksByRangeChunked(Long startHeight, Long endHeight, Long maxChunkSize);
   
+  /**
+   * Iterate over blocks in the given height range with their transactions.
+   * 
+   * Blocks are fetched as chunked requests and each chunk is released after
+   * it is consumed, so memory is bounded regardless of the range's size.
+   * 
+   * @param startHeight is the start height lower bound inclusive (optional)
+   * @param endHeight is the end height upper bound inclusive (optional)
+   * @param consumer receives each block in height order
+   */
+  public void forEachBlock(Long startHeight, Long endHeight, Consumer<MoneroBlock> consumer);
+  
+  /**
+   * Iterate over blocks in the given height range with their transactions.
+   * 
+   * Blocks are fetched as chunked requests and each chunk is released after
+   * it is consumed, so memory is bounded regardless of the range's size.
+   * 
+   * @param startHeight is the start height lower bound inclusive (optional)
+   * @param endHeight is the end height upper bound inclusive (optional)
+   * @param maxChunkSize is the maximum chunk size in any one request (default 3,000,000 bytes)
+   * @param consumer receives each block in height order
+   */
+  public void forEachBlock(Long startHeight, Long endHeight, Long maxChunkSize, Consumer<MoneroBlock> consumer);
+  
   /**
    * Get block ids as a binary request to the daemon.
    * 
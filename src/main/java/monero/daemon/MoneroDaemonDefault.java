@@ -26,6 +26,7 @@ import java.math.BigInteger;
 import java.util.Arrays;
 import java.util.Collection;
 import java.util.List;
+import java.util.function.Consumer;
 
 import monero.daemon.model.MoneroBan;
 import monero.daemon.model.MoneroBlock;
@@ -51,6 +52,11 @@ public abstract class MoneroDaemonDefault implements MoneroDaemon {
     return getBlocksByRangeChunked(startHeight, endHeight, null);
   }
   
+  @Override
+  public void forEachBlock(Long startHeight, Long endHeight, Consumer<MoneroBlock> consumer) {
+    forEachBlock(startHeight, endHeight, null, consumer);
+  }
+  
   @Override
   public MoneroTx getTx(String txId) {
     return getTx(txId, null);
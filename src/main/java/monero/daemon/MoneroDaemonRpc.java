@@ -24,15 +24,38 @@ package monero.daemon;
 
 import java.math.BigInteger;
 import java.net.URI;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayDeque;
 import java.util.ArrayList;
 import java.util.Arrays;
 import java.util.Collection;
+import java.util.Deque;
 import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Iterator;
+import java.util.LinkedHashSet;
 import java.util.List;
 import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.ScheduledFuture;
 import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicReference;
+import java.util.function.BiConsumer;
+import java.util.function.Consumer;
+import java.util.function.Function;
+import java.util.logging.Level;
 import java.util.logging.Logger;
 
+import org.apache.commons.codec.binary.Hex;
+
 import com.fasterxml.jackson.core.type.TypeReference;
 
 import common.utils.GenUtils;
@@ -62,8 +85,11 @@ import monero.daemon.model.MoneroOutputHistogramEntry;
 import monero.daemon.model.MoneroSubmitTxResult;
 import monero.daemon.model.MoneroTx;
 import monero.daemon.model.MoneroTxBacklogEntry;
+import monero.daemon.model.MoneroTxPoolHistoEntry;
+import monero.daemon.model.MoneroTxPoolListener;
 import monero.daemon.model.MoneroTxPoolStats;
 import monero.rpc.MoneroRpcConnection;
+import monero.rpc.MoneroRpcConnectionConfig;
 import monero.rpc.MoneroRpcException;
 import monero.utils.MoneroCppUtils;
 import monero.utils.MoneroException;
@@ -81,11 +107,20 @@ public class MoneroDaemonRpc extends MoneroDaemonDefault {
   private static final String DEFAULT_ID = "0000000000000000000000000000000000000000000000000000000000000000";
   private static long MAX_REQ_SIZE = 3000000;  // max request size when fetching blocks from daemon
   private static int NUM_HEADERS_PER_REQ = 750;
+  private static int MAX_OUTPUTS_PER_REQ = 1000;  // max outputs to get in one request
+  private static int MAX_CONCURRENT_OUTPUT_REQS = 4;
+  private static int MAX_KEY_IMAGES_PER_REQ = 5000;  // max key images to check in one request, limited by restricted rpc
+  private static int MAX_CONCURRENT_KEY_IMAGE_REQS = 4;
+  private static final long TARGET_BLOCK_TIME_MS = 120000;
+  private static final long DEFAULT_POLL_INTERVAL_MS = 10000;
   
   // instance variables
   private MoneroRpcConnection rpc;
   private MoneroDaemonPoller daemonPoller;
-  private Map<Long, MoneroBlockHeader> cachedHeaders;
+  private MoneroTxPoolPoller txPoolPoller;
+  private volatile long pollIntervalMs;
+  private MoneroBlockHeaderCache headerCache;
+  private AtomicReference<FeeEstimates> feeEstimates;
   
   public MoneroDaemonRpc(URI uri) {
     this(new MoneroRpcConnection(uri));
@@ -106,8 +141,11 @@ public class MoneroDaemonRpc extends MoneroDaemonDefault {
   public MoneroDaemonRpc(MoneroRpcConnection rpc) {
     GenUtils.assertNotNull(rpc);
     this.rpc = rpc;
-    this.daemonPoller = new MoneroDaemonPoller(this);
-    this.cachedHeaders = new HashMap<Long, MoneroBlockHeader>();
+    this.daemonPoller = new MoneroDaemonPoller();
+    this.txPoolPoller = new MoneroTxPoolPoller();
+    this.pollIntervalMs = DEFAULT_POLL_INTERVAL_MS;
+    this.headerCache = new MoneroBlockHeaderCache();
+    this.feeEstimates = new AtomicReference<FeeEstimates>();
   }
   
   /**
@@ -119,6 +157,65 @@ public class MoneroDaemonRpc extends MoneroDaemonDefault {
     return this.rpc;
   }
   
+  /**
+   * Get the interval to poll for new blocks while listeners are registered.
+   * 
+   * @return the poll interval in milliseconds
+   */
+  public long getPollInterval() {
+    return pollIntervalMs;
+  }
+  
+  /**
+   * Set the interval to poll for new blocks while listeners are registered
+   * (default 10 seconds).
+   * 
+   * Polls are 4 times more frequent once a new block is expected based on the
+   * target block time, and back off up to 5 minutes while requests fail.
+   * Polling is scheduled on the shared scheduler of the connection's
+   * configuration.
+   * 
+   * @param pollIntervalMs is the poll interval in milliseconds
+   */
+  public void setPollInterval(long pollIntervalMs) {
+    if (pollIntervalMs <= 0) throw new MoneroException("Poll interval must be greater than 0");
+    this.pollIntervalMs = pollIntervalMs;
+  }
+  
+  /**
+   * Get the cache of block headers used to size requests for blocks.
+   * 
+   * Headers fetched by height or range refresh the cache.  Cached headers
+   * are invalidated as reorgs are detected while polling the daemon.
+   * 
+   * @return the daemon's block header cache
+   */
+  public MoneroBlockHeaderCache getBlockHeaderCache() {
+    return headerCache;
+  }
+  
+  /**
+   * Invoke a method of this daemon asynchronously.
+   * 
+   * E.g. {@code daemon.submit(d -> d.getHeight())}
+   * 
+   * The call runs on the executor of the connection's configuration.
+   * Cancelling the returned future or completing it exceptionally (e.g. with
+   * {@code orTimeout()} on Java 9+) aborts the in-flight request.
+   * 
+   * @param function invokes one or more methods of this daemon
+   * @return a future which completes with the call's result or error
+   */
+  public <T> CompletableFuture<T> submit(Function<? super MoneroDaemonRpc, T> function) {
+    MoneroDaemonRpc daemon = this;
+    return rpc.submit(new Callable<T>() {
+      @Override
+      public T call() {
+        return function.apply(daemon);
+      }
+    });
+  }
+  
   /**
    * Indicates if the client is connected to the daemon via RPC.
    * 
@@ -186,9 +283,22 @@ public class MoneroDaemonRpc extends MoneroDaemonDefault {
     return header;
   }
 
-  @SuppressWarnings("unchecked")
   @Override
   public MoneroBlockHeader getBlockHeaderByHeight(long height) {
+    MoneroBlockHeader header = fetchBlockHeaderByHeight(height);
+    headerCache.putAll(Arrays.asList(header));
+    return header;
+  }
+
+  @Override
+  public List<MoneroBlockHeader> getBlockHeadersByRange(Long startHeight, Long endHeight) {
+    List<MoneroBlockHeader> headers = fetchBlockHeadersByRange(startHeight, endHeight);
+    headerCache.putAll(headers);
+    return headers;
+  }
+
+  @SuppressWarnings("unchecked")
+  private MoneroBlockHeader fetchBlockHeaderByHeight(long height) {
     Map<String, Object> params = new HashMap<String, Object>();
     params.put("height", height);
     Map<String, Object> respMap = rpc.sendJsonRequest("get_block_header_by_height", params);
@@ -198,8 +308,7 @@ public class MoneroDaemonRpc extends MoneroDaemonDefault {
   }
 
   @SuppressWarnings("unchecked")
-  @Override
-  public List<MoneroBlockHeader> getBlockHeadersByRange(Long startHeight, Long endHeight) {
+  private List<MoneroBlockHeader> fetchBlockHeadersByRange(Long startHeight, Long endHeight) {
     Map<String, Object> params = new HashMap<String, Object>();
     params.put("start_height", startHeight);
     params.put("end_height", endHeight);
@@ -317,12 +426,89 @@ public class MoneroDaemonRpc extends MoneroDaemonDefault {
     return blocks;
   }
   
+  /**
+   * Get blocks in the given height range as chunked requests which are
+   * pipelined so that multiple chunks are fetched and converted concurrently.
+   * 
+   * Chunk boundaries are planned from cached block headers while up to the
+   * given number of chunks are in flight on the connection's executor.
+   * Blocks are returned in height order.
+   * 
+   * @param startHeight is the start height lower bound inclusive (optional)
+   * @param endHeight is the end height upper bound inclusive (optional)
+   * @param maxChunkSize is the maximum chunk size in any one request (default 3,000,000 bytes)
+   * @param maxConcurrentChunks is the maximum number of chunks fetched concurrently
+   * @return blocks in the given height range
+   */
+  public List<MoneroBlock> getBlocksByRangeChunked(Long startHeight, Long endHeight, Long maxChunkSize, int maxConcurrentChunks) {
+    List<MoneroBlock> blocks = new ArrayList<MoneroBlock>();
+    forEachBlock(startHeight, endHeight, maxChunkSize, maxConcurrentChunks, new Consumer<MoneroBlock>() {
+      @Override
+      public void accept(MoneroBlock block) {
+        blocks.add(block);
+      }
+    });
+    return blocks;
+  }
+  
+  @Override
+  public void forEachBlock(Long startHeight, Long endHeight, Long maxChunkSize, Consumer<MoneroBlock> consumer) {
+    forEachBlock(startHeight, endHeight, maxChunkSize, 1, consumer);
+  }
+  
+  /**
+   * Iterate over blocks in the given height range with their transactions
+   * using pipelined chunked requests.
+   * 
+   * At most the given number of chunks are fetched concurrently while the
+   * oldest chunk is consumed, so memory is bounded by roughly the chunk size
+   * times the number of concurrent chunks.
+   * 
+   * @param startHeight is the start height lower bound inclusive (optional)
+   * @param endHeight is the end height upper bound inclusive (optional)
+   * @param maxChunkSize is the maximum chunk size in any one request (default 3,000,000 bytes)
+   * @param maxConcurrentChunks is the maximum number of chunks fetched concurrently
+   * @param consumer receives each block in height order
+   */
+  public void forEachBlock(Long startHeight, Long endHeight, Long maxChunkSize, int maxConcurrentChunks, Consumer<MoneroBlock> consumer) {
+    if (maxConcurrentChunks < 1) throw new MoneroException("Max concurrent chunks must be at least 1");
+    if (startHeight == null) startHeight = 0l;
+    if (endHeight == null) endHeight = getHeight() - 1;
+    if (maxChunkSize == null) maxChunkSize = MAX_REQ_SIZE;
+    Deque<CompletableFuture<List<MoneroBlock>>> chunks = new ArrayDeque<CompletableFuture<List<MoneroBlock>>>();
+    try {
+      long chunkStartHeight = startHeight;
+      while (chunkStartHeight <= endHeight) {
+        
+        // plan next chunk from cached headers
+        long chunkEndHeight = getMaxChunkEndHeight(chunkStartHeight, endHeight, maxChunkSize);
+        
+        // consume oldest chunk in order if max chunks are in flight
+        if (chunks.size() >= maxConcurrentChunks) consumeChunk(chunks.removeFirst(), consumer);
+        
+        // fetch and convert chunk asynchronously
+        long fetchStartHeight = chunkStartHeight;
+        chunks.addLast(rpc.submit(new Callable<List<MoneroBlock>>() {
+          @Override
+          public List<MoneroBlock> call() {
+            return getBlocksByRange(fetchStartHeight, chunkEndHeight);
+          }
+        }));
+        chunkStartHeight = chunkEndHeight + 1;
+      }
+      
+      // consume remaining chunks in order
+      while (!chunks.isEmpty()) consumeChunk(chunks.removeFirst(), consumer);
+    } finally {
+      for (CompletableFuture<List<MoneroBlock>> chunk : chunks) chunk.cancel(true);
+    }
+  }
+  
   @Override
   public List<String> getBlockIds(List<String> blockIds, Long startHeight) {
     throw new RuntimeException("Not implemented");
   }
 
-  @SuppressWarnings("unchecked")
   @Override
   public List<MoneroTx> getTxs(Collection<String> txIds, Boolean prune) {
     
@@ -330,38 +516,23 @@ public class MoneroDaemonRpc extends MoneroDaemonDefault {
     if (txIds.isEmpty()) throw new MoneroException("Must provide an array of transaction ids");
     
     // fetch transactions
-    Map<String, Object> params = new HashMap<String, Object>();
-    params.put("txs_hashes", txIds);
-    params.put("decode_as_json", true);
-    params.put("prune", prune);
-    Map<String, Object> respMap = rpc.sendPathRequest("get_transactions", params);
-    try {
-      checkResponseStatus(respMap);
-    } catch (MoneroException e) {
-      if (e.getMessage().indexOf("Failed to parse hex representation of transaction hash") >= 0) throw new MoneroException("Invalid transaction id", e.getCode());
-      throw e;
-    }
-    
-    //  interpret response
-    List<Map<String, Object>> rpcTxs = (List<Map<String, Object>>) respMap.get("txs");
-    
-    // build transaction models
-    List<MoneroTx> txs = new ArrayList<MoneroTx>();
-    if (rpcTxs != null) {
-      for (int i = 0; i < rpcTxs.size(); i++) {
-        MoneroTx tx = new MoneroTx();
-        tx.setIsMinerTx(false);
-        txs.add(convertRpcTx(rpcTxs.get(i), tx));
-      }
-    }
+    List<MoneroTx> txs = fetchTxs(txIds, prune);
     
     // fetch unconfirmed txs from pool and merge additional fields  // TODO monero-daemon-rpc: merge rpc calls so this isn't necessary?
     //System.out.println("Fetching from pool...");  // TODO monero core: getTxPool() can get stuck under certain conditions (observed it before coordinating tx pool as part of tests, so double spend related?)
-    List<MoneroTx> poolTxs = getTxPool();
+    Map<String, List<MoneroTx>> unconfirmedTxs = new HashMap<String, List<MoneroTx>>();
     for (MoneroTx tx : txs) {
-      for (MoneroTx poolTx : poolTxs) {
-        if (tx.getId().equals(poolTx.getId())) tx.merge(poolTx);
-      }
+      if (!Boolean.TRUE.equals(tx.inTxPool())) continue;
+      if (!unconfirmedTxs.containsKey(tx.getId())) unconfirmedTxs.put(tx.getId(), new ArrayList<MoneroTx>());
+      unconfirmedTxs.get(tx.getId()).add(tx);
+    }
+    if (!unconfirmedTxs.isEmpty()) {
+      forEachPoolTx(unconfirmedTxs.keySet(), new Consumer<MoneroTx>() {
+        @Override
+        public void accept(MoneroTx poolTx) {
+          for (MoneroTx tx : unconfirmedTxs.get(poolTx.getId())) tx.merge(poolTx);
+        }
+      });
     }
     
     return txs;
@@ -392,13 +563,21 @@ public class MoneroDaemonRpc extends MoneroDaemonDefault {
     return txSum;
   }
 
-  @SuppressWarnings("unchecked")
+  /**
+   * {@inheritDoc}
+   * 
+   * Estimates are cached per chain height and grace blocks.  The height is
+   * tracked by the daemon poller while listeners are registered, which also
+   * refreshes cached estimates on new blocks, and is otherwise checked at
+   * most once per poll interval.  Concurrent calls for an estimate which is
+   * not cached share one request.
+   */
   @Override
   public BigInteger getFeeEstimate(Integer graceBlocks) {
-    Map<String, Object> resp = rpc.sendJsonRequest("get_fee_estimate");
-    Map<String, Object> result = (Map<String, Object>) resp.get("result");
-    checkResponseStatus(result);
-    return (BigInteger) result.get("fee");
+    FeeEstimates estimates = feeEstimates.get();
+    long maxAgeMs = daemonPoller.isPolling() ? 2 * pollIntervalMs : pollIntervalMs;  // allow for poll delays
+    if (estimates == null || System.currentTimeMillis() - estimates.heightTime >= maxAgeMs) estimates = updateFeeEstimates(getHeight(), false);
+    return join(getFeeEstimate(estimates, graceBlocks == null ? 0 : graceBlocks));
   }
 
   @Override
@@ -428,60 +607,77 @@ public class MoneroDaemonRpc extends MoneroDaemonDefault {
     checkResponseStatus((Map<String, Object>) resp.get("result"));
   }
 
-  @SuppressWarnings("unchecked")
   @Override
   public List<MoneroTx> getTxPool() {
-    
-    
-    // send rpc request
-    Map<String, Object> resp = rpc.sendPathRequest("get_transaction_pool");
-    checkResponseStatus(resp);
-    
-    // build txs
     List<MoneroTx> txs = new ArrayList<MoneroTx>();
-    if (resp.containsKey("transactions")) {
-      for (Map<String, Object> rpcTx : (List<Map<String, Object>>) resp.get("transactions")) {
-        MoneroTx tx = new MoneroTx();
+    forEachPoolTx(null, new Consumer<MoneroTx>() {
+      @Override
+      public void accept(MoneroTx tx) {
         txs.add(tx);
-        tx.setIsConfirmed(false);
-        tx.setIsMinerTx(false);
-        tx.setInTxPool(true);
-        tx.setNumConfirmations(0l);
-        convertRpcTx(rpcTx, tx);
       }
-    }
-    
+    });
     return txs;
   }
 
+  @SuppressWarnings("unchecked")
   @Override
   public List<String> getTxPoolIds() {
-    throw new RuntimeException("Not implemented");
+    Map<String, Object> resp = rpc.sendPathRequest("get_transaction_pool_hashes");
+    checkResponseStatus(resp);
+    List<String> txIds = (List<String>) resp.get("tx_hashes");
+    return txIds == null ? new ArrayList<String>() : txIds;  // daemon omits empty list
   }
 
+  @SuppressWarnings("unchecked")
   @Override
   public List<MoneroTxBacklogEntry> getTxPoolBacklog() {
-    throw new RuntimeException("Not implemented");
+    
+    // backlog is only available from json_rpc, with entries packed in a binary field
+    Map<String, Object> resp = rpc.sendJsonRequestWithBinaryFields("get_txpool_backlog", null);
+    Map<String, Object> result = (Map<String, Object>) resp.get("result");
+    checkResponseStatus(result);
+    
+    // build backlog entries
+    List<MoneroTxBacklogEntry> entries = new ArrayList<MoneroTxBacklogEntry>();
+    Object rpcBacklog = result.get("backlog");
+    if (rpcBacklog instanceof List) {
+      for (Map<String, Object> rpcEntry : (List<Map<String, Object>>) rpcBacklog) entries.add(convertRpcTxBacklogEntry(rpcEntry));
+    } else if (rpcBacklog != null) {
+      ByteBuffer buffer = toPodBuffer((String) rpcBacklog);
+      while (buffer.remaining() >= 24) {  // struct { uint64 weight; uint64 fee; uint64 time_in_pool; }
+        MoneroTxBacklogEntry entry = new MoneroTxBacklogEntry();
+        entry.setWeight(buffer.getLong());
+        entry.setFee(new BigInteger(Long.toUnsignedString(buffer.getLong())));
+        entry.setTimeInPool(buffer.getLong());
+        entries.add(entry);
+      }
+    }
+    return entries;
   }
 
+  @SuppressWarnings("unchecked")
   @Override
   public MoneroTxPoolStats getTxPoolStats() {
-    throw new MoneroException("Response contains field 'histo' which is binary'");
-//    let resp = await this.config.rpc.sendPathRequest("get_transaction_pool_stats");
-//    MoneroDaemonRpc._checkResponseStatus(resp);
-//    let stats = MoneroDaemonRpc._convertRpcTxPoolStats(resp.pool_stats);
-//    
-//    // uninitialize some stats if not applicable
-//    if (stats.getHisto98pc() === 0) stats.setHisto98pc(undefined);
-//    if (stats.getNumTxs() === 0) {
-//      stats.setBytesMin(undefined);
-//      stats.setBytesMed(undefined);
-//      stats.setBytesMax(undefined);
-//      stats.setHisto98pc(undefined);
-//      stats.setOldestTimestamp(undefined);
-//    }
-//    
-//    return stats;
+    
+    // fetch stats in binary since the histogram is a binary field
+    byte[] respBin = rpc.sendBinaryRequest("get_transaction_pool_stats.bin", new HashMap<String, Object>());
+    Map<String, Object> resp = MoneroCppUtils.binaryToMap(respBin);
+    checkResponseStatus(resp);
+    MoneroTxPoolStats stats = convertRpcTxPoolStats((Map<String, Object>) resp.get("pool_stats"));
+    
+    // uninitialize some stats if not applicable
+    if (stats.getNumTxs() == null) stats.setNumTxs(0);
+    if (stats.getHisto98pc() != null && stats.getHisto98pc() == 0) stats.setHisto98pc(null);
+    if (stats.getNumTxs() == 0) {
+      stats.setBytesMin(null);
+      stats.setBytesMed(null);
+      stats.setBytesMax(null);
+      stats.setHisto98pc(null);
+      stats.setOldestTimestamp(null);
+    }
+    if (stats.getHisto() != null && stats.getHisto().isEmpty()) stats.setHisto(null);
+    
+    return stats;
   }
 
   @Override
@@ -503,24 +699,96 @@ public class MoneroDaemonRpc extends MoneroDaemonDefault {
     flushTxPool(ids.toArray(new String[0]));
   }
 
-  @SuppressWarnings("unchecked")
+  /**
+   * {@inheritDoc}
+   * 
+   * Duplicate key images are checked once.  Large lists are split into
+   * requests of at most 5,000 key images, up to 4 of which are sent
+   * concurrently.
+   */
   @Override
   public List<MoneroKeyImageSpentStatus> getKeyImageSpentStatuses(Collection<String> keyImages) {
     if (keyImages == null || keyImages.isEmpty()) throw new MoneroException("Must provide key images to check the status of");
-    Map<String, Object> params = new HashMap<String, Object>();
-    params.put("key_images", keyImages);
-    Map<String, Object> resp = rpc.sendPathRequest("is_key_image_spent", params);
-    checkResponseStatus(resp);
-    List<MoneroKeyImageSpentStatus> statuses = new ArrayList<MoneroKeyImageSpentStatus>();
-    for (BigInteger bi : (List<BigInteger>) resp.get("spent_status")) {
-      statuses.add(MoneroKeyImageSpentStatus.valueOf(bi.intValue()));
+    
+    // check each unique key image once
+    List<String> uniqueKeyImages = new ArrayList<String>(new LinkedHashSet<String>(keyImages));
+    Map<String, MoneroKeyImageSpentStatus> statusesByKeyImage = new HashMap<String, MoneroKeyImageSpentStatus>(uniqueKeyImages.size() * 4 / 3 + 1);
+    Consumer<MoneroKeyImageSpentStatus> collector = new Consumer<MoneroKeyImageSpentStatus>() {
+      private int numCollected = 0;
+      @Override
+      public void accept(MoneroKeyImageSpentStatus status) {
+        statusesByKeyImage.put(uniqueKeyImages.get(numCollected++), status);
+      }
+    };
+    Deque<CompletableFuture<List<MoneroKeyImageSpentStatus>>> batches = new ArrayDeque<CompletableFuture<List<MoneroKeyImageSpentStatus>>>();
+    try {
+      for (int start = 0; start < uniqueKeyImages.size(); start += MAX_KEY_IMAGES_PER_REQ) {
+        
+        // collect oldest batch in order if max batches are in flight
+        if (batches.size() >= MAX_CONCURRENT_KEY_IMAGE_REQS) consumeChunk(batches.removeFirst(), collector);
+        
+        // check batch asynchronously
+        List<String> batch = uniqueKeyImages.subList(start, Math.min(start + MAX_KEY_IMAGES_PER_REQ, uniqueKeyImages.size()));
+        batches.addLast(rpc.submit(new Callable<List<MoneroKeyImageSpentStatus>>() {
+          @Override
+          public List<MoneroKeyImageSpentStatus> call() {
+            return fetchKeyImageSpentStatuses(batch);
+          }
+        }));
+      }
+      
+      // collect remaining batches in order
+      while (!batches.isEmpty()) consumeChunk(batches.removeFirst(), collector);
+    } finally {
+      for (CompletableFuture<List<MoneroKeyImageSpentStatus>> batch : batches) batch.cancel(true);
     }
+    
+    // map statuses back to the given key images
+    List<MoneroKeyImageSpentStatus> statuses = new ArrayList<MoneroKeyImageSpentStatus>(keyImages.size());
+    for (String keyImage : keyImages) statuses.add(statusesByKeyImage.get(keyImage));
     return statuses;
   }
 
+  /**
+   * {@inheritDoc}
+   * 
+   * Large lists are split into requests of at most 1,000 outputs, up to 4 of
+   * which are sent concurrently.
+   */
   @Override
   public List<MoneroOutput> getOutputs(Collection<MoneroOutput> outputs) {
-    throw new RuntimeException("Not implemented");
+    if (outputs == null || outputs.isEmpty()) throw new MoneroException("Must provide outputs to get");
+    List<MoneroOutput> requestedOutputs = new ArrayList<MoneroOutput>(outputs);
+    List<MoneroOutput> fetchedOutputs = new ArrayList<MoneroOutput>(requestedOutputs.size());
+    Consumer<MoneroOutput> collector = new Consumer<MoneroOutput>() {
+      @Override
+      public void accept(MoneroOutput output) {
+        fetchedOutputs.add(output);
+      }
+    };
+    Deque<CompletableFuture<List<MoneroOutput>>> batches = new ArrayDeque<CompletableFuture<List<MoneroOutput>>>();
+    try {
+      for (int start = 0; start < requestedOutputs.size(); start += MAX_OUTPUTS_PER_REQ) {
+        
+        // collect oldest batch in order if max batches are in flight
+        if (batches.size() >= MAX_CONCURRENT_OUTPUT_REQS) consumeChunk(batches.removeFirst(), collector);
+        
+        // fetch batch asynchronously
+        List<MoneroOutput> batch = requestedOutputs.subList(start, Math.min(start + MAX_OUTPUTS_PER_REQ, requestedOutputs.size()));
+        batches.addLast(rpc.submit(new Callable<List<MoneroOutput>>() {
+          @Override
+          public List<MoneroOutput> call() {
+            return fetchOutputs(batch);
+          }
+        }));
+      }
+      
+      // collect remaining batches in order
+      while (!batches.isEmpty()) consumeChunk(batches.removeFirst(), collector);
+    } finally {
+      for (CompletableFuture<List<MoneroOutput>> batch : batches) batch.cancel(true);
+    }
+    return fetchedOutputs;
   }
 
   @SuppressWarnings("unchecked")
@@ -549,37 +817,35 @@ public class MoneroDaemonRpc extends MoneroDaemonDefault {
     return entries;
   }
 
+  /**
+   * {@inheritDoc}
+   * 
+   * The distribution is requested as json rather than as a binary blob.
+   */
+  @SuppressWarnings("unchecked")
   @Override
   public List<MoneroOutputDistributionEntry> getOutputDistribution(Collection<BigInteger> amounts, Boolean isCumulative, Long startHeight, Long endHeight) {
-    throw new RuntimeException("Not implemented (response 'distribution' field is binary)");
-//  let amountStrs = [];
-//  for (let amount of amounts) amountStrs.push(amount.toJSValue());
-//  console.log(amountStrs);
-//  console.log(cumulative);
-//  console.log(startHeight);
-//  console.log(endHeight);
-//  
-//  // send rpc request
-//  console.log("*********** SENDING REQUEST *************");
-//  if (startHeight === undefined) startHeight = 0;
-//  let resp = await this.config.rpc.sendJsonRequest("get_output_distribution", {
-//    amounts: amountStrs,
-//    cumulative: cumulative,
-//    from_height: startHeight,
-//    to_height: endHeight
-//  });
-//  
-//  console.log("RESPONSE");
-//  console.log(resp);
-//  
-//  // build distribution entries from response
-//  let entries = [];
-//  if (!resp.result.distributions) return entries; 
-//  for (let rpcEntry of resp.result.distributions) {
-//    let entry = MoneroDaemonRpc._convertRpcOutputDistributionEntry(rpcEntry);
-//    entries.push(entry);
-//  }
-//  return entries;
+    
+    // build request params
+    Map<String, Object> params = new HashMap<String, Object>();
+    params.put("amounts", amounts);
+    params.put("cumulative", isCumulative);
+    params.put("from_height", startHeight);
+    params.put("to_height", endHeight);
+    params.put("binary", false);
+    
+    // send rpc request
+    Map<String, Object> resp = rpc.sendJsonRequest("get_output_distribution", params);
+    Map<String, Object> result = (Map<String, Object>) resp.get("result");
+    checkResponseStatus(result);
+    
+    // build distribution entries from response
+    List<MoneroOutputDistributionEntry> entries = new ArrayList<MoneroOutputDistributionEntry>();
+    if (!result.containsKey("distributions")) return entries;
+    for (Map<String, Object> rpcEntry : (List<Map<String, Object>>) result.get("distributions")) {
+      entries.add(convertRpcOutputDistributionEntry(rpcEntry));
+    }
+    return entries;
   }
 
   @SuppressWarnings("unchecked")
@@ -881,6 +1147,31 @@ public class MoneroDaemonRpc extends MoneroDaemonDefault {
     daemonPoller.removeListener(listener);
   }
   
+  /**
+   * Register a listener to receive notifications as txs are added to and
+   * removed from the pool.
+   * 
+   * The pool is tracked by polling the ids of its txs, so only txs which are
+   * added or removed are fetched.  Txs in the pool when the first listener is
+   * registered are not notified as added.  Added txs are built from
+   * get_transactions, so they do not include fields which are only available
+   * from getTxPool(), e.g. the received timestamp.
+   * 
+   * @param listener is the listener to receive pool notifications
+   */
+  public void addTxPoolListener(MoneroTxPoolListener listener) {
+    txPoolPoller.addListener(listener);
+  }
+  
+  /**
+   * Unregister a listener to receive pool notifications.
+   * 
+   * @param listener is the listener to unregister
+   */
+  public void removeTxPoolListener(MoneroTxPoolListener listener) {
+    txPoolPoller.removeListener(listener);
+  }
+  
   // ------------------------------- PRIVATE INSTANCE  ----------------------------
   
   private int[] getBandwidthLimits() {
@@ -913,8 +1204,21 @@ public class MoneroDaemonRpc extends MoneroDaemonDefault {
     if (startHeight == null) startHeight = 0l;
     if (maxHeight == null) maxHeight = getHeight() - 1;
     if (chunkSize == null) chunkSize = MAX_REQ_SIZE;
-    
-    // determine end height to fetch
+    long endHeight = getMaxChunkEndHeight(startHeight, maxHeight, chunkSize);
+    return endHeight >= startHeight ? getBlocksByRange(startHeight, endHeight) : new ArrayList<MoneroBlock>();
+  }
+  
+  /**
+   * Get the end height of a contiguous chunk of blocks starting from a given
+   * height up to a maximum height or maximum amount of block data, whichever
+   * comes first.
+   * 
+   * @param startHeight is the start height of the chunk
+   * @param maxHeight is the maximum end height of the chunk
+   * @param chunkSize is the maximum chunk size in bytes
+   * @return the end height of the chunk, inclusive
+   */
+  private long getMaxChunkEndHeight(long startHeight, long maxHeight, long chunkSize) {
     int reqSize = 0;
     long endHeight = startHeight - 1;
     while (reqSize < chunkSize && endHeight < maxHeight) {
@@ -932,7 +1236,7 @@ public class MoneroDaemonRpc extends MoneroDaemonDefault {
       reqSize += header.getSize();
       endHeight++;
     }
-    return endHeight >= startHeight ? getBlocksByRange(startHeight, endHeight) : new ArrayList<MoneroBlock>();
+    return endHeight;
   }
   
   /**
@@ -945,27 +1249,345 @@ public class MoneroDaemonRpc extends MoneroDaemonDefault {
   private MoneroBlockHeader getBlockHeaderByHeightCached(long height, long maxHeight) {
     
     // get header from cache
-    MoneroBlockHeader cachedHeader = cachedHeaders.get(height);
+    MoneroBlockHeader cachedHeader = headerCache.get(height);
     if (cachedHeader != null) return cachedHeader;
     
     // fetch and cache headers if not in cache
     long endHeight = Math.min(maxHeight, height + NUM_HEADERS_PER_REQ - 1);  // TODO: could specify end height to cache to optimize small requests (would like to have time profiling in place though)
     List<MoneroBlockHeader> headers = getBlockHeadersByRange(height, endHeight);
-    for (MoneroBlockHeader header : headers) {
-      cachedHeaders.put(header.getHeight(), header);
+    
+    // return the fetched header which may be evicted if the cache is small
+    return headers.get(0);
+  }
+  
+  /**
+   * Fetches txs without merging fields which are only available from the pool.
+   * 
+   * @param txIds are ids of the txs to fetch
+   * @param prune specifies if the returned txs should be pruned
+   * @return the found txs, excluding ids which are not found
+   */
+  @SuppressWarnings("unchecked")
+  private List<MoneroTx> fetchTxs(Collection<String> txIds, Boolean prune) {
+    
+    // fetch transactions
+    Map<String, Object> params = new HashMap<String, Object>();
+    params.put("txs_hashes", txIds);
+    params.put("decode_as_json", true);
+    params.put("prune", prune);
+    Map<String, Object> respMap = rpc.sendPathRequest("get_transactions", params);
+    try {
+      checkResponseStatus(respMap);
+    } catch (MoneroException e) {
+      if (e.getMessage().indexOf("Failed to parse hex representation of transaction hash") >= 0) throw new MoneroException("Invalid transaction id", e.getCode());
+      throw e;
+    }
+    
+    //  interpret response
+    List<Map<String, Object>> rpcTxs = (List<Map<String, Object>>) respMap.get("txs");
+    
+    // build transaction models
+    List<MoneroTx> txs = new ArrayList<MoneroTx>();
+    if (rpcTxs != null) {
+      for (int i = 0; i < rpcTxs.size(); i++) {
+        MoneroTx tx = new MoneroTx();
+        tx.setIsMinerTx(false);
+        txs.add(convertRpcTx(rpcTxs.get(i), tx));
+      }
+    }
+    return txs;
+  }
+  
+  /**
+   * Sets the chain height of cached fee estimates, dropping estimates of
+   * another height.
+   * 
+   * @param height is the current chain height
+   * @param refresh specifies if estimates of another height are re-fetched for the new height
+   * @return the fee estimates of the height
+   */
+  private FeeEstimates updateFeeEstimates(long height, boolean refresh) {
+    FeeEstimates current;
+    FeeEstimates updated;
+    do {
+      current = feeEstimates.get();
+      updated = new FeeEstimates(height, current != null && current.height == height ? current.estimates : new ConcurrentHashMap<Integer, CompletableFuture<BigInteger>>());
+    } while (!feeEstimates.compareAndSet(current, updated));
+    
+    // re-fetch estimates which were requested at the previous height
+    if (refresh && current != null && current.height != height) {
+      for (Integer graceBlocks : current.estimates.keySet()) {
+        try {
+          join(getFeeEstimate(updated, graceBlocks));
+        } catch (MoneroException e) {
+          LOGGER.warning("Error refreshing fee estimate: " + e.getMessage());
+        }
+      }
+    }
+    return updated;
+  }
+  
+  /**
+   * Gets a cached fee estimate or fetches it once for concurrent callers.
+   * 
+   * @param estimates are the fee estimates of the current height
+   * @param graceBlocks is the number of grace blocks of the estimate
+   * @return the fee estimate, completed exceptionally if it could not be fetched
+   */
+  private CompletableFuture<BigInteger> getFeeEstimate(FeeEstimates estimates, int graceBlocks) {
+    CompletableFuture<BigInteger> estimate = estimates.estimates.get(graceBlocks);
+    if (estimate != null) return estimate;
+    CompletableFuture<BigInteger> created = new CompletableFuture<BigInteger>();
+    estimate = estimates.estimates.putIfAbsent(graceBlocks, created);
+    if (estimate != null) return estimate;
+    try {
+      created.complete(fetchFeeEstimate(graceBlocks));
+    } catch (RuntimeException e) {
+      estimates.estimates.remove(graceBlocks, created);  // retry on next call
+      created.completeExceptionally(e);
+    }
+    return created;
+  }
+  
+  @SuppressWarnings("unchecked")
+  private BigInteger fetchFeeEstimate(int graceBlocks) {
+    Map<String, Object> params = new HashMap<String, Object>();
+    params.put("grace_blocks", graceBlocks);
+    Map<String, Object> resp = rpc.sendJsonRequest("get_fee_estimate", params);
+    Map<String, Object> result = (Map<String, Object>) resp.get("result");
+    checkResponseStatus(result);
+    return (BigInteger) result.get("fee");
+  }
+  
+  /**
+   * Checks the spent status of key images in one request.
+   * 
+   * @param keyImages are the hex key images to check
+   * @return the spent status of each key image in the same order
+   */
+  @SuppressWarnings("unchecked")
+  private List<MoneroKeyImageSpentStatus> fetchKeyImageSpentStatuses(List<String> keyImages) {
+    Map<String, Object> params = new HashMap<String, Object>();
+    params.put("key_images", keyImages);
+    Map<String, Object> resp = rpc.sendPathRequest("is_key_image_spent", params);
+    checkResponseStatus(resp);
+    List<BigInteger> rpcStatuses = (List<BigInteger>) resp.get("spent_status");
+    if (rpcStatuses.size() != keyImages.size()) throw new MoneroException("Expected " + keyImages.size() + " spent statuses but got " + rpcStatuses.size());
+    List<MoneroKeyImageSpentStatus> statuses = new ArrayList<MoneroKeyImageSpentStatus>(rpcStatuses.size());
+    for (BigInteger bi : rpcStatuses) statuses.add(MoneroKeyImageSpentStatus.valueOf(bi.intValue()));
+    return statuses;
+  }
+  
+  /**
+   * Fetches outputs by amount and index in one binary request.
+   * 
+   * @param outputs identify each output by amount and index
+   * @return the fetched outputs in the same order
+   */
+  @SuppressWarnings("unchecked")
+  private List<MoneroOutput> fetchOutputs(List<MoneroOutput> outputs) {
+    
+    // build request
+    List<Map<String, Object>> rpcOutputs = new ArrayList<Map<String, Object>>();
+    for (MoneroOutput output : outputs) {
+      if (output.getIndex() == null) throw new MoneroException("Must provide the index of each output to get");
+      Map<String, Object> rpcOutput = new HashMap<String, Object>();
+      rpcOutput.put("amount", output.getAmount() == null ? BigInteger.ZERO : output.getAmount());
+      rpcOutput.put("index", output.getIndex());
+      rpcOutputs.add(rpcOutput);
     }
+    Map<String, Object> params = new HashMap<String, Object>();
+    params.put("outputs", rpcOutputs);
+    params.put("get_txid", true);
+    
+    // fetch outputs in binary
+    byte[] respBin = rpc.sendBinaryRequest("get_outs.bin", params);
+    Map<String, Object> resp = MoneroCppUtils.binaryToMap(respBin);
+    checkResponseStatus(resp);
     
-    // return the cached header
-    return cachedHeaders.get(height);
+    // build outputs
+    List<Map<String, Object>> rpcOuts = (List<Map<String, Object>>) resp.get("outs");
+    GenUtils.assertEquals(outputs.size(), rpcOuts.size());
+    List<MoneroOutput> fetchedOutputs = new ArrayList<MoneroOutput>();
+    for (int i = 0; i < rpcOuts.size(); i++) {
+      MoneroOutput output = new MoneroOutput();
+      output.setAmount(outputs.get(i).getAmount() == null ? BigInteger.ZERO : outputs.get(i).getAmount());
+      output.setIndex(outputs.get(i).getIndex());
+      fetchedOutputs.add(convertRpcOutsEntry(rpcOuts.get(i), output));
+    }
+    return fetchedOutputs;
+  }
+  
+  /**
+   * Builds txs in the pool as they are streamed from the daemon.
+   * 
+   * The daemon cannot filter the pool, but entries which are not wanted are
+   * skipped without being converted.
+   * 
+   * @param txIds are ids of the txs to build, all txs in the pool if null
+   * @param consumer accepts each tx built from the pool
+   */
+  private void forEachPoolTx(Set<String> txIds, Consumer<MoneroTx> consumer) {
+    Map<String, Object> resp = rpc.sendPathRequest("get_transaction_pool", null, Arrays.asList("transactions"), new BiConsumer<String, Map<String, Object>>() {
+      @Override
+      public void accept(String field, Map<String, Object> rpcTx) {
+        if (txIds != null && !txIds.contains(rpcTx.get("id_hash"))) return;
+        MoneroTx tx = new MoneroTx();
+        tx.setIsConfirmed(false);
+        tx.setIsMinerTx(false);
+        tx.setInTxPool(true);
+        tx.setNumConfirmations(0l);
+        consumer.accept(convertRpcTx(rpcTx, tx));
+      }
+    });
+    checkResponseStatus(resp);
+  }
+  
+  /**
+   * Finds the height where an orphaned chain forked from the main chain and
+   * drops cached headers from that height.
+   * 
+   * The orphaned chain is walked back by previous block id, fetching its
+   * headers by id, until it joins the main chain.  Used when the fork is
+   * older than the poller's window.
+   * 
+   * @param orphanedHeader is a header of the orphaned chain
+   * @return the fork height, which is the height of the first orphaned block
+   */
+  private long invalidateOrphanedHeaders(MoneroBlockHeader orphanedHeader) {
+    long height = orphanedHeader.getHeight();
+    String prevId = orphanedHeader.getPrevId();
+    try {
+      while (height > 0 && !fetchBlockHeaderByHeight(height - 1).getId().equals(prevId)) {
+        prevId = getBlockHeaderById(prevId).getPrevId();
+        height--;
+      }
+    } catch (MoneroException e) {
+      LOGGER.warning("Error finding fork height below height " + height + ": " + e.getMessage());  // e.g. orphaned block was pruned
+    }
+    LOGGER.fine("Dropping orphaned block headers from height " + height);
+    headerCache.invalidateFrom(height);
+    return height;
   }
   
   //---------------------------------- PRIVATE STATIC -------------------------------
   
+  private static <T> void consumeChunk(CompletableFuture<List<T>> chunk, Consumer<T> consumer) {
+    for (T item : join(chunk)) consumer.accept(item);
+  }
+  
+  private static <T> T join(CompletableFuture<T> future) {
+    try {
+      return future.join();
+    } catch (CompletionException e) {
+      if (e.getCause() instanceof RuntimeException) throw (RuntimeException) e.getCause();
+      throw new MoneroException(e.getCause());
+    }
+  }
+  
   private static void checkResponseStatus(Map<String, Object> resp) {
     String status = (String) resp.get("status");
     if (!"OK".equals(status)) throw new MoneroRpcException(status, null, null, null);
   }
   
+  @SuppressWarnings("unchecked")
+  private static MoneroTxPoolStats convertRpcTxPoolStats(Map<String, Object> rpcStats) {
+    MoneroTxPoolStats stats = new MoneroTxPoolStats();
+    for (String key : rpcStats.keySet()) {
+      Object val = rpcStats.get(key);
+      if (key.equals("bytes_max")) stats.setBytesMax(((Number) val).longValue());
+      else if (key.equals("bytes_med")) stats.setBytesMed(((Number) val).longValue());
+      else if (key.equals("bytes_min")) stats.setBytesMin(((Number) val).longValue());
+      else if (key.equals("bytes_total")) stats.setBytesTotal(((Number) val).longValue());
+      else if (key.equals("fee_total")) stats.setFeeTotal(((Number) val).longValue());
+      else if (key.equals("histo_98pc")) stats.setHisto98pc(((Number) val).longValue());
+      else if (key.equals("num_10m")) stats.setNum10m(((Number) val).intValue());
+      else if (key.equals("num_double_spends")) stats.setNumDoubleSpends(((Number) val).intValue());
+      else if (key.equals("num_failing")) stats.setNumFailing(((Number) val).intValue());
+      else if (key.equals("num_not_relayed")) stats.setNumNotRelayed(((Number) val).intValue());
+      else if (key.equals("oldest")) stats.setOldestTimestamp(((Number) val).longValue());
+      else if (key.equals("txs_total")) stats.setNumTxs(((Number) val).intValue());
+      else if (key.equals("histo")) {
+        List<MoneroTxPoolHistoEntry> histo = new ArrayList<MoneroTxPoolHistoEntry>();
+        if (val instanceof List) {
+          for (Map<String, Object> rpcEntry : (List<Map<String, Object>>) val) {
+            MoneroTxPoolHistoEntry entry = new MoneroTxPoolHistoEntry();
+            entry.setNumTxs(((Number) rpcEntry.get("txs")).intValue());
+            entry.setBytes(((Number) rpcEntry.get("bytes")).longValue());
+            histo.add(entry);
+          }
+        } else {
+          ByteBuffer buffer = toPodBuffer((String) val);
+          while (buffer.remaining() >= 16) {  // struct { uint32 txs; uint64 bytes; } with 4 bytes of padding
+            MoneroTxPoolHistoEntry entry = new MoneroTxPoolHistoEntry();
+            entry.setNumTxs(buffer.getInt());
+            buffer.getInt();
+            entry.setBytes(buffer.getLong());
+            histo.add(entry);
+          }
+        }
+        stats.setHisto(histo);
+      }
+      else LOGGER.warning("WARNING: ignoring unexpected field in tx pool stats: '" + key + "': " + val);
+    }
+    return stats;
+  }
+  
+  private static MoneroOutput convertRpcOutsEntry(Map<String, Object> rpcOut, MoneroOutput output) {
+    MoneroTx tx = new MoneroTx();
+    tx.setIsConfirmed(true);
+    tx.setInTxPool(false);
+    tx.setVouts(new ArrayList<MoneroOutput>(Arrays.asList(output)));
+    output.setTx(tx);
+    for (String key : rpcOut.keySet()) {
+      Object val = rpcOut.get(key);
+      if (key.equals("key")) output.setStealthPublicKey(binaryToHex((String) val));
+      else if (key.equals("txid")) tx.setId(binaryToHex((String) val));
+      else if (key.equals("height")) {
+        MoneroBlock block = new MoneroBlock();
+        block.setHeight(((Number) val).longValue());
+        tx.setBlock(block.setTxs(tx));
+      }
+      else if (key.equals("mask")) { }      // rct commitment is not modeled
+      else if (key.equals("unlocked")) { }  // not modeled
+      else LOGGER.warning("WARNING: ignoring unexpected field in output: '" + key + "': " + val);
+    }
+    return output;
+  }
+  
+  private static MoneroTxBacklogEntry convertRpcTxBacklogEntry(Map<String, Object> rpcEntry) {
+    MoneroTxBacklogEntry entry = new MoneroTxBacklogEntry();
+    for (String key : rpcEntry.keySet()) {
+      Object val = rpcEntry.get(key);
+      if (key.equals("weight")) entry.setWeight(((Number) val).longValue());
+      else if (key.equals("fee")) entry.setFee(BigInteger.valueOf(((Number) val).longValue()));
+      else if (key.equals("time_in_pool")) entry.setTimeInPool(((Number) val).longValue());
+      else LOGGER.warning("WARNING: ignoring unexpected field in tx backlog entry: '" + key + "': " + val);
+    }
+    return entry;
+  }
+  
+  /**
+   * Reads a field containing an array of c++ structs serialized as a binary
+   * string, e.g. the histogram of tx pool stats.
+   * 
+   * @param val is the field value with one char per byte
+   * @return a little endian buffer of the field's bytes
+   */
+  private static ByteBuffer toPodBuffer(String val) {
+    return ByteBuffer.wrap(val.getBytes(StandardCharsets.ISO_8859_1)).order(ByteOrder.LITTLE_ENDIAN);
+  }
+  
+  /**
+   * Converts a binary field such as a key or hash to hex.
+   * 
+   * @param val is the field value with one char per byte
+   * @return the hex string of the field's bytes
+   */
+  private static String binaryToHex(String val) {
+    return Hex.encodeHexString(val.getBytes(StandardCharsets.ISO_8859_1));
+  }
+  
   private static MoneroBlockTemplate convertRpcBlockTemplate(Map<String, Object> rpcTemplate) {
     MoneroBlockTemplate template = new MoneroBlockTemplate();
     for (String key : rpcTemplate.keySet()) {
@@ -1308,6 +1930,25 @@ public class MoneroDaemonRpc extends MoneroDaemonDefault {
     return entry;
   }
   
+  @SuppressWarnings("unchecked")
+  private static MoneroOutputDistributionEntry convertRpcOutputDistributionEntry(Map<String, Object> rpcEntry) {
+    MoneroOutputDistributionEntry entry = new MoneroOutputDistributionEntry();
+    for (String key : rpcEntry.keySet()) {
+      Object val = rpcEntry.get(key);
+      if (key.equals("amount")) entry.setAmount((BigInteger) val);
+      else if (key.equals("base")) entry.setBase(((BigInteger) val).intValue());
+      else if (key.equals("start_height")) entry.setStartHeight(((BigInteger) val).longValue());
+      else if (key.equals("distribution")) {
+        List<Integer> distribution = new ArrayList<Integer>();
+        for (BigInteger numOutputs : (List<BigInteger>) val) distribution.add(numOutputs.intValue());
+        entry.setDistribution(distribution);
+      }
+      else if (key.equals("binary") || key.equals("compress")) { }  // distribution is requested as json
+      else LOGGER.warning("WARNING: ignoring unexpected field in output distribution: " + key + ": " + val);
+    }
+    return entry;
+  }
+  
   private static MoneroDaemonInfo convertRpcInfo(Map<String, Object> rpcInfo) {
     if (rpcInfo == null) return null;
     MoneroDaemonInfo info = new MoneroDaemonInfo();
@@ -1483,86 +2124,370 @@ public class MoneroDaemonRpc extends MoneroDaemonDefault {
   }
   
   /**
-   * Polls a Monero daemon for updates and notifies listeners as they occur.
+   * Fee estimates by grace blocks at one chain height.
    */
-  private class MoneroDaemonPoller {
+  private static class FeeEstimates {
     
-    private MoneroDaemon daemon;
-    private MoneroDaemonPollerRunnable runnable;
-    private List<MoneroDaemonListener> listeners;
-    private static final long POLL_INTERVAL_MS = 10000; // poll every X ms  TODO: poll interval should come from configuration
+    private final long height;
+    private final long heightTime;  // time the height was last known to be current
+    private final ConcurrentMap<Integer, CompletableFuture<BigInteger>> estimates;
     
-    public MoneroDaemonPoller(MoneroDaemon daemon) {
-      this.daemon = daemon;
-      this.listeners = new ArrayList<MoneroDaemonListener>();
+    private FeeEstimates(long height, ConcurrentMap<Integer, CompletableFuture<BigInteger>> estimates) {
+      this.height = height;
+      this.heightTime = System.currentTimeMillis();
+      this.estimates = estimates;
     }
-
-    public void addListener(MoneroDaemonListener listener) {
-      
-      // register listener
+  }
+  
+  /**
+   * Polls the daemon while listeners are registered.
+   * 
+   * Polls are triggered by the scheduler of the connection's configuration,
+   * which is shared by all daemons using it, and run on its executor.  Each
+   * poll schedules the next when done, so polls of one daemon never overlap
+   * and a slow daemon only delays its own polls.  Polling backs off while
+   * requests fail.  Listeners are notified in order on the executor, so a slow
+   * listener does not delay polling.
+   */
+  private abstract class MoneroPoller<L> {
+    
+    private static final long MAX_BACKOFF_MS = 300000;
+    
+    protected List<L> listeners;
+    private volatile boolean isPolling;
+    private volatile long generation;  // incremented as polling starts and stops to discard polls and notifications of previous polling
+    private final Object pollLock;  // serializes polls and resetting their state
+    private long polledGeneration;  // generation of the poll in progress or last run
+    private ScheduledFuture<?> nextPoll;
+    private int numErrors;
+    private CompletableFuture<Void> notifications;
+    
+    public MoneroPoller() {
+      this.listeners = new CopyOnWriteArrayList<L>();
+      this.pollLock = new Object();
+      this.notifications = CompletableFuture.completedFuture(null);
+    }
+    
+    public synchronized void addListener(L listener) {
       listeners.add(listener);
-      
-      // start polling thread
-      if (runnable == null) {
-        runnable = new MoneroDaemonPollerRunnable(daemon, POLL_INTERVAL_MS);
-        Thread thread = new Thread(runnable);
-        thread.setDaemon(true); // daemon thread does not prevent JVM from halting
-        thread.start();
+      if (!isPolling) {
+        isPolling = true;
+        schedule(++generation, 0);
       }
     }
     
-    public void removeListener(MoneroDaemonListener listener) {
+    public boolean isPolling() {
+      return isPolling;
+    }
+    
+    public synchronized void removeListener(L listener) {
       boolean found = listeners.remove(listener);
       if (!found) throw new MoneroException("Listener is not registered");
       if (listeners.isEmpty()) {
-        runnable.terminate();
-        runnable = null;
+        isPolling = false;
+        generation++;
+        if (nextPoll != null) nextPoll.cancel(false);
+        nextPoll = null;
       }
     }
     
-    private class MoneroDaemonPollerRunnable implements Runnable {
+    /**
+     * Resets state of previous polling before the first poll of a generation.
+     * 
+     * Polls and resets never overlap, so a poll of previous polling which is
+     * still in progress when polling restarts finishes first.
+     */
+    protected abstract void reset();
+    
+    /**
+     * Polls the daemon once.
+     * 
+     * @return the delay until the next poll in milliseconds
+     */
+    protected abstract long poll();
+    
+    /**
+     * Gets the delay until the next poll if polls are not failing.
+     * 
+     * @return the poll interval in milliseconds
+     */
+    protected abstract long getPollInterval();
+    
+    /**
+     * Notifies listeners asynchronously after previous notifications.
+     * 
+     * Notifications of a poll whose polling has since stopped are dropped, so
+     * listeners added later never receive them.
+     * 
+     * @param notification notifies one listener
+     */
+    protected synchronized void notifyListeners(Consumer<L> notification) {
+      long notificationGeneration = polledGeneration;
+      if (notificationGeneration != generation) return;
+      notifications = notifications.thenRunAsync(new Runnable() {
+        @Override
+        public void run() {
+          for (L listener : listeners) {
+            if (notificationGeneration != generation) return;
+            try {
+              notification.accept(listener);
+            } catch (Exception e) {
+              LOGGER.log(Level.WARNING, "Error notifying listener", e);
+            }
+          }
+        }
+      }, rpc.getConfig().getExecutor());
+    }
+    
+    private synchronized void schedule(long pollGeneration, long delayMs) {
+      if (pollGeneration != generation) return;
+      MoneroRpcConnectionConfig config = rpc.getConfig();
+      nextPoll = config.getScheduler().schedule(new Runnable() {
+        @Override
+        public void run() {
+          config.getExecutor().execute(new Runnable() {
+            @Override
+            public void run() {
+              runPoll(pollGeneration);
+            }
+          });
+        }
+      }, delayMs, TimeUnit.MILLISECONDS);
+    }
+    
+    private void runPoll(long pollGeneration) {
+      long delayMs;
+      synchronized (pollLock) {
+        if (pollGeneration != generation) return;
+        
+        // reset state of previous polling on the first poll of a generation
+        if (pollGeneration != polledGeneration) {
+          polledGeneration = pollGeneration;
+          numErrors = 0;
+          reset();
+        }
+        try {
+          delayMs = poll();
+          numErrors = 0;
+        } catch (Exception e) {
+          numErrors++;
+          delayMs = Math.max(getPollInterval(), Math.min(getPollInterval() << Math.min(numErrors, 16), MAX_BACKOFF_MS));
+          LOGGER.warning("Error polling daemon, retrying in " + delayMs + " ms: " + e.getMessage());
+        }
+      }
+      schedule(pollGeneration, delayMs);
+    }
+  }
+  
+  /**
+   * Follows the chain by polling a Monero daemon for its last block header.
+   * 
+   * A window of recent headers is kept to notify every new block in order,
+   * fetching blocks added between polls in one range request, and to find
+   * the fork height when the chain is reorganized.
+   * 
+   * Polls are 4 times more frequent once a new block is expected.
+   */
+  private class MoneroDaemonPoller extends MoneroPoller<MoneroDaemonListener> {
+    
+    private static final int REORG_WINDOW_SIZE = 100;  // number of recent headers kept to find fork heights
+    
+    private Deque<MoneroBlockHeader> window = new ArrayDeque<MoneroBlockHeader>();
+    
+    @Override
+    protected void reset() {
+      window.clear();
+    }
+    
+    @Override
+    protected long poll() {
       
-      private MoneroDaemon daemon;
-      private long interval;
-      private boolean isTerminated;
+      // fetch and compare latest block header
+      MoneroBlockHeader header = getLastBlockHeader();
+      if (window.isEmpty()) window.addLast(header);
+      else if (!header.getId().equals(window.getLast().getId()) && !follow(header)) return getPollInterval();
+      updateFeeEstimates(header.getHeight() + 1, true);
+      
+      // poll faster from a quarter of the target block time before the next block is expected
+      long pollIntervalMs = getPollInterval();
+      if (header.getTimestamp() == null) return pollIntervalMs;
+      long untilFastPollMs = TARGET_BLOCK_TIME_MS * 3 / 4 - (System.currentTimeMillis() - header.getTimestamp() * 1000);
+      return Math.max(Math.max(1, pollIntervalMs / 4), Math.min(pollIntervalMs, untilFastPollMs));
+    }
+    
+    @Override
+    protected long getPollInterval() {
+      return pollIntervalMs;
+    }
+    
+    /**
+     * Notifies blocks from the last known block to the given tip, or the reorg
+     * and blocks of the new chain if the tip does not extend the known chain.
+     * 
+     * A tip which is an older block of the known chain is ignored, since polls
+     * may be balanced across nodes which are synced to different heights.
+     * 
+     * @param tip is the last block header of the daemon's chain
+     * @return true if the tip was followed, false if it was ignored
+     */
+    private boolean follow(MoneroBlockHeader tip) {
       
-      public MoneroDaemonPollerRunnable(MoneroDaemon daemon, long interval) {
-        this.daemon = daemon;
-        this.interval = interval;
-        this.isTerminated = false;
+      // ignore tip behind the known chain
+      MoneroBlockHeader lastHeader = window.getLast();
+      if (tip.getHeight() < lastHeader.getHeight()) {
+        MoneroBlockHeader knownHeader = getKnownHeader(tip.getHeight());
+        if (knownHeader != null && knownHeader.getId().equals(tip.getId())) return false;
       }
-
-      @Override
-      public void run() {
+      
+      // fetch blocks added since the last known block
+      List<MoneroBlockHeader> headers = tip.getHeight() > lastHeader.getHeight() ? getHeaderRange(lastHeader.getHeight() + 1, tip.getHeight()) : new ArrayList<MoneroBlockHeader>();
+      
+      // find fork height if the blocks do not extend the known chain
+      if (headers.isEmpty() || !lastHeader.getId().equals(headers.get(0).getPrevId())) {
+        long windowStartHeight = window.getFirst().getHeight();
+        headers = getHeaderRange(windowStartHeight, tip.getHeight());
+        long forkHeight = windowStartHeight;
+        for (MoneroBlockHeader header : headers) {
+          MoneroBlockHeader knownHeader = getKnownHeader(header.getHeight());
+          if (knownHeader == null || !knownHeader.getId().equals(header.getId())) break;
+          forkHeight = header.getHeight() + 1;
+        }
         
-        // get header to detect changes while polling
-        MoneroBlockHeader lastHeader = daemon.getLastBlockHeader();
+        // drop replaced headers
+        MoneroBlockHeader windowStartHeader = window.getFirst();
+        while (!window.isEmpty() && window.getLast().getHeight() >= forkHeight) window.removeLast();
+        if (window.isEmpty()) {  // fork is older than the window
+          forkHeight = invalidateOrphanedHeaders(windowStartHeader);
+          headers = getHeaderRange(forkHeight, tip.getHeight());
+        } else {
+          headerCache.invalidateFrom(tip.getHeight() + 1);  // headers of the new chain were cached by range
+        }
         
-        // poll until stopped
-        while (!isTerminated) {
-          
-          // pause for interval ms
-          try {
-            TimeUnit.MILLISECONDS.sleep(interval);
-          } catch (InterruptedException e) {
-            e.printStackTrace();
-            terminate();
+        // notify reorg
+        LOGGER.fine("Chain reorganized from height " + forkHeight);
+        long reorgHeight = forkHeight;
+        notifyListeners(new Consumer<MoneroDaemonListener>() {
+          @Override
+          public void accept(MoneroDaemonListener listener) {
+            listener.onReorg(reorgHeight);
           }
-          
-          // fetch and compare latest block header
-          MoneroBlockHeader header = daemon.getLastBlockHeader();
-          if (!header.getId().equals(lastHeader.getId())) {
-            lastHeader = header;
-            for (MoneroDaemonListener listener : listeners) {
-              listener.onBlockHeader(header); // notify listener
-            }
+        });
+        List<MoneroBlockHeader> newHeaders = new ArrayList<MoneroBlockHeader>();
+        for (MoneroBlockHeader header : headers) if (header.getHeight() >= forkHeight) newHeaders.add(header);
+        headers = newHeaders;
+      }
+      
+      // notify blocks in order
+      for (MoneroBlockHeader header : headers) {
+        window.addLast(header);
+        notifyListeners(new Consumer<MoneroDaemonListener>() {
+          @Override
+          public void accept(MoneroDaemonListener listener) {
+            listener.onBlockHeader(header);
+          }
+        });
+      }
+      while (window.size() > REORG_WINDOW_SIZE) window.removeFirst();
+      return true;
+    }
+    
+    private MoneroBlockHeader getKnownHeader(long height) {
+      long index = height - window.getFirst().getHeight();
+      if (index < 0 || index >= window.size()) return null;
+      Iterator<MoneroBlockHeader> iter = window.iterator();
+      for (long i = 0; i < index; i++) iter.next();
+      return iter.next();
+    }
+    
+    private List<MoneroBlockHeader> getHeaderRange(long startHeight, long endHeight) {
+      List<MoneroBlockHeader> headers = new ArrayList<MoneroBlockHeader>();
+      for (long height = startHeight; height <= endHeight; height += NUM_HEADERS_PER_REQ) {
+        headers.addAll(getBlockHeadersByRange(height, Math.min(endHeight, height + NUM_HEADERS_PER_REQ - 1)));
+      }
+      return headers;
+    }
+  }
+
+  /**
+   * Polls the ids of txs in the pool and notifies listeners of differences.
+   */
+  private class MoneroTxPoolPoller extends MoneroPoller<MoneroTxPoolListener> {
+    
+    private static final long POLL_INTERVAL_MS = 500;
+    
+    private Set<String> poolTxIds;  // ids of txs last seen in the pool
+    
+    @Override
+    protected void reset() {
+      poolTxIds = null;
+    }
+    
+    @Override
+    protected long getPollInterval() {
+      return POLL_INTERVAL_MS;
+    }
+    
+    @Override
+    protected long poll() {
+      
+      // diff ids of txs in the pool
+      Set<String> txIds = new HashSet<String>(getTxPoolIds());
+      if (poolTxIds == null) {
+        poolTxIds = txIds;
+        return POLL_INTERVAL_MS;
+      }
+      List<String> addedIds = new ArrayList<String>();
+      for (String txId : txIds) if (!poolTxIds.contains(txId)) addedIds.add(txId);
+      List<String> removedIds = new ArrayList<String>();
+      for (String txId : poolTxIds) if (!txIds.contains(txId)) removedIds.add(txId);
+      
+      // fetch added txs which may have left the pool since
+      if (!addedIds.isEmpty()) {
+        txIds.removeAll(addedIds);
+        for (MoneroTx tx : fetchTxs(addedIds, false)) {
+          if (Boolean.TRUE.equals(tx.inTxPool())) {
+            txIds.add(tx.getId());
+            notifyListeners(new Consumer<MoneroTxPoolListener>() {
+              @Override
+              public void accept(MoneroTxPoolListener listener) {
+                listener.onTxAdded(tx);
+              }
+            });
+          } else if (Boolean.TRUE.equals(tx.isConfirmed())) {
+            notifyTxConfirmed(tx);
           }
         }
       }
       
-      public void terminate() {
-        isTerminated = true;
+      // fetch removed txs to determine if they were confirmed
+      if (!removedIds.isEmpty()) {
+        Map<String, MoneroTx> removedTxs = new HashMap<String, MoneroTx>();
+        for (MoneroTx tx : fetchTxs(removedIds, false)) removedTxs.put(tx.getId(), tx);
+        for (String txId : removedIds) {
+          MoneroTx tx = removedTxs.get(txId);
+          if (tx != null && Boolean.TRUE.equals(tx.inTxPool())) txIds.add(txId); // still in pool, e.g. reorged back
+          else if (tx != null && Boolean.TRUE.equals(tx.isConfirmed())) notifyTxConfirmed(tx);
+          else {
+            notifyListeners(new Consumer<MoneroTxPoolListener>() {
+              @Override
+              public void accept(MoneroTxPoolListener listener) {
+                listener.onTxRemoved(txId);
+              }
+            });
+          }
+        }
       }
+      poolTxIds = txIds;
+      return POLL_INTERVAL_MS;
+    }
+    
+    private void notifyTxConfirmed(MoneroTx tx) {
+      notifyListeners(new Consumer<MoneroTxPoolListener>() {
+        @Override
+        public void accept(MoneroTxPoolListener listener) {
+          listener.onTxConfirmed(tx);
+        }
+      });
     }
   }
 }
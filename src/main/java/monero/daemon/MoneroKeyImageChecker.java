@@ -0,0 +1,203 @@
+package monero.daemon;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.LongAdder;
+
+import monero.daemon.model.MoneroKeyImageSpentStatus;
+import monero.utils.MoneroException;
+
+/**
+ * Checks the spent status of many key images with caching.
+ *
+ * Each unique key image is checked at most once per call.  Key images which
+ * are not cached are checked with the daemon, which splits large lists into
+ * concurrent requests.  Confirmed spends are cached until cleared, spends in
+ * the tx pool are cached for a short time since they may be confirmed or
+ * dropped, and unspent key images are not cached.
+ *
+ * A confirmed spend can be undone by a reorg deeper than its block, so clear
+ * the cache on reorgs if that matters, e.g. from
+ * <code>MoneroDaemonListener.onReorg()</code>.
+ */
+public class MoneroKeyImageChecker {
+
+  public static final long DEFAULT_POOL_TTL_MS = 10000;
+
+  private MoneroDaemon daemon;
+  private Set<String> confirmed;
+  private ConcurrentMap<String, Long> pool;  // key image to expiration in nanos
+  private volatile long poolTtlMs;
+  private final LongAdder numChecked = new LongAdder();
+  private final LongAdder numCacheHits = new LongAdder();
+  private final LongAdder numFetched = new LongAdder();
+  private final LongAdder fetchTimeNanos = new LongAdder();
+
+  public MoneroKeyImageChecker(MoneroDaemon daemon) {
+    if (daemon == null) throw new MoneroException("Must provide daemon to check key images with");
+    this.daemon = daemon;
+    this.confirmed = ConcurrentHashMap.newKeySet();
+    this.pool = new ConcurrentHashMap<String, Long>();
+    setPoolTtl(DEFAULT_POOL_TTL_MS);
+  }
+
+  /**
+   * Get the spent status of a key image.
+   *
+   * @param keyImage is the hex key image to get the status of
+   * @return the status of the key image
+   */
+  public MoneroKeyImageSpentStatus getSpentStatus(String keyImage) {
+    return getSpentStatuses(Arrays.asList(keyImage)).get(0);
+  }
+
+  /**
+   * Get the spent status of each key image.
+   *
+   * @param keyImages are the hex key images to get the statuses of, which may contain duplicates
+   * @return the spent status of each key image in the same order
+   */
+  public List<MoneroKeyImageSpentStatus> getSpentStatuses(Collection<String> keyImages) {
+    if (keyImages == null || keyImages.isEmpty()) throw new MoneroException("Must provide key images to check the status of");
+    numChecked.add(keyImages.size());
+
+    // get cached statuses
+    long now = System.nanoTime();
+    Map<String, MoneroKeyImageSpentStatus> statusesByKeyImage = new HashMap<String, MoneroKeyImageSpentStatus>();
+    List<String> uncachedKeyImages = new ArrayList<String>();
+    for (String keyImage : new LinkedHashSet<String>(keyImages)) {
+      MoneroKeyImageSpentStatus status = getCached(keyImage, now);
+      if (status == null) uncachedKeyImages.add(keyImage);
+      else statusesByKeyImage.put(keyImage, status);
+    }
+    numCacheHits.add(statusesByKeyImage.size());
+
+    // check uncached key images with the daemon
+    if (!uncachedKeyImages.isEmpty()) {
+      long start = System.nanoTime();
+      List<MoneroKeyImageSpentStatus> fetchedStatuses = daemon.getKeyImageSpentStatuses(uncachedKeyImages);
+      long end = System.nanoTime();
+      fetchTimeNanos.add(end - start);
+      numFetched.add(uncachedKeyImages.size());
+      long poolExpiration = end + TimeUnit.MILLISECONDS.toNanos(poolTtlMs);
+      for (int i = 0; i < uncachedKeyImages.size(); i++) {
+        String keyImage = uncachedKeyImages.get(i);
+        MoneroKeyImageSpentStatus status = fetchedStatuses.get(i);
+        statusesByKeyImage.put(keyImage, status);
+        if (status == MoneroKeyImageSpentStatus.CONFIRMED) {
+          confirmed.add(keyImage);
+          pool.remove(keyImage);
+        } else if (status == MoneroKeyImageSpentStatus.TX_POOL) {
+          if (poolTtlMs > 0) pool.put(keyImage, poolExpiration);
+        } else {
+          pool.remove(keyImage);
+        }
+      }
+    }
+
+    // map statuses back to the given key images
+    List<MoneroKeyImageSpentStatus> statuses = new ArrayList<MoneroKeyImageSpentStatus>(keyImages.size());
+    for (String keyImage : keyImages) statuses.add(statusesByKeyImage.get(keyImage));
+    return statuses;
+  }
+
+  /**
+   * Get the time spends in the tx pool are cached.
+   *
+   * @return the time in milliseconds tx pool spends are cached
+   */
+  public long getPoolTtl() {
+    return poolTtlMs;
+  }
+
+  /**
+   * Set the time spends in the tx pool are cached.
+   *
+   * @param poolTtlMs is the time in milliseconds to cache tx pool spends, 0 to not cache them
+   */
+  public void setPoolTtl(long poolTtlMs) {
+    if (poolTtlMs < 0) throw new MoneroException("Pool ttl cannot be negative: " + poolTtlMs);
+    this.poolTtlMs = poolTtlMs;
+  }
+
+  /**
+   * Get the number of cached key images.
+   *
+   * @return the number of cached confirmed and tx pool spends, including expired tx pool spends not yet rechecked
+   */
+  public int getNumCached() {
+    return confirmed.size() + pool.size();
+  }
+
+  /**
+   * Drop all cached statuses.  Metrics are not reset.
+   */
+  public void clear() {
+    confirmed.clear();
+    pool.clear();
+  }
+
+  /**
+   * Get the number of key images requested, including duplicates.
+   *
+   * @return the number of key images requested
+   */
+  public long getNumChecked() {
+    return numChecked.sum();
+  }
+
+  /**
+   * Get the number of unique key images per call whose status was cached.
+   *
+   * @return the number of cache hits
+   */
+  public long getNumCacheHits() {
+    return numCacheHits.sum();
+  }
+
+  /**
+   * Get the number of key images checked with the daemon.
+   *
+   * @return the number of key images checked with the daemon
+   */
+  public long getNumFetched() {
+    return numFetched.sum();
+  }
+
+  /**
+   * Get the total time spent checking key images with the daemon.
+   *
+   * @return the time in milliseconds spent checking key images with the daemon
+   */
+  public double getFetchTimeMs() {
+    return fetchTimeNanos.sum() / 1000000d;
+  }
+
+  /**
+   * Get the throughput of checking key images with the daemon.
+   *
+   * @return the number of key images checked with the daemon per second of fetch time
+   */
+  public double getFetchRate() {
+    long nanos = fetchTimeNanos.sum();
+    return nanos == 0 ? 0 : numFetched.sum() * 1000000000d / nanos;
+  }
+
+  private MoneroKeyImageSpentStatus getCached(String keyImage, long now) {
+    if (confirmed.contains(keyImage)) return MoneroKeyImageSpentStatus.CONFIRMED;
+    Long expiration = pool.get(keyImage);
+    if (expiration == null) return null;
+    if (expiration - now > 0) return MoneroKeyImageSpentStatus.TX_POOL;
+    pool.remove(keyImage, expiration);
+    return null;
+  }
+}
@@ -0,0 +1,257 @@
+package monero.daemon;
+
+import java.math.BigInteger;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+
+import monero.daemon.model.MoneroBlockHeader;
+import monero.daemon.model.MoneroOutputDistributionEntry;
+import monero.daemon.model.MoneroOutputHistogramEntry;
+import monero.utils.MoneroException;
+
+/**
+ * Caches output distributions and histograms of a daemon.
+ *
+ * The cumulative distribution of each amount is stored in a primitive array
+ * and synced to the chain tip as it is queried.  Only heights added since
+ * the last sync are fetched.  If the chain was reorganized since the last
+ * sync, the distributions are truncated to the highest previously synced
+ * tip which is still in the main chain and re-fetched from there.
+ *
+ * Histograms depend on the chain tip, so they are cached until the tip
+ * changes.
+ */
+public class MoneroOutputDistributionCache {
+
+  private static final int MAX_SYNCED_TIPS = 64;  // number of synced tips to remember to find the fork height of reorgs
+
+  private MoneroDaemonRpc daemon;
+  private Map<BigInteger, Distribution> distributions;
+  private TreeMap<Long, String> syncedTips;  // ids of the tips distributions were synced to by height
+  private Map<List<Object>, List<MoneroOutputHistogramEntry>> histograms;
+  private String histogramsTipId;
+
+  public MoneroOutputDistributionCache(MoneroDaemonRpc daemon) {
+    if (daemon == null) throw new MoneroException("Must provide daemon to cache output distributions of");
+    this.daemon = daemon;
+    this.distributions = new HashMap<BigInteger, Distribution>();
+    this.syncedTips = new TreeMap<Long, String>();
+    this.histograms = new HashMap<List<Object>, List<MoneroOutputHistogramEntry>>();
+  }
+
+  /**
+   * Get the cumulative output distribution of an amount synced to the chain
+   * tip.
+   *
+   * @param amount is the amount of outputs, 0 for RingCT outputs
+   * @return the number of outputs with the amount at or below each height starting from getStartHeight(amount)
+   */
+  public synchronized long[] getCumulativeDistribution(BigInteger amount) {
+    Distribution distribution = sync(Arrays.asList(amount)).get(amount);
+    return Arrays.copyOf(distribution.cumulative, distribution.size);
+  }
+
+  /**
+   * Get the height of the first block in an amount's distribution.
+   *
+   * @param amount is the amount of outputs, 0 for RingCT outputs
+   * @return the height of the first block in the amount's distribution
+   */
+  public synchronized long getStartHeight(BigInteger amount) {
+    return sync(Arrays.asList(amount)).get(amount).startHeight;
+  }
+
+  /**
+   * Get the number of outputs with an amount at or below a height.
+   *
+   * @param amount is the amount of outputs, 0 for RingCT outputs
+   * @param height is the height to get the number of outputs at
+   * @return the number of outputs with the amount at or below the height
+   */
+  public synchronized long getNumOutputs(BigInteger amount, long height) {
+    Distribution distribution = sync(Arrays.asList(amount)).get(amount);
+    if (height < distribution.startHeight || distribution.size == 0) return 0;
+    return distribution.cumulative[(int) Math.min(height - distribution.startHeight, distribution.size - 1)];
+  }
+
+  /**
+   * Get output distributions from the cache.
+   *
+   * @param amounts are amounts of outputs to get the distributions of
+   * @param isCumulative specifies if the distributions should be cumulative (default false)
+   * @param startHeight is the start height lower bound inclusive (optional)
+   * @param endHeight is the end height upper bound inclusive (optional)
+   * @return the output distribution of each amount
+   */
+  public synchronized List<MoneroOutputDistributionEntry> getOutputDistribution(Collection<BigInteger> amounts, Boolean isCumulative, Long startHeight, Long endHeight) {
+    if (amounts == null || amounts.isEmpty()) throw new MoneroException("Must provide amounts to get the output distributions of");
+    Map<BigInteger, Distribution> synced = sync(amounts);
+    List<MoneroOutputDistributionEntry> entries = new ArrayList<MoneroOutputDistributionEntry>();
+    for (BigInteger amount : amounts) {
+      Distribution distribution = synced.get(amount);
+      int start = (int) Math.max(0, (startHeight == null ? 0 : startHeight) - distribution.startHeight);
+      int end = endHeight == null || endHeight == 0 ? distribution.size - 1 : (int) Math.min(endHeight - distribution.startHeight, distribution.size - 1);
+      long base = start == 0 ? 0 : distribution.cumulative[start - 1];
+      List<Integer> counts = new ArrayList<Integer>(Math.max(0, end - start + 1));
+      for (int i = start; i <= end; i++) {
+        counts.add((int) (Boolean.TRUE.equals(isCumulative) ? distribution.cumulative[i] : distribution.cumulative[i] - (i == 0 ? 0 : distribution.cumulative[i - 1])));
+      }
+      MoneroOutputDistributionEntry entry = new MoneroOutputDistributionEntry();
+      entry.setAmount(amount);
+      entry.setBase(Boolean.TRUE.equals(isCumulative) ? 0 : (int) base);
+      entry.setStartHeight(distribution.startHeight + start);
+      entry.setDistribution(counts);
+      entries.add(entry);
+    }
+    return entries;
+  }
+
+  /**
+   * Get an output histogram, cached until the chain tip changes.
+   *
+   * @param amounts are amounts of outputs to make the histogram with
+   * @param minCount is the minimum number of outputs of an amount to include it
+   * @param maxCount is the maximum number of outputs of an amount to include it
+   * @param isUnlocked makes a histogram with outputs with the specified lock state
+   * @param recentCutoff is the timestamp after which outputs are counted as recent
+   * @return output histogram entries meeting the parameters
+   */
+  public synchronized List<MoneroOutputHistogramEntry> getOutputHistogram(Collection<BigInteger> amounts, Integer minCount, Integer maxCount, Boolean isUnlocked, Integer recentCutoff) {
+    String tipId = daemon.getLastBlockHeader().getId();
+    if (!tipId.equals(histogramsTipId)) {
+      histograms.clear();
+      histogramsTipId = tipId;
+    }
+    List<Object> key = Arrays.asList(amounts == null ? null : new ArrayList<BigInteger>(amounts), minCount, maxCount, isUnlocked, recentCutoff);
+    List<MoneroOutputHistogramEntry> histogram = histograms.get(key);
+    if (histogram == null) {
+      histogram = daemon.getOutputHistogram(amounts, minCount, maxCount, isUnlocked, recentCutoff);
+      histograms.put(key, histogram);
+    }
+    return new ArrayList<MoneroOutputHistogramEntry>(histogram);
+  }
+
+  /**
+   * Drop all cached distributions and histograms.
+   */
+  public synchronized void clear() {
+    distributions.clear();
+    syncedTips.clear();
+    histograms.clear();
+    histogramsTipId = null;
+  }
+
+  /**
+   * Syncs the distributions of amounts to the chain tip.
+   *
+   * @param amounts are the amounts to sync the distributions of
+   * @return the synced distributions by amount
+   */
+  private Map<BigInteger, Distribution> sync(Collection<BigInteger> amounts) {
+    MoneroBlockHeader tip = daemon.getLastBlockHeader();
+    repair(tip);
+
+    // group amounts by the height to fetch from
+    Map<Long, List<BigInteger>> amountsByFromHeight = new HashMap<Long, List<BigInteger>>();
+    for (BigInteger amount : amounts) {
+      Distribution distribution = distributions.get(amount);
+      long fromHeight = distribution == null ? 0 : distribution.startHeight + distribution.size;
+      if (fromHeight > tip.getHeight()) continue;
+      List<BigInteger> group = amountsByFromHeight.get(fromHeight);
+      if (group == null) {
+        group = new ArrayList<BigInteger>();
+        amountsByFromHeight.put(fromHeight, group);
+      }
+      if (!group.contains(amount)) group.add(amount);
+    }
+
+    // fetch cumulative distributions from each height to the tip
+    for (Map.Entry<Long, List<BigInteger>> group : amountsByFromHeight.entrySet()) {
+      for (MoneroOutputDistributionEntry entry : daemon.getOutputDistribution(group.getValue(), true, group.getKey(), tip.getHeight())) {
+        Distribution distribution = distributions.get(entry.getAmount());
+        if (distribution == null) {
+          distribution = new Distribution(entry.getStartHeight());
+          distributions.put(entry.getAmount(), distribution);
+        }
+        distribution.set(entry.getStartHeight(), entry.getDistribution());
+      }
+    }
+
+    // remember the synced tip to detect reorgs
+    syncedTips.put(tip.getHeight(), tip.getId());
+    while (syncedTips.size() > MAX_SYNCED_TIPS) syncedTips.pollFirstEntry();
+
+    // collect synced distributions
+    Map<BigInteger, Distribution> synced = new HashMap<BigInteger, Distribution>();
+    for (BigInteger amount : amounts) {
+      Distribution distribution = distributions.get(amount);
+      if (distribution == null) throw new MoneroException("Daemon did not return output distribution of amount " + amount);
+      synced.put(amount, distribution);
+    }
+    return synced;
+  }
+
+  /**
+   * Truncates distributions to the highest synced tip still in the main
+   * chain.
+   *
+   * Normally the last synced tip is the tip or its parent, so no header is
+   * fetched.
+   *
+   * @param tip is the latest header of the main chain
+   */
+  private void repair(MoneroBlockHeader tip) {
+    Map.Entry<Long, String> synced = syncedTips.lastEntry();
+    if (synced == null) return;
+    boolean isReorged = false;
+    long tipHeight = tip.getHeight();
+    while (synced != null) {
+      long syncedHeight = synced.getKey();
+      String id;
+      if (syncedHeight == tipHeight) id = tip.getId();
+      else if (syncedHeight == tipHeight - 1) id = tip.getPrevId();
+      else if (syncedHeight < tipHeight) id = daemon.getBlockHeaderByHeight(syncedHeight).getId();
+      else id = null;
+      if (synced.getValue().equals(id)) break;
+      syncedTips.pollLastEntry();
+      synced = syncedTips.lastEntry();
+      isReorged = true;
+    }
+    if (!isReorged) return;
+    if (synced == null) distributions.clear();
+    else for (Distribution distribution : distributions.values()) distribution.truncate(synced.getKey());
+  }
+
+  /**
+   * Cumulative output distribution of one amount.
+   */
+  private static class Distribution {
+
+    private long startHeight;
+    private long[] cumulative;
+    private int size;
+
+    private Distribution(long startHeight) {
+      this.startHeight = startHeight;
+      this.cumulative = new long[0];
+    }
+
+    private void set(long fromHeight, List<Integer> counts) {
+      int offset = (int) (fromHeight - startHeight);
+      if (offset < 0 || offset > size) throw new MoneroException("Output distribution from height " + fromHeight + " does not continue cached distribution ending at height " + (startHeight + size - 1));
+      int newSize = offset + counts.size();
+      if (newSize > cumulative.length) cumulative = Arrays.copyOf(cumulative, Math.max(newSize, cumulative.length + cumulative.length / 2));
+      for (int i = 0; i < counts.size(); i++) cumulative[offset + i] = counts.get(i);
+      size = newSize;
+    }
+
+    private void truncate(long endHeight) {
+      size = (int) Math.max(0, Math.min(size, endHeight - startHeight + 1));
+    }
+  }
+}
@@ -8,7 +8,8 @@ public class MoneroDaemonListener {
   private MoneroBlockHeader lastHeader;
 
   /**
-   * Called when a new block is added to the chain.
+   * Called when a new block is added to the chain.  Each block is notified in
+   * height order, including blocks added between polls.
    * 
    * @param header is the header of the block added to the chain
    */
@@ -16,6 +17,15 @@ public class MoneroDaemonListener {
     lastHeader = header;
   }
   
+  /**
+   * Called when blocks are removed from the chain by a reorg.  Blocks of the
+   * new chain from the fork height are then notified with onBlockHeader() in
+   * order.
+   * 
+   * @param forkHeight is the height of the first block which was replaced
+   */
+  public void onReorg(long forkHeight) { }
+  
   /**
    * Get the last notified block header.
    * 
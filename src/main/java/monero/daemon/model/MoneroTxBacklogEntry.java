@@ -1,8 +1,42 @@
 package monero.daemon.model;
 
+import java.math.BigInteger;
+
 /**
- * TODO.
+ * Entry in the transaction pool backlog (see get_txpool_backlog of Daemon RPC documentation).
  */
 public class MoneroTxBacklogEntry {
-
+  
+  private Long weight;
+  private BigInteger fee;
+  private Long timeInPool;
+  
+  public Long getWeight() {
+    return weight;
+  }
+  
+  public void setWeight(Long weight) {
+    this.weight = weight;
+  }
+  
+  public BigInteger getFee() {
+    return fee;
+  }
+  
+  public void setFee(BigInteger fee) {
+    this.fee = fee;
+  }
+  
+  /**
+   * Get the time the transaction has been in the pool.
+   * 
+   * @return the time in the pool in seconds
+   */
+  public Long getTimeInPool() {
+    return timeInPool;
+  }
+  
+  public void setTimeInPool(Long timeInPool) {
+    this.timeInPool = timeInPool;
+  }
 }
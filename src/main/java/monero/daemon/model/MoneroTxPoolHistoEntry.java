@@ -0,0 +1,27 @@
+package monero.daemon.model;
+
+/**
+ * Entry in the histogram of transaction pool statistics, which groups
+ * transactions by their time in the pool.
+ */
+public class MoneroTxPoolHistoEntry {
+  
+  private Integer numTxs;
+  private Long bytes;
+  
+  public Integer getNumTxs() {
+    return numTxs;
+  }
+  
+  public void setNumTxs(Integer numTxs) {
+    this.numTxs = numTxs;
+  }
+  
+  public Long getBytes() {
+    return bytes;
+  }
+  
+  public void setBytes(Long bytes) {
+    this.bytes = bytes;
+  }
+}
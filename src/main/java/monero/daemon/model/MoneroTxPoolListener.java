@@ -0,0 +1,30 @@
+package monero.daemon.model;
+
+/**
+ * Receives notifications as transactions are added to and removed from a
+ * daemon's transaction pool.
+ */
+public class MoneroTxPoolListener {
+
+  /**
+   * Called when a transaction is added to the pool.
+   *
+   * @param tx is the transaction added to the pool
+   */
+  public void onTxAdded(MoneroTx tx) { }
+
+  /**
+   * Called when a transaction leaves the pool because it was confirmed.
+   *
+   * @param tx is the confirmed transaction
+   */
+  public void onTxConfirmed(MoneroTx tx) { }
+
+  /**
+   * Called when a transaction leaves the pool without being confirmed, e.g.
+   * when it is flushed, expires, or becomes a double spend.
+   *
+   * @param txId is the id of the transaction removed from the pool
+   */
+  public void onTxRemoved(String txId) { }
+}
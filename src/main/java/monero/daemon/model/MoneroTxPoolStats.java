@@ -1,5 +1,7 @@
 package monero.daemon.model;
 
+import java.util.List;
+
 /**
  * Models transaction pool statistics.
  */
@@ -15,7 +17,7 @@ public class MoneroTxPoolStats {
   private Long bytesMed;
   private Long bytesMin;
   private Long bytesTotal;
-  private Object histo;
+  private List<MoneroTxPoolHistoEntry> histo;
   private Long histo98pc;
   private Long oldestTimestamp;
   
@@ -99,11 +101,16 @@ public class MoneroTxPoolStats {
     this.bytesTotal = bytesTotal;
   }
   
-  public Object getHisto() {
+  /**
+   * Get the histogram of transactions by their time in the pool.
+   * 
+   * @return the histogram entries, null if the pool has less than two transactions
+   */
+  public List<MoneroTxPoolHistoEntry> getHisto() {
     return histo;
   }
   
-  public void setHisto(Object histo) {
+  public void setHisto(List<MoneroTxPoolHistoEntry> histo) {
     this.histo = histo;
   }
   
@@ -0,0 +1,14 @@
+package monero.rpc;
+
+/**
+ * Receives notifications as a connection manager changes its best connection.
+ */
+public class MoneroConnectionManagerListener {
+
+  /**
+   * Called when the manager's best connection changes, e.g. on failover.
+   *
+   * @param connection is the new best connection, null if the manager has no connections
+   */
+  public void onConnectionChanged(MoneroRpcConnection connection) { }
+}
@@ -1,9 +1,24 @@
 package monero.rpc;
 
+import java.io.FilterInputStream;
+import java.io.IOException;
+import java.io.InputStream;
 import java.math.BigInteger;
 import java.net.URI;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Collection;
 import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
 import java.util.Map;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.BiConsumer;
+import java.util.logging.Level;
 import java.util.logging.Logger;
 
 import org.apache.http.HttpEntity;
@@ -12,14 +27,18 @@ import org.apache.http.auth.AuthScope;
 import org.apache.http.auth.UsernamePasswordCredentials;
 import org.apache.http.client.CredentialsProvider;
 import org.apache.http.client.HttpClient;
+import org.apache.http.client.entity.GzipCompressingEntity;
 import org.apache.http.client.methods.HttpPost;
 import org.apache.http.entity.ByteArrayEntity;
-import org.apache.http.entity.StringEntity;
+import org.apache.http.entity.ContentType;
 import org.apache.http.impl.client.BasicCredentialsProvider;
+import org.apache.http.impl.client.HttpClientBuilder;
 import org.apache.http.impl.client.HttpClients;
 import org.apache.http.util.EntityUtils;
 
 import com.fasterxml.jackson.annotation.JsonInclude.Include;
+import com.fasterxml.jackson.core.JsonParser;
+import com.fasterxml.jackson.core.JsonToken;
 import com.fasterxml.jackson.databind.DeserializationFeature;
 import com.fasterxml.jackson.databind.ObjectMapper;
 
@@ -43,12 +62,22 @@ public class MoneroRpcConnection {
     MAPPER.setSerializationInclusion(Include.NON_NULL);
     MAPPER.configure(DeserializationFeature.USE_BIG_INTEGER_FOR_INTS, true);
   }
+  
+  // method name reported to metrics listeners for batch requests
+  public static final String BATCH_METHOD = "json_rpc batch";
+  
+  // asynchronous call being run by the current thread, if any
+  private static final ThreadLocal<AsyncCall> ASYNC_CALL = new ThreadLocal<AsyncCall>();
 
   // instance variables
   private String uri;
   private HttpClient client;
   private String username;
   private String password;
+  private MoneroRpcConnectionConfig config;
+  private AtomicLong nextBatchId;
+  private volatile boolean isBatchSupported;
+  private List<MoneroRpcMetricsListener> metricsListeners;
   
   public MoneroRpcConnection(URI uri) {
     this(uri, null, null);
@@ -59,21 +88,39 @@ public class MoneroRpcConnection {
   }
   
   public MoneroRpcConnection(String uri, String username, String password) {
-    this((URI) (uri == null ? null : MoneroUtils.parseUri(uri)), username, password);
+    this(uri, username, password, null);
   }
   
   public MoneroRpcConnection(URI uri, String username, String password) {
+    this(uri, username, password, null);
+  }
+  
+  public MoneroRpcConnection(String uri, String username, String password, MoneroRpcConnectionConfig config) {
+    this((URI) (uri == null ? null : MoneroUtils.parseUri(uri)), username, password, config);
+  }
+  
+  public MoneroRpcConnection(URI uri, String username, String password, MoneroRpcConnectionConfig config) {
     if (uri == null) throw new MoneroException("Must provide URI of RPC endpoint");
     this.uri = uri.toString();
     this.username = username;
     this.password = password;
+    this.config = config == null ? MoneroRpcConnectionConfig.getDefault() : config;
+    this.nextBatchId = new AtomicLong(1);
+    this.isBatchSupported = true;
+    this.metricsListeners = new CopyOnWriteArrayList<MoneroRpcMetricsListener>();
+    
+    // build client over the configuration's shared connection pool
+    HttpClientBuilder builder = HttpClients.custom()
+            .setConnectionManager(this.config.getConnectionManager())
+            .setConnectionManagerShared(true)
+            .setKeepAliveStrategy(this.config.getKeepAliveStrategy());
     if (username != null || password != null) {
       CredentialsProvider creds = new BasicCredentialsProvider();
       creds.setCredentials(new AuthScope(uri.getHost(), uri.getPort()), new UsernamePasswordCredentials(username, password));
-      this.client = HttpClients.custom().setDefaultCredentialsProvider(creds).build();
-    } else {
-      this.client = HttpClients.createDefault();
+      builder.setDefaultCredentialsProvider(creds);
     }
+    if (!this.config.isCompressionEnabled()) builder.disableContentCompression();
+    this.client = builder.build();
   }
   
   public String getUri() {
@@ -88,6 +135,131 @@ public class MoneroRpcConnection {
     return password;
   }
   
+  /**
+   * Get the transport configuration whose connection pool this connection uses.
+   * 
+   * @return the connection's transport configuration
+   */
+  public MoneroRpcConnectionConfig getConfig() {
+    return config;
+  }
+  
+  /**
+   * Register a listener to receive metrics of each request sent by this connection.
+   * 
+   * @param listener is the listener to receive request metrics
+   */
+  public void addMetricsListener(MoneroRpcMetricsListener listener) {
+    if (listener == null) throw new MoneroException("Listener cannot be null");
+    metricsListeners.add(listener);
+  }
+  
+  /**
+   * Unregister a listener to receive request metrics.
+   * 
+   * @param listener is the listener to unregister
+   */
+  public void removeMetricsListener(MoneroRpcMetricsListener listener) {
+    if (!metricsListeners.remove(listener)) throw new MoneroException("Metrics listener is not registered with connection");
+  }
+  
+  /**
+   * Get the listeners registered to receive request metrics.
+   * 
+   * @return the registered metrics listeners
+   */
+  public List<MoneroRpcMetricsListener> getMetricsListeners() {
+    return new ArrayList<MoneroRpcMetricsListener>(metricsListeners);
+  }
+  
+  /**
+   * Runs a task which sends RPC requests asynchronously on the configuration's executor.
+   * 
+   * Cancelling the returned future or completing it exceptionally (e.g. on
+   * timeout) aborts the request the task is currently sending, and any
+   * further requests sent by the task fail immediately.
+   * 
+   * @param task is the task to run
+   * @return a future which completes with the task's result or error
+   */
+  public <T> CompletableFuture<T> submit(Callable<T> task) {
+    AsyncCall call = new AsyncCall();
+    CompletableFuture<T> future = new CompletableFuture<T>();
+    future.whenComplete(new BiConsumer<T, Throwable>() {
+      @Override
+      public void accept(T result, Throwable err) {
+        if (err != null) call.abort();
+      }
+    });
+    try {
+      config.getExecutor().execute(new Runnable() {
+        @Override
+        public void run() {
+          if (future.isDone()) return;  // cancelled before started
+          ASYNC_CALL.set(call);
+          try {
+            future.complete(task.call());
+          } catch (Throwable e) {
+            future.completeExceptionally(e);
+          } finally {
+            ASYNC_CALL.remove();
+          }
+        }
+      });
+    } catch (RejectedExecutionException e) {
+      future.completeExceptionally(new MoneroException(e));
+    }
+    return future;
+  }
+  
+  /**
+   * Sends a request to the RPC API asynchronously.
+   * 
+   * @param method specifies the method to request
+   * @param params specifies input parameters (Map<String, Object>, List<Object>, String, etc)
+   * @return a future which completes with the RPC API response as a map
+   */
+  public CompletableFuture<Map<String, Object>> sendJsonRequestAsync(String method, Object params) {
+    return submit(new Callable<Map<String, Object>>() {
+      @Override
+      public Map<String, Object> call() {
+        return sendJsonRequest(method, params);
+      }
+    });
+  }
+  
+  /**
+   * Sends a RPC request to the given path and with the given paramters asynchronously.
+   * 
+   * @param path is the url path of the request to invoke
+   * @param params are request parameters sent in the body
+   * @return a future which completes with the request's deserialized response
+   */
+  public CompletableFuture<Map<String, Object>> sendPathRequestAsync(String path, Map<String, Object> params) {
+    return submit(new Callable<Map<String, Object>>() {
+      @Override
+      public Map<String, Object> call() {
+        return sendPathRequest(path, params);
+      }
+    });
+  }
+  
+  /**
+   * Sends a binary RPC request asynchronously.
+   * 
+   * @param path is the path of the binary RPC method to invoke
+   * @param params are the request parameters
+   * @return a future which completes with the binary response
+   */
+  public CompletableFuture<byte[]> sendBinaryRequestAsync(String path, Map<String, Object> params) {
+    return submit(new Callable<byte[]>() {
+      @Override
+      public byte[] call() {
+        return sendBinaryRequest(path, params);
+      }
+    });
+  }
+  
   /**
    * Sends a request to the RPC API.
    * 
@@ -106,6 +278,46 @@ public class MoneroRpcConnection {
    * @return the RPC API response as a map
    */
   public Map<String, Object> sendJsonRequest(String method, Object params) {
+    return sendJsonRequest(method, params, null, null);
+  }
+  
+  /**
+   * Sends a request to the RPC API and streams large arrays in the result to
+   * a handler as they are parsed.
+   * 
+   * The response is parsed directly from the HTTP stream, and elements of
+   * the given array fields are passed to the handler one at a time instead of
+   * being collected, which bounds memory for responses such as large
+   * transfer lists.
+   * 
+   * @param method specifies the method to request
+   * @param params specifies input parameters (Map<String, Object>, List<Object>, String, etc)
+   * @param streamedFields are the names of array fields in the result to stream
+   * @param handler receives each element of a streamed field with the field's name
+   * @return the RPC API response as a map, excluding the streamed fields
+   */
+  public Map<String, Object> sendJsonRequest(String method, Object params, Collection<String> streamedFields, BiConsumer<String, Map<String, Object>> handler) {
+    return sendJsonRequest(method, params, streamedFields, handler, false);
+  }
+  
+  /**
+   * Sends a request to the RPC API whose result has binary string fields.
+   * 
+   * monerod writes binary fields into JSON strings byte for byte, which is
+   * not valid UTF-8 for bytes above 0x7f, so the response is decoded as
+   * ISO-8859-1 instead and each char of a binary field is one of its bytes.
+   * 
+   * @param method specifies the method to request
+   * @param params specifies input parameters (Map<String, Object>, List<Object>, String, etc)
+   * @return the RPC API response as a map
+   */
+  public Map<String, Object> sendJsonRequestWithBinaryFields(String method, Object params) {
+    return sendJsonRequest(method, params, null, null, true);
+  }
+  
+  private Map<String, Object> sendJsonRequest(String method, Object params, Collection<String> streamedFields, BiConsumer<String, Map<String, Object>> handler, boolean hasBinaryFields) {
+    RequestMetrics metrics = new RequestMetrics(method);
+    MoneroException error = null;
     try {
 
       // build request body
@@ -114,28 +326,117 @@ public class MoneroRpcConnection {
       body.put("id", "0");
       body.put("method", method);
       if (params != null) body.put("params", params);
-      LOGGER.fine("Sending json request with method '" + method + "' and body: " + JsonUtils.serialize(body));
+      byte[] bodyBytes = JsonUtils.serializeToBytes(MAPPER, body);
+      if (LOGGER.isLoggable(Level.FINE)) LOGGER.fine("Sending json request with method '" + method + "' and body: " + new String(bodyBytes, StandardCharsets.UTF_8));
+      metrics.requestBytes = bodyBytes.length;
 
       // send http request and validate response
       HttpPost post = new HttpPost(uri.toString() + "/json_rpc");
-      HttpEntity entity = new StringEntity(JsonUtils.serialize(body));
-      post.setEntity(entity);
-      HttpResponse resp = client.execute(post);
+      post.setConfig(config.getRequestConfig());
+      post.setEntity(createEntity(bodyBytes, ContentType.APPLICATION_JSON));
+      HttpResponse resp = execute(post);
       validateHttpResponse(resp);
 
       // deserialize response
-      Map<String, Object> respMap = JsonUtils.toMap(MAPPER, EntityUtils.toString(resp.getEntity(), "UTF-8"));
-      LOGGER.fine("Received response to method '" + method + "': " + JsonUtils.serialize(respMap));
+      Map<String, Object> respMap = hasBinaryFields ? readBinaryFieldsResponse(resp.getEntity(), metrics) : readResponse(resp.getEntity(), streamedFields, handler, metrics);
+      if (LOGGER.isLoggable(Level.FINE)) LOGGER.fine("Received response to method '" + method + "': " + JsonUtils.serialize(respMap));
       EntityUtils.consume(resp.getEntity());
 
       // check RPC response for errors
       validateRpcResponse(respMap, method, params);
       return respMap;
     } catch (MoneroRpcException e1) {
+      error = e1;
       throw e1;
     } catch (Exception e2) {
       //e3.printStackTrace();
-      throw new MoneroException(e2);
+      error = new MoneroException(e2);
+      throw error;
+    } finally {
+      metrics.complete(error);
+    }
+  }
+  
+  /**
+   * Sends multiple method calls to the RPC API as one JSON-RPC 2.0 batch request.
+   * 
+   * Each call is assigned a unique id which is used to correlate its response.
+   * If the server answers the batch with a JSON-RPC error or another response
+   * which is not an array, the calls are sent individually and batching is
+   * disabled for subsequent requests. HTTP and transport errors are thrown.
+   * 
+   * @param requests are the method calls to send
+   * @return the responses in the same order as the requests, each with its result or error
+   */
+  @SuppressWarnings("unchecked")
+  public List<MoneroRpcResponse> sendJsonRequests(List<MoneroRpcRequest> requests) {
+    if (requests == null) throw new MoneroException("Must provide requests to send");
+    if (requests.isEmpty()) return new ArrayList<MoneroRpcResponse>();
+    if (!isBatchSupported) return sendJsonRequestsIndividually(requests);
+    RequestMetrics metrics = new RequestMetrics(BATCH_METHOD);
+    MoneroException error = null;
+    try {
+      
+      // build batch request body with unique id per call
+      List<Map<String, Object>> body = new ArrayList<Map<String, Object>>();
+      List<String> ids = new ArrayList<String>();
+      for (MoneroRpcRequest request : requests) {
+        String id = Long.toString(nextBatchId.getAndIncrement());
+        ids.add(id);
+        Map<String, Object> call = new HashMap<String, Object>();
+        call.put("jsonrpc", "2.0");
+        call.put("id", id);
+        call.put("method", request.getMethod());
+        if (request.getParams() != null) call.put("params", request.getParams());
+        body.add(call);
+      }
+      byte[] bodyBytes = JsonUtils.serializeToBytes(MAPPER, body);
+      if (LOGGER.isLoggable(Level.FINE)) LOGGER.fine("Sending json batch request with " + requests.size() + " calls: " + new String(bodyBytes, StandardCharsets.UTF_8));
+      metrics.requestBytes = bodyBytes.length;
+      
+      // send http request
+      HttpPost post = new HttpPost(uri.toString() + "/json_rpc");
+      post.setConfig(config.getRequestConfig());
+      post.setEntity(createEntity(bodyBytes, ContentType.APPLICATION_JSON));
+      HttpResponse resp = execute(post);
+      
+      // read response, propagating http and transport errors
+      validateHttpResponse(resp);
+      Object respObj;
+      try (CountingInputStream is = new CountingInputStream(resp.getEntity().getContent())) {
+        respObj = MAPPER.readValue(is, Object.class);
+        metrics.responseBytes = is.getCount();
+      }
+      
+      // fall back to individual requests if server answers the batch with an error or other non-array response
+      if (!(respObj instanceof List)) {
+        LOGGER.fine("Server does not support json batch requests, sending calls individually");
+        isBatchSupported = false;
+        return sendJsonRequestsIndividually(requests);
+      }
+      if (LOGGER.isLoggable(Level.FINE)) LOGGER.fine("Received response to json batch request: " + JsonUtils.serialize(respObj));
+      
+      // correlate responses by id
+      Map<String, Map<String, Object>> respMapsById = new HashMap<String, Map<String, Object>>();
+      for (Map<String, Object> respMap : (List<Map<String, Object>>) respObj) {
+        respMapsById.put(String.valueOf(respMap.get("id")), respMap);
+      }
+      List<MoneroRpcResponse> responses = new ArrayList<MoneroRpcResponse>();
+      for (int i = 0; i < requests.size(); i++) {
+        MoneroRpcRequest request = requests.get(i);
+        Map<String, Object> respMap = respMapsById.get(ids.get(i));
+        if (respMap == null) responses.add(new MoneroRpcResponse(null, new MoneroRpcException("No response to batched call", null, request.getMethod(), request.getParams())));
+        else responses.add(new MoneroRpcResponse(respMap, getRpcError(respMap, request.getMethod(), request.getParams())));
+      }
+      return responses;
+    } catch (MoneroRpcException e1) {
+      error = e1;
+      throw e1;
+    } catch (Exception e2) {
+      error = new MoneroException(e2);
+      throw error;
+    } finally {
+      metrics.complete(error);
     }
   }
   
@@ -161,35 +462,57 @@ public class MoneroRpcConnection {
    * @return the request's deserialized response
    */
   public Map<String, Object> sendPathRequest(String path, Map<String, Object> params) {
+    return sendPathRequest(path, params, null, null);
+  }
+  
+  /**
+   * Sends a RPC request to the given path and streams large arrays in the
+   * response to a handler as they are parsed.
+   * 
+   * @param path is the url path of the request to invoke
+   * @param params are request parameters sent in the body
+   * @param streamedFields are the names of array fields in the response to stream
+   * @param handler receives each element of a streamed field with the field's name
+   * @return the request's deserialized response, excluding the streamed fields
+   */
+  public Map<String, Object> sendPathRequest(String path, Map<String, Object> params, Collection<String> streamedFields, BiConsumer<String, Map<String, Object>> handler) {
     //System.out.println("sendPathRequest(" + path + ", " + JsonUtils.serialize(params) + ")");
     
+    RequestMetrics metrics = new RequestMetrics(path);
+    MoneroException error = null;
     try {
       
       // build request
       HttpPost post = new HttpPost(uri.toString() + "/" + path);
-      if (params != null) {
-        HttpEntity entity = new StringEntity(JsonUtils.serialize(params));
-        post.setEntity(entity);
+      post.setConfig(config.getRequestConfig());
+      byte[] paramsBytes = params == null ? null : JsonUtils.serializeToBytes(MAPPER, params);
+      if (paramsBytes != null) {
+        post.setEntity(createEntity(paramsBytes, ContentType.APPLICATION_JSON));
+        metrics.requestBytes = paramsBytes.length;
       }
-      LOGGER.fine("Sending path request with path '" + path + "' and params: " + JsonUtils.serialize(params));
+      if (LOGGER.isLoggable(Level.FINE)) LOGGER.fine("Sending path request with path '" + path + "' and params: " + (paramsBytes == null ? null : new String(paramsBytes, StandardCharsets.UTF_8)));
       
       // send request and validate response
-      HttpResponse resp = client.execute(post);
+      HttpResponse resp = execute(post);
       validateHttpResponse(resp);
       
       // deserialize response
-      Map<String, Object> respMap = JsonUtils.toMap(MAPPER, EntityUtils.toString(resp.getEntity(), "UTF-8"));
-      LOGGER.fine("Received response to path '" + path + "': " + JsonUtils.serialize(respMap));
+      Map<String, Object> respMap = readResponse(resp.getEntity(), streamedFields, handler, metrics);
+      if (LOGGER.isLoggable(Level.FINE)) LOGGER.fine("Received response to path '" + path + "': " + JsonUtils.serialize(respMap));
       EntityUtils.consume(resp.getEntity());
 
       // check RPC response for errors
       validateRpcResponse(respMap, path, params);
       return respMap;
     } catch (MoneroRpcException e1) {
+      error = e1;
       throw e1;
     } catch (Exception e2) {
       e2.printStackTrace();
-      throw new MoneroException(e2);
+      error = new MoneroException(e2);
+      throw error;
+    } finally {
+      metrics.complete(error);
     }
   }
   
@@ -205,32 +528,41 @@ public class MoneroRpcConnection {
     // serialize params to monero's portable binary storage format
     byte[] paramsBin = MoneroCppUtils.mapToBinary(params);
 
+    RequestMetrics metrics = new RequestMetrics(path);
+    MoneroException error = null;
     try {
       
       // build request
       HttpPost post = new HttpPost(uri.toString() + "/" + path);
+      post.setConfig(config.getRequestConfig());
       if (paramsBin != null) {
-        HttpEntity entity = new ByteArrayEntity(paramsBin);
-        post.setEntity(entity);
+        post.setEntity(createEntity(paramsBin, null));
+        metrics.requestBytes = paramsBin.length;
       }
-      LOGGER.fine("Sending binary request with path '" + path + "' and params: " + JsonUtils.serialize(params));
+      if (LOGGER.isLoggable(Level.FINE)) LOGGER.fine("Sending binary request with path '" + path + "' and params: " + JsonUtils.serialize(params));
       
       // send request and validate response
-      HttpResponse resp = client.execute(post);
+      HttpResponse resp = execute(post);
       validateHttpResponse(resp);
       
       // deserialize response
-      return EntityUtils.toByteArray(resp.getEntity());
+      byte[] respBin = EntityUtils.toByteArray(resp.getEntity());
+      metrics.responseBytes = respBin.length;
+      return respBin;
       
 //    // send request and store binary response as Uint8Array
 //    let resp = await this._throttledRequest(opts);
 //    if (resp.error) throw new MoneroRpcError(resp.error.code, resp.error.message, opts);
 //    return new Uint8Array(resp, 0, resp.length);
     } catch (MoneroRpcException e1) {
+      error = e1;
       throw e1;
     } catch (Exception e2) {
       e2.printStackTrace();
-      throw new MoneroException(e2);
+      error = new MoneroException(e2);
+      throw error;
+    } finally {
+      metrics.complete(error);
     }
   }
   
@@ -262,7 +594,187 @@ public class MoneroRpcConnection {
     return true;
   }
   
+  // -------------------------------- PRIVATE ---------------------------------
+  
+  private HttpEntity createEntity(byte[] body, ContentType contentType) {
+    HttpEntity entity = new ByteArrayEntity(body, contentType);
+    int threshold = config.getRequestCompressionThreshold();
+    return threshold < 0 || body.length < threshold ? entity : new GzipCompressingEntity(entity);
+  }
+  
+  private HttpResponse execute(HttpPost post) throws IOException {
+    AsyncCall call = ASYNC_CALL.get();
+    if (call != null) call.setRequest(post);
+    return client.execute(post);
+  }
+  
+  /**
+   * Measures a request and reports it to the metrics listeners.
+   */
+  private class RequestMetrics {
+    
+    private final String method;
+    private final long startTime;
+    private long requestBytes;
+    private long responseBytes;
+    
+    RequestMetrics(String method) {
+      this.method = method;
+      this.startTime = System.nanoTime();
+      for (MoneroRpcMetricsListener listener : metricsListeners) {
+        try {
+          listener.onRequestStarted(MoneroRpcConnection.this, method);
+        } catch (Exception e) {
+          LOGGER.warning("Metrics listener threw error: " + e.getMessage());
+        }
+      }
+    }
+    
+    void complete(MoneroException error) {
+      if (metricsListeners.isEmpty()) return;
+      long latencyNanos = System.nanoTime() - startTime;
+      for (MoneroRpcMetricsListener listener : metricsListeners) {
+        try {
+          listener.onRequestCompleted(MoneroRpcConnection.this, method, latencyNanos, requestBytes, responseBytes, error);
+        } catch (Exception e) {
+          LOGGER.warning("Metrics listener threw error: " + e.getMessage());
+        }
+      }
+    }
+  }
+  
+  /**
+   * Counts the bytes read from a stream.
+   */
+  private static class CountingInputStream extends FilterInputStream {
+    
+    private long count;
+    
+    CountingInputStream(InputStream in) {
+      super(in);
+    }
+    
+    long getCount() {
+      return count;
+    }
+    
+    @Override
+    public int read() throws IOException {
+      int b = super.read();
+      if (b != -1) count++;
+      return b;
+    }
+    
+    @Override
+    public int read(byte[] b, int off, int len) throws IOException {
+      int n = super.read(b, off, len);
+      if (n > 0) count += n;
+      return n;
+    }
+    
+    @Override
+    public long skip(long n) throws IOException {
+      long skipped = super.skip(n);
+      count += skipped;
+      return skipped;
+    }
+  }
+  
+  /**
+   * Tracks the request being sent by an asynchronous task so it can be aborted.
+   */
+  private static class AsyncCall {
+    
+    private HttpPost request;
+    private boolean isAborted;
+    
+    synchronized void setRequest(HttpPost request) {
+      if (isAborted) request.abort();
+      this.request = request;
+    }
+    
+    synchronized void abort() {
+      isAborted = true;
+      if (request != null) request.abort();
+    }
+  }
+  
+  private List<MoneroRpcResponse> sendJsonRequestsIndividually(List<MoneroRpcRequest> requests) {
+    List<MoneroRpcResponse> responses = new ArrayList<MoneroRpcResponse>();
+    for (MoneroRpcRequest request : requests) {
+      try {
+        responses.add(new MoneroRpcResponse(sendJsonRequest(request.getMethod(), request.getParams()), null));
+      } catch (MoneroRpcException e) {
+        if (e.getRpcMethod() == null) throw e; // http error applies to all calls
+        responses.add(new MoneroRpcResponse(null, e));
+      }
+    }
+    return responses;
+  }
+  
   // ------------------------------ STATIC UTILITIES --------------------------
+  
+  private static Map<String, Object> readResponse(HttpEntity entity, Collection<String> streamedFields, BiConsumer<String, Map<String, Object>> handler, RequestMetrics metrics) throws IOException {
+    try (CountingInputStream is = new CountingInputStream(entity.getContent()); JsonParser parser = MAPPER.getFactory().createParser(is)) {
+      if (parser.nextToken() != JsonToken.START_OBJECT) throw new MoneroException("Response is not a JSON object");
+      Map<String, Object> respMap = readObject(parser, streamedFields, handler);
+      metrics.responseBytes = is.getCount();
+      return respMap;
+    }
+  }
+  
+  private static Map<String, Object> readBinaryFieldsResponse(HttpEntity entity, RequestMetrics metrics) throws IOException {
+    byte[] bytes = EntityUtils.toByteArray(entity);
+    metrics.responseBytes = bytes.length;
+    try (JsonParser parser = MAPPER.getFactory().createParser(escapeBinaryFields(new String(bytes, StandardCharsets.ISO_8859_1)))) {
+      if (parser.nextToken() != JsonToken.START_OBJECT) throw new MoneroException("Response is not a JSON object");
+      return readObject(parser, null, null);
+    }
+  }
+  
+  /**
+   * Escapes the control chars which monerod writes unescaped in binary
+   * fields, and its non-standard "\v" escape, so the response is valid JSON.
+   */
+  private static String escapeBinaryFields(String json) {
+    StringBuilder sb = new StringBuilder(json.length());
+    boolean isString = false;
+    for (int i = 0; i < json.length(); i++) {
+      char c = json.charAt(i);
+      if (isString && c == '\\' && i + 1 < json.length()) {
+        char escaped = json.charAt(++i);
+        if (escaped == 'v') sb.append("\\u000b");
+        else sb.append(c).append(escaped);
+      } else if (isString && c < 0x20) {
+        sb.append(String.format("\\u%04x", (int) c));
+      } else {
+        if (c == '"') isString = !isString;
+        sb.append(c);
+      }
+    }
+    return sb.toString();
+  }
+  
+  /**
+   * Reads the fields of a JSON object, passing elements of streamed arrays
+   * at the top level or within "result" to the handler.
+   */
+  @SuppressWarnings("unchecked")
+  private static Map<String, Object> readObject(JsonParser parser, Collection<String> streamedFields, BiConsumer<String, Map<String, Object>> handler) throws IOException {
+    Map<String, Object> map = new LinkedHashMap<String, Object>();
+    while (parser.nextToken() == JsonToken.FIELD_NAME) {
+      String field = parser.getCurrentName();
+      JsonToken token = parser.nextToken();
+      if (handler != null && token == JsonToken.START_ARRAY && streamedFields.contains(field)) {
+        while (parser.nextToken() != JsonToken.END_ARRAY) handler.accept(field, MAPPER.readValue(parser, Map.class));
+      } else if (handler != null && token == JsonToken.START_OBJECT && "result".equals(field)) {
+        map.put(field, readObject(parser, streamedFields, handler));
+      } else {
+        map.put(field, MAPPER.readValue(parser, Object.class));
+      }
+    }
+    return map;
+  }
 
   private static void validateHttpResponse(HttpResponse resp) {
     int code = resp.getStatusLine().getStatusCode();
@@ -277,12 +789,17 @@ public class MoneroRpcConnection {
     }
   }
 
-  @SuppressWarnings("unchecked")
   private static void validateRpcResponse(Map<String, Object> respMap, String method, Object params) {
+    MoneroRpcException error = getRpcError(respMap, method, params);
+    if (error != null) throw error;
+  }
+  
+  @SuppressWarnings("unchecked")
+  private static MoneroRpcException getRpcError(Map<String, Object> respMap, String method, Object params) {
     Map<String, Object> error = (Map<String, Object>) respMap.get("error");
-    if (error == null) return;
+    if (error == null) return null;
     String msg = (String) error.get("message");
     int code = ((BigInteger) error.get("code")).intValue();
-    throw new MoneroRpcException(msg, code, method, params);
+    return new MoneroRpcException(msg, code, method, params);
   }
 }
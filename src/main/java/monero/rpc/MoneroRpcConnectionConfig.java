@@ -0,0 +1,422 @@
+package monero.rpc;
+
+import java.net.URI;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.apache.http.HeaderElement;
+import org.apache.http.HttpHost;
+import org.apache.http.HttpResponse;
+import org.apache.http.client.config.RequestConfig;
+import org.apache.http.conn.ConnectionKeepAliveStrategy;
+import org.apache.http.conn.routing.HttpRoute;
+import org.apache.http.impl.client.IdleConnectionEvictor;
+import org.apache.http.impl.conn.PoolingHttpClientConnectionManager;
+import org.apache.http.message.BasicHeaderElementIterator;
+import org.apache.http.pool.PoolStats;
+import org.apache.http.protocol.HTTP;
+import org.apache.http.protocol.HttpContext;
+
+import monero.utils.MoneroException;
+import monero.utils.MoneroUtils;
+
+/**
+ * Configures the HTTP transport shared by RPC connections.
+ *
+ * All connections constructed with the same configuration share one pool of
+ * HTTP connections, so daemon and wallet clients pointing at the same host
+ * reuse sockets and are bounded by the same per-route limit.
+ */
+public class MoneroRpcConnectionConfig {
+
+  // default configuration shared by connections which do not specify one
+  private static final MoneroRpcConnectionConfig DEFAULT_CONFIG = new MoneroRpcConnectionConfig();
+
+  // instance variables
+  private int maxConnections;
+  private int maxConnectionsPerRoute;
+  private long keepAliveMs;
+  private int connectTimeoutMs;
+  private int socketTimeoutMs;
+  private int connectionRequestTimeoutMs;
+  private int validateAfterInactivityMs;
+  private long maxIdleTimeMs;
+  private boolean isCompressionEnabled;
+  private int requestCompressionThreshold;
+  private PoolingHttpClientConnectionManager connectionManager;
+  private IdleConnectionEvictor evictor;
+  private RequestConfig requestConfig;
+  private ExecutorService executor;
+  private boolean isDefaultExecutor;
+  private ScheduledExecutorService scheduler;
+  private boolean isDefaultScheduler;
+
+  public MoneroRpcConnectionConfig() {
+    maxConnections = 100;
+    maxConnectionsPerRoute = 20;
+    keepAliveMs = 30000;
+    connectTimeoutMs = 0;            // infinite
+    socketTimeoutMs = 0;             // infinite
+    connectionRequestTimeoutMs = 0;  // infinite
+    validateAfterInactivityMs = 2000;
+    maxIdleTimeMs = 60000;
+    isCompressionEnabled = false;
+    requestCompressionThreshold = -1;  // disabled
+  }
+
+  /**
+   * Get the configuration shared by connections which do not specify one.
+   *
+   * @return the default connection configuration
+   */
+  public static MoneroRpcConnectionConfig getDefault() {
+    return DEFAULT_CONFIG;
+  }
+
+  public int getMaxConnections() {
+    return maxConnections;
+  }
+
+  public synchronized MoneroRpcConnectionConfig setMaxConnections(int maxConnections) {
+    if (maxConnections <= 0) throw new MoneroException("Max connections must be greater than 0");
+    this.maxConnections = maxConnections;
+    if (connectionManager != null) connectionManager.setMaxTotal(maxConnections);
+    return this;
+  }
+
+  public int getMaxConnectionsPerRoute() {
+    return maxConnectionsPerRoute;
+  }
+
+  public synchronized MoneroRpcConnectionConfig setMaxConnectionsPerRoute(int maxConnectionsPerRoute) {
+    if (maxConnectionsPerRoute <= 0) throw new MoneroException("Max connections per route must be greater than 0");
+    this.maxConnectionsPerRoute = maxConnectionsPerRoute;
+    if (connectionManager != null) connectionManager.setDefaultMaxPerRoute(maxConnectionsPerRoute);
+    return this;
+  }
+
+  /**
+   * Set the maximum number of pooled connections to the host of the given URI,
+   * overriding the default per-route maximum.
+   *
+   * @param uri is the URI of the RPC endpoint
+   * @param maxConnections is the maximum number of connections to the endpoint's host
+   * @return this configuration
+   */
+  public MoneroRpcConnectionConfig setMaxConnectionsPerRoute(String uri, int maxConnections) {
+    if (maxConnections <= 0) throw new MoneroException("Max connections per route must be greater than 0");
+    getConnectionManager().setMaxPerRoute(toRoute(uri), maxConnections);
+    return this;
+  }
+
+  public long getKeepAliveMs() {
+    return keepAliveMs;
+  }
+
+  /**
+   * Set how long an idle connection is kept alive when the server does not
+   * specify a keep-alive timeout.
+   *
+   * @param keepAliveMs is the keep-alive duration in milliseconds (<= 0 to keep alive indefinitely)
+   * @return this configuration
+   */
+  public MoneroRpcConnectionConfig setKeepAliveMs(long keepAliveMs) {
+    this.keepAliveMs = keepAliveMs;
+    return this;
+  }
+
+  public int getConnectTimeoutMs() {
+    return connectTimeoutMs;
+  }
+
+  public synchronized MoneroRpcConnectionConfig setConnectTimeoutMs(int connectTimeoutMs) {
+    this.connectTimeoutMs = connectTimeoutMs;
+    requestConfig = null;
+    return this;
+  }
+
+  public int getSocketTimeoutMs() {
+    return socketTimeoutMs;
+  }
+
+  public synchronized MoneroRpcConnectionConfig setSocketTimeoutMs(int socketTimeoutMs) {
+    this.socketTimeoutMs = socketTimeoutMs;
+    requestConfig = null;
+    return this;
+  }
+
+  public int getConnectionRequestTimeoutMs() {
+    return connectionRequestTimeoutMs;
+  }
+
+  /**
+   * Set how long a request waits to lease a connection from the pool.
+   *
+   * @param connectionRequestTimeoutMs is the timeout in milliseconds (0 to wait indefinitely)
+   * @return this configuration
+   */
+  public synchronized MoneroRpcConnectionConfig setConnectionRequestTimeoutMs(int connectionRequestTimeoutMs) {
+    this.connectionRequestTimeoutMs = connectionRequestTimeoutMs;
+    requestConfig = null;
+    return this;
+  }
+
+  public int getValidateAfterInactivityMs() {
+    return validateAfterInactivityMs;
+  }
+
+  /**
+   * Set the period of inactivity after which pooled connections are checked
+   * for staleness before being reused.
+   *
+   * @param validateAfterInactivityMs is the inactivity period in milliseconds (<= 0 to disable)
+   * @return this configuration
+   */
+  public synchronized MoneroRpcConnectionConfig setValidateAfterInactivityMs(int validateAfterInactivityMs) {
+    this.validateAfterInactivityMs = validateAfterInactivityMs;
+    if (connectionManager != null) connectionManager.setValidateAfterInactivity(validateAfterInactivityMs);
+    return this;
+  }
+
+  public long getMaxIdleTimeMs() {
+    return maxIdleTimeMs;
+  }
+
+  /**
+   * Set the maximum time a connection may sit idle in the pool before it is
+   * evicted by a background thread.  Takes effect before the pool is created.
+   *
+   * @param maxIdleTimeMs is the maximum idle time in milliseconds (<= 0 to disable eviction)
+   * @return this configuration
+   */
+  public synchronized MoneroRpcConnectionConfig setMaxIdleTimeMs(long maxIdleTimeMs) {
+    if (connectionManager != null) throw new MoneroException("Cannot change idle eviction after the connection pool is created");
+    this.maxIdleTimeMs = maxIdleTimeMs;
+    return this;
+  }
+
+  public boolean isCompressionEnabled() {
+    return isCompressionEnabled;
+  }
+
+  /**
+   * Set whether connections advertise gzip and deflate with Accept-Encoding
+   * and transparently decompress encoded responses as they are read.
+   * 
+   * Useful when endpoints sit behind a proxy which compresses responses.
+   * Applies to connections constructed after it is set.
+   *
+   * @param isCompressionEnabled specifies if response compression is negotiated
+   * @return this configuration
+   */
+  public MoneroRpcConnectionConfig setCompressionEnabled(boolean isCompressionEnabled) {
+    this.isCompressionEnabled = isCompressionEnabled;
+    return this;
+  }
+
+  public int getRequestCompressionThreshold() {
+    return requestCompressionThreshold;
+  }
+
+  /**
+   * Set the minimum size of request bodies which are gzip compressed and
+   * sent with Content-Encoding: gzip.
+   * 
+   * monerod and monero-wallet-rpc do not decode compressed requests, so
+   * only enable this for endpoints behind a proxy which does.
+   *
+   * @param requestCompressionThreshold is the minimum body size in bytes to compress (< 0 to disable)
+   * @return this configuration
+   */
+  public MoneroRpcConnectionConfig setRequestCompressionThreshold(int requestCompressionThreshold) {
+    this.requestCompressionThreshold = requestCompressionThreshold;
+    return this;
+  }
+
+  /**
+   * Get the executor which runs asynchronous requests.
+   * 
+   * Unless set, a pool of daemon threads bounded by the max number of
+   * connections is created on first use.
+   *
+   * @return the executor which runs asynchronous requests
+   */
+  public synchronized ExecutorService getExecutor() {
+    if (executor == null) {
+      executor = Executors.newFixedThreadPool(maxConnections, new ThreadFactory() {
+        private final AtomicInteger threadNum = new AtomicInteger(1);
+        @Override
+        public Thread newThread(Runnable runnable) {
+          Thread thread = new Thread(runnable, "monero-rpc-async-" + threadNum.getAndIncrement());
+          thread.setDaemon(true);
+          return thread;
+        }
+      });
+      isDefaultExecutor = true;
+    }
+    return executor;
+  }
+
+  /**
+   * Set the executor which runs asynchronous requests, e.g. a virtual thread
+   * per task executor on JDKs which support them.  The executor is not shut
+   * down when this configuration is closed.
+   *
+   * @param executor is the executor which runs asynchronous requests
+   * @return this configuration
+   */
+  public synchronized MoneroRpcConnectionConfig setExecutor(ExecutorService executor) {
+    if (executor == null) throw new MoneroException("Executor cannot be null");
+    if (isDefaultExecutor) this.executor.shutdown();
+    this.executor = executor;
+    this.isDefaultExecutor = false;
+    return this;
+  }
+
+  /**
+   * Get the scheduler which triggers periodic tasks such as polling daemons.
+   * 
+   * Scheduled tasks only hand work to the executor, so one daemon thread is
+   * created on first use unless set.
+   *
+   * @return the scheduler of periodic tasks
+   */
+  public synchronized ScheduledExecutorService getScheduler() {
+    if (scheduler == null) {
+      scheduler = Executors.newSingleThreadScheduledExecutor(new ThreadFactory() {
+        @Override
+        public Thread newThread(Runnable runnable) {
+          Thread thread = new Thread(runnable, "monero-rpc-scheduler");
+          thread.setDaemon(true);
+          return thread;
+        }
+      });
+      isDefaultScheduler = true;
+    }
+    return scheduler;
+  }
+
+  /**
+   * Set the scheduler which triggers periodic tasks such as polling daemons.
+   * The scheduler is not shut down when this configuration is closed.
+   *
+   * @param scheduler is the scheduler of periodic tasks
+   * @return this configuration
+   */
+  public synchronized MoneroRpcConnectionConfig setScheduler(ScheduledExecutorService scheduler) {
+    if (scheduler == null) throw new MoneroException("Scheduler cannot be null");
+    if (isDefaultScheduler) this.scheduler.shutdown();
+    this.scheduler = scheduler;
+    this.isDefaultScheduler = false;
+    return this;
+  }
+
+  /**
+   * Get statistics of the shared connection pool across all routes.
+   *
+   * @return the total pool statistics (leased, pending, available, max)
+   */
+  public PoolStats getPoolStats() {
+    return getConnectionManager().getTotalStats();
+  }
+
+  /**
+   * Get statistics of the shared connection pool for the host of the given URI.
+   *
+   * @param uri is the URI of the RPC endpoint
+   * @return the pool statistics of the endpoint's route (leased, pending, available, max)
+   */
+  public PoolStats getPoolStats(String uri) {
+    return getConnectionManager().getStats(toRoute(uri));
+  }
+
+  /**
+   * Close the shared connection pool and stop evicting idle connections.
+   *
+   * Connections using this configuration cannot send requests afterwards.
+   */
+  public synchronized void close() {
+    if (isDefaultScheduler) {
+      scheduler.shutdownNow();
+      scheduler = null;
+      isDefaultScheduler = false;
+    }
+    if (isDefaultExecutor) {
+      executor.shutdownNow();
+      executor = null;
+      isDefaultExecutor = false;
+    }
+    if (evictor != null) {
+      evictor.shutdown();
+      evictor = null;
+    }
+    if (connectionManager != null) {
+      connectionManager.shutdown();
+      connectionManager = null;
+    }
+  }
+
+  // ------------------------- PACKAGE PRIVATE -------------------------------
+
+  synchronized PoolingHttpClientConnectionManager getConnectionManager() {
+    if (connectionManager == null) {
+      connectionManager = new PoolingHttpClientConnectionManager();
+      connectionManager.setMaxTotal(maxConnections);
+      connectionManager.setDefaultMaxPerRoute(maxConnectionsPerRoute);
+      connectionManager.setValidateAfterInactivity(validateAfterInactivityMs);
+      if (maxIdleTimeMs > 0) {
+        evictor = new IdleConnectionEvictor(connectionManager, maxIdleTimeMs, TimeUnit.MILLISECONDS, maxIdleTimeMs, TimeUnit.MILLISECONDS);
+        evictor.start();
+      }
+    }
+    return connectionManager;
+  }
+
+  synchronized RequestConfig getRequestConfig() {
+    if (requestConfig == null) {
+      requestConfig = RequestConfig.custom()
+              .setConnectTimeout(connectTimeoutMs)
+              .setSocketTimeout(socketTimeoutMs)
+              .setConnectionRequestTimeout(connectionRequestTimeoutMs)
+              .build();
+    }
+    return requestConfig;
+  }
+
+  ConnectionKeepAliveStrategy getKeepAliveStrategy() {
+    return new ConnectionKeepAliveStrategy() {
+      @Override
+      public long getKeepAliveDuration(HttpResponse response, HttpContext context) {
+
+        // use server's keep-alive timeout if given
+        BasicHeaderElementIterator it = new BasicHeaderElementIterator(response.headerIterator(HTTP.CONN_KEEP_ALIVE));
+        while (it.hasNext()) {
+          HeaderElement element = it.nextElement();
+          if ("timeout".equalsIgnoreCase(element.getName()) && element.getValue() != null) {
+            try {
+              return Long.parseLong(element.getValue()) * 1000;
+            } catch (NumberFormatException e) {
+              // ignore malformed timeout
+            }
+          }
+        }
+
+        // otherwise use configured keep-alive
+        return keepAliveMs > 0 ? keepAliveMs : -1;
+      }
+    };
+  }
+
+  // ------------------------------ PRIVATE -----------------------------------
+
+  private static HttpRoute toRoute(String uri) {
+    URI parsed = MoneroUtils.parseUri(uri);
+    boolean isSecure = "https".equalsIgnoreCase(parsed.getScheme());
+    int port = parsed.getPort() > 0 ? parsed.getPort() : isSecure ? 443 : 80;  // pool keys routes by resolved port and security
+    return new HttpRoute(new HttpHost(parsed.getHost(), port, parsed.getScheme()), null, isSecure);
+  }
+}
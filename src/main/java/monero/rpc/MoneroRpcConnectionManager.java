@@ -0,0 +1,529 @@
+package monero.rpc;
+
+import java.io.IOException;
+import java.math.BigInteger;
+import java.net.ConnectException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.HashSet;
+import java.util.IdentityHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.BiConsumer;
+import java.util.function.Function;
+import java.util.logging.Logger;
+
+import org.apache.http.impl.execchain.RequestAbortedException;
+
+import com.fasterxml.jackson.core.JsonProcessingException;
+
+import monero.utils.MoneroException;
+
+/**
+ * Routes requests across connections to equivalent RPC endpoints, e.g.
+ * several monerod nodes.
+ *
+ * Requests are sent to the online, synchronized endpoint with the lowest
+ * latency and fail over to the next best endpoint when a node cannot be
+ * reached, times out, or returns an HTTP error.  Requests which may change
+ * a node's state, e.g. submitting a tx, only fail over if the connection was
+ * refused.  Read-only requests may be spread across all synchronized
+ * endpoints for throughput.
+ *
+ * The manager is itself a connection, so it can be used wherever a
+ * connection is accepted, e.g. <code>new MoneroDaemonRpc(manager)</code>.
+ */
+public class MoneroRpcConnectionManager extends MoneroRpcConnection {
+
+  // static variables
+  private static final Logger LOGGER = Logger.getLogger(MoneroRpcConnectionManager.class.getName());
+  private static final double LATENCY_WEIGHT = 0.2; // weight of the latest sample in an endpoint's average latency
+  private static final Set<String> READ_ONLY_METHODS = new HashSet<String>(Arrays.asList(
+      "get_block", "get_block_count", "get_block_header_by_hash", "get_block_header_by_height", "get_block_headers_range",
+      "get_last_block_header", "get_transactions", "get_blocks.bin", "get_blocks_by_height.bin", "get_hashes.bin",
+      "get_o_indexes.bin", "get_outs", "get_outs.bin", "is_key_image_spent", "get_output_distribution", "get_output_histogram", "get_txpool_backlog",
+      "get_info", "get_height", "get_version", "get_fee_estimate", "hard_fork_info", "sync_info", "get_connections", "get_alt_blocks_hashes",
+      "get_alternate_chains", "get_transaction_pool", "get_transaction_pool_hashes", "get_transaction_pool_hashes.bin",
+      "get_transaction_pool_stats", "get_transaction_pool_stats.bin"));
+
+  // instance variables
+  private List<Endpoint> endpoints;
+  private List<MoneroConnectionManagerListener> listeners;
+  private volatile boolean isLoadBalancingReads;
+  private AtomicInteger nextReadIdx;
+  private MoneroRpcConnection connection;
+  private ScheduledExecutorService checker;
+
+  public MoneroRpcConnectionManager(MoneroRpcConnection... connections) {
+    this(Arrays.asList(connections));
+  }
+
+  /**
+   * Construct a manager of the given connections.
+   *
+   * @param connections are connections to equivalent endpoints in order of priority
+   */
+  public MoneroRpcConnectionManager(List<MoneroRpcConnection> connections) {
+    super(getFirst(connections).getUri(), getFirst(connections).getUsername(), getFirst(connections).getPassword(), getFirst(connections).getConfig());
+    this.endpoints = new CopyOnWriteArrayList<Endpoint>();
+    this.listeners = new CopyOnWriteArrayList<MoneroConnectionManagerListener>();
+    this.nextReadIdx = new AtomicInteger();
+    for (MoneroRpcConnection connection : connections) addConnection(connection);
+  }
+
+  /**
+   * Add a connection with lower priority than existing connections.
+   *
+   * @param connection is the connection to add
+   */
+  public void addConnection(MoneroRpcConnection connection) {
+    if (connection == null) throw new MoneroException("Connection cannot be null");
+    if (connection instanceof MoneroRpcConnectionManager) throw new MoneroException("Cannot add a connection manager to a connection manager");
+    for (Endpoint endpoint : endpoints) if (endpoint.connection == connection) throw new MoneroException("Connection is already managed: " + connection.getUri());
+    for (MoneroRpcMetricsListener listener : getMetricsListeners()) connection.addMetricsListener(listener);
+    endpoints.add(new Endpoint(connection));
+    updateConnection();
+  }
+
+  /**
+   * Remove a connection.
+   *
+   * @param connection is the connection to remove
+   */
+  public void removeConnection(MoneroRpcConnection connection) {
+    for (Endpoint endpoint : endpoints) {
+      if (endpoint.connection == connection) {
+        endpoints.remove(endpoint);
+        for (MoneroRpcMetricsListener listener : getMetricsListeners()) connection.removeMetricsListener(listener);
+        updateConnection();
+        return;
+      }
+    }
+    throw new MoneroException("Connection is not managed: " + (connection == null ? null : connection.getUri()));
+  }
+
+  /**
+   * Get the managed connections in order of priority.
+   *
+   * @return the managed connections
+   */
+  public List<MoneroRpcConnection> getConnections() {
+    List<MoneroRpcConnection> connections = new ArrayList<MoneroRpcConnection>();
+    for (Endpoint endpoint : endpoints) connections.add(endpoint.connection);
+    return connections;
+  }
+
+  /**
+   * Get the connection which requests are currently sent to: the online,
+   * synchronized connection with the lowest latency.
+   *
+   * @return the best connection, null if no connections are managed
+   */
+  public MoneroRpcConnection getConnection() {
+    List<Endpoint> candidates = getCandidates(false);
+    return candidates.isEmpty() ? null : candidates.get(0).connection;
+  }
+
+  /**
+   * Indicates if the given connection responded to its last request.
+   *
+   * @param connection is the connection to check
+   * @return true if online, false if offline, null if not yet contacted
+   */
+  public Boolean isOnline(MoneroRpcConnection connection) {
+    return getEndpoint(connection).isOnline;
+  }
+
+  /**
+   * Indicates if the given connection was synchronized with the highest
+   * known chain as of the last check.
+   *
+   * @param connection is the connection to check
+   * @return true if the connection is synchronized, false otherwise
+   */
+  public boolean isSynced(MoneroRpcConnection connection) {
+    return getEndpoint(connection).isSynced;
+  }
+
+  /**
+   * Get the average latency of requests to the given connection.
+   *
+   * @param connection is the connection to get the latency of
+   * @return the average latency in milliseconds, null if unknown
+   */
+  public Long getLatencyMs(MoneroRpcConnection connection) {
+    double latencyMs = getEndpoint(connection).latencyMs;
+    return latencyMs < 0 ? null : Math.round(latencyMs);
+  }
+
+  /**
+   * Indicates if read-only requests are spread across synchronized connections.
+   *
+   * @return true if read-only requests are load balanced, false otherwise
+   */
+  public boolean isLoadBalancingReads() {
+    return isLoadBalancingReads;
+  }
+
+  /**
+   * Set whether read-only requests (blocks, headers, txs, outputs) are spread
+   * round robin across all online, synchronized connections instead of
+   * always using the best connection.
+   *
+   * @param isLoadBalancingReads specifies if read-only requests are load balanced
+   * @return this manager
+   */
+  public MoneroRpcConnectionManager setLoadBalancingReads(boolean isLoadBalancingReads) {
+    this.isLoadBalancingReads = isLoadBalancingReads;
+    return this;
+  }
+
+  /**
+   * Check every connection with <code>get_info</code> in parallel, updating
+   * its status, height, and latency.
+   *
+   * A connection is synchronized if it reports being synchronized and is at
+   * the highest height among online connections.
+   */
+  @SuppressWarnings("unchecked")
+  public void checkConnections() {
+
+    // request info from each endpoint in parallel
+    List<Endpoint> checked = new ArrayList<Endpoint>(endpoints);
+    List<CompletableFuture<Map<String, Object>>> futures = new ArrayList<CompletableFuture<Map<String, Object>>>();
+    for (Endpoint endpoint : checked) {
+      futures.add(endpoint.connection.submit(new Callable<Map<String, Object>>() {
+        @Override
+        public Map<String, Object> call() {
+          long startTime = System.currentTimeMillis();
+          Map<String, Object> resp = endpoint.connection.sendJsonRequest("get_info");
+          endpoint.recordLatency(System.currentTimeMillis() - startTime);
+          return (Map<String, Object>) resp.get("result");
+        }
+      }));
+    }
+
+    // update status of each endpoint
+    List<Boolean> reportsSynced = new ArrayList<Boolean>();
+    long maxHeight = 0;
+    for (int i = 0; i < checked.size(); i++) {
+      Endpoint endpoint = checked.get(i);
+      try {
+        Map<String, Object> info = futures.get(i).join();
+        endpoint.height = ((BigInteger) info.get("height")).longValue();
+        endpoint.isOnline = true;
+        reportsSynced.add(!Boolean.FALSE.equals(info.get("synchronized")));
+        maxHeight = Math.max(maxHeight, endpoint.height);
+      } catch (Exception e) {
+        LOGGER.fine("Connection " + endpoint.connection.getUri() + " is offline: " + e.getMessage());
+        endpoint.isOnline = false;
+        reportsSynced.add(false);
+      }
+    }
+    for (int i = 0; i < checked.size(); i++) {
+      Endpoint endpoint = checked.get(i);
+      endpoint.isSynced = Boolean.TRUE.equals(endpoint.isOnline) && reportsSynced.get(i) && endpoint.height >= maxHeight;
+    }
+    updateConnection();
+  }
+
+  /**
+   * Start checking connections periodically in a background thread.
+   *
+   * @param periodMs is the time between checks in milliseconds
+   */
+  public synchronized void startCheckingConnections(long periodMs) {
+    if (periodMs <= 0) throw new MoneroException("Check period must be greater than 0");
+    stopCheckingConnections();
+    checker = Executors.newSingleThreadScheduledExecutor(new ThreadFactory() {
+      @Override
+      public Thread newThread(Runnable runnable) {
+        Thread thread = new Thread(runnable, "MoneroRpcConnectionManager");
+        thread.setDaemon(true);
+        return thread;
+      }
+    });
+    checker.scheduleWithFixedDelay(new Runnable() {
+      @Override
+      public void run() {
+        try {
+          checkConnections();
+        } catch (Exception e) {
+          LOGGER.warning("Error checking connections: " + e.getMessage());
+        }
+      }
+    }, 0, periodMs, TimeUnit.MILLISECONDS);
+  }
+
+  /**
+   * Stop checking connections periodically.
+   */
+  public synchronized void stopCheckingConnections() {
+    if (checker != null) {
+      checker.shutdownNow();
+      checker = null;
+    }
+  }
+
+  public void addListener(MoneroConnectionManagerListener listener) {
+    listeners.add(listener);
+  }
+
+  public void removeListener(MoneroConnectionManagerListener listener) {
+    if (!listeners.remove(listener)) throw new MoneroException("Listener is not registered with connection manager");
+  }
+
+  public List<MoneroConnectionManagerListener> getListeners() {
+    return new ArrayList<MoneroConnectionManagerListener>(listeners);
+  }
+
+  // ------------------------- ROUTED CONNECTION METHODS ----------------------
+
+  /**
+   * Register a metrics listener with the manager and all managed connections.
+   *
+   * @param listener is the listener to receive request metrics
+   */
+  @Override
+  public void addMetricsListener(MoneroRpcMetricsListener listener) {
+    super.addMetricsListener(listener);
+    for (Endpoint endpoint : endpoints) endpoint.connection.addMetricsListener(listener);
+  }
+
+  @Override
+  public void removeMetricsListener(MoneroRpcMetricsListener listener) {
+    super.removeMetricsListener(listener);
+    for (Endpoint endpoint : endpoints) endpoint.connection.removeMetricsListener(listener);
+  }
+
+  @Override
+  public String getUri() {
+    MoneroRpcConnection connection = getConnection();
+    return connection == null ? super.getUri() : connection.getUri();
+  }
+
+  @Override
+  public String getUsername() {
+    MoneroRpcConnection connection = getConnection();
+    return connection == null ? super.getUsername() : connection.getUsername();
+  }
+
+  @Override
+  public String getPassword() {
+    MoneroRpcConnection connection = getConnection();
+    return connection == null ? super.getPassword() : connection.getPassword();
+  }
+
+  @Override
+  public Map<String, Object> sendJsonRequest(String method, Object params, Collection<String> streamedFields, BiConsumer<String, Map<String, Object>> handler) {
+    TrackedHandler trackedHandler = handler == null ? null : new TrackedHandler(handler);
+    return send(method, READ_ONLY_METHODS.contains(method), trackedHandler, new Function<MoneroRpcConnection, Map<String, Object>>() {
+      @Override
+      public Map<String, Object> apply(MoneroRpcConnection connection) {
+        return connection.sendJsonRequest(method, params, streamedFields, trackedHandler);
+      }
+    });
+  }
+
+  @Override
+  public Map<String, Object> sendJsonRequestWithBinaryFields(String method, Object params) {
+    return send(method, READ_ONLY_METHODS.contains(method), null, new Function<MoneroRpcConnection, Map<String, Object>>() {
+      @Override
+      public Map<String, Object> apply(MoneroRpcConnection connection) {
+        return connection.sendJsonRequestWithBinaryFields(method, params);
+      }
+    });
+  }
+  
+  @Override
+  public List<MoneroRpcResponse> sendJsonRequests(List<MoneroRpcRequest> requests) {
+    boolean isReadOnly = true;
+    for (MoneroRpcRequest request : requests) isReadOnly &= READ_ONLY_METHODS.contains(request.getMethod());
+    return send("json_rpc", isReadOnly, null, new Function<MoneroRpcConnection, List<MoneroRpcResponse>>() {
+      @Override
+      public List<MoneroRpcResponse> apply(MoneroRpcConnection connection) {
+        return connection.sendJsonRequests(requests);
+      }
+    });
+  }
+
+  @Override
+  public Map<String, Object> sendPathRequest(String path, Map<String, Object> params, Collection<String> streamedFields, BiConsumer<String, Map<String, Object>> handler) {
+    TrackedHandler trackedHandler = handler == null ? null : new TrackedHandler(handler);
+    return send(path, READ_ONLY_METHODS.contains(path), trackedHandler, new Function<MoneroRpcConnection, Map<String, Object>>() {
+      @Override
+      public Map<String, Object> apply(MoneroRpcConnection connection) {
+        return connection.sendPathRequest(path, params, streamedFields, trackedHandler);
+      }
+    });
+  }
+
+  @Override
+  public byte[] sendBinaryRequest(String path, Map<String, Object> params) {
+    return send(path, READ_ONLY_METHODS.contains(path), null, new Function<MoneroRpcConnection, byte[]>() {
+      @Override
+      public byte[] apply(MoneroRpcConnection connection) {
+        return connection.sendBinaryRequest(path, params);
+      }
+    });
+  }
+
+  // -------------------------------- PRIVATE ---------------------------------
+
+  private static MoneroRpcConnection getFirst(List<MoneroRpcConnection> connections) {
+    if (connections == null || connections.isEmpty()) throw new MoneroException("Must provide at least one connection");
+    return connections.get(0);
+  }
+
+  private Endpoint getEndpoint(MoneroRpcConnection connection) {
+    for (Endpoint endpoint : endpoints) if (endpoint.connection == connection) return endpoint;
+    throw new MoneroException("Connection is not managed: " + (connection == null ? null : connection.getUri()));
+  }
+
+  /**
+   * Sends a request to the best endpoint, failing over to the next best
+   * endpoints if the request cannot be delivered.
+   *
+   * Requests only fail over if the endpoint could not be reached or returned
+   * an HTTP error before any streamed element reached the handler.  Requests
+   * which are not read-only only fail over if the connection was refused, so
+   * they are never executed twice.  Errors returned by the endpoint's rpc api,
+   * thrown by the handler, or from parsing the response are re-thrown.
+   */
+  private <T> T send(String method, boolean isReadOnly, TrackedHandler handler, Function<MoneroRpcConnection, T> request) {
+    MoneroException lastError = null;
+    for (Endpoint endpoint : getCandidates(isReadOnly)) {
+      long startTime = System.currentTimeMillis();
+      try {
+        T result = request.apply(endpoint.connection);
+        endpoint.recordLatency(System.currentTimeMillis() - startTime);
+        if (!Boolean.TRUE.equals(endpoint.isOnline)) {
+          endpoint.isOnline = true;
+          updateConnection();
+        }
+        return result;
+      } catch (MoneroException e) {
+        if (!isUnreachable(e) || (handler != null && handler.isDelivered)) throw e;
+        lastError = e;
+      }
+      endpoint.isOnline = false;
+      endpoint.isSynced = false;
+      updateConnection();
+      if (!isReadOnly && !(lastError.getCause() instanceof ConnectException)) throw lastError;  // request may have been executed
+      LOGGER.warning("Request '" + method + "' to " + endpoint.connection.getUri() + " failed, failing over: " + lastError.getMessage());
+    }
+    if (lastError != null) throw lastError;
+    throw new MoneroException("No connections to send request '" + method + "'");
+  }
+
+  /**
+   * Indicates if a request failed because its endpoint could not be reached
+   * or returned an HTTP error, as opposed to an rpc error, an error parsing
+   * the response, an error thrown by a handler, or being aborted.
+   */
+  private static boolean isUnreachable(MoneroException e) {
+    if (e instanceof MoneroRpcException) return ((MoneroRpcException) e).getRpcMethod() == null;
+    Throwable cause = e.getCause();
+    return cause instanceof IOException && !(cause instanceof JsonProcessingException) && !(cause instanceof RequestAbortedException);
+  }
+
+  /**
+   * Get endpoints in the order requests are attempted: online and synchronized,
+   * unchecked, online but not synchronized, then offline, each by latency and
+   * then priority.
+   */
+  private List<Endpoint> getCandidates(boolean isReadOnly) {
+    
+    // sort by rank then latency, keeping priority order for ties
+    List<Endpoint> candidates = new ArrayList<Endpoint>(endpoints);
+    Map<Endpoint, Double> latencies = new IdentityHashMap<Endpoint, Double>(); // snapshot since latencies change concurrently
+    Map<Endpoint, Integer> ranks = new IdentityHashMap<Endpoint, Integer>();
+    for (Endpoint endpoint : candidates) {
+      latencies.put(endpoint, endpoint.latencyMs < 0 ? Double.MAX_VALUE : endpoint.latencyMs);
+      ranks.put(endpoint, endpoint.getRank());
+    }
+    Collections.sort(candidates, new Comparator<Endpoint>() {
+      @Override
+      public int compare(Endpoint e1, Endpoint e2) {
+        int diff = Integer.compare(ranks.get(e1), ranks.get(e2));
+        return diff != 0 ? diff : Double.compare(latencies.get(e1), latencies.get(e2));
+      }
+    });
+
+    // rotate among synchronized endpoints to spread reads
+    if (isReadOnly && isLoadBalancingReads) {
+      int numSynced = 0;
+      while (numSynced < candidates.size() && ranks.get(candidates.get(numSynced)) == 0) numSynced++;
+      if (numSynced > 1) Collections.rotate(candidates.subList(0, numSynced), -Math.floorMod(nextReadIdx.getAndIncrement(), numSynced));
+    }
+    return candidates;
+  }
+
+  private void updateConnection() {
+    MoneroRpcConnection best = getConnection();
+    synchronized (this) {
+      if (best == connection) return;
+      connection = best;
+    }
+    if (best != null) LOGGER.fine("Using RPC connection " + best.getUri());
+    for (MoneroConnectionManagerListener listener : listeners) listener.onConnectionChanged(best);
+  }
+
+  /**
+   * Handler of streamed elements which records if any element was delivered,
+   * after which a request cannot be repeated.
+   */
+  private static class TrackedHandler implements BiConsumer<String, Map<String, Object>> {
+
+    private final BiConsumer<String, Map<String, Object>> handler;
+    private volatile boolean isDelivered;
+
+    TrackedHandler(BiConsumer<String, Map<String, Object>> handler) {
+      this.handler = handler;
+    }
+
+    @Override
+    public void accept(String field, Map<String, Object> element) {
+      isDelivered = true;
+      handler.accept(field, element);
+    }
+  }
+
+  /**
+   * Status of a managed connection.
+   */
+  private static class Endpoint {
+
+    private final MoneroRpcConnection connection;
+    private volatile Boolean isOnline;
+    private volatile boolean isSynced;
+    private volatile long height;
+    private volatile double latencyMs;
+
+    Endpoint(MoneroRpcConnection connection) {
+      this.connection = connection;
+      this.latencyMs = -1;
+    }
+
+    synchronized void recordLatency(long sampleMs) {
+      latencyMs = latencyMs < 0 ? sampleMs : (1 - LATENCY_WEIGHT) * latencyMs + LATENCY_WEIGHT * sampleMs;
+    }
+
+    int getRank() {
+      if (Boolean.TRUE.equals(isOnline)) return isSynced ? 0 : 2;
+      return isOnline == null ? 1 : 3;
+    }
+  }
+}
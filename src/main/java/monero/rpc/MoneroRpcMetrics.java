@@ -0,0 +1,214 @@
+package monero.rpc;
+
+import java.util.HashMap;
+import java.util.Map;
+import java.util.Set;
+import java.util.TreeSet;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.concurrent.atomic.LongAdder;
+
+import monero.utils.MoneroException;
+
+/**
+ * Aggregates request metrics per json-rpc method or url path in memory.
+ *
+ * Register with one or more connections, e.g.
+ * <code>connection.addMetricsListener(metrics)</code>, then read the
+ * statistics of each method to find which calls dominate latency.
+ */
+public class MoneroRpcMetrics extends MoneroRpcMetricsListener {
+
+  /**
+   * Upper bounds in milliseconds of the latency histogram buckets.  The
+   * histogram has one more bucket for latencies above the last bound.
+   */
+  public static final long[] LATENCY_BUCKETS_MS = new long[] { 1, 2, 5, 10, 20, 50, 100, 200, 500, 1000, 2000, 5000, 10000, 30000 };
+
+  private ConcurrentMap<String, MethodMetrics> methodMetrics;
+
+  public MoneroRpcMetrics() {
+    methodMetrics = new ConcurrentHashMap<String, MethodMetrics>();
+  }
+
+  @Override
+  public void onRequestStarted(MoneroRpcConnection connection, String method) {
+    getOrCreate(method).inFlight.incrementAndGet();
+  }
+
+  @Override
+  public void onRequestCompleted(MoneroRpcConnection connection, String method, long latencyNanos, long requestBytes, long responseBytes, MoneroException error) {
+    getOrCreate(method).record(latencyNanos, requestBytes, responseBytes, error);
+  }
+
+  /**
+   * Get the methods and paths with recorded requests.
+   *
+   * @return the recorded methods and paths in sorted order
+   */
+  public Set<String> getMethods() {
+    return new TreeSet<String>(methodMetrics.keySet());
+  }
+
+  /**
+   * Get the metrics of a method or path.
+   *
+   * @param method is the json-rpc method or url path
+   * @return the method's metrics, null if no requests have been recorded
+   */
+  public MethodMetrics getMetrics(String method) {
+    return methodMetrics.get(method);
+  }
+
+  /**
+   * Clear all recorded metrics.
+   */
+  public void reset() {
+    methodMetrics.clear();
+  }
+
+  private MethodMetrics getOrCreate(String method) {
+    MethodMetrics metrics = methodMetrics.get(method);
+    if (metrics == null) {
+      MethodMetrics created = new MethodMetrics();
+      metrics = methodMetrics.putIfAbsent(method, created);
+      if (metrics == null) metrics = created;
+    }
+    return metrics;
+  }
+
+  /**
+   * Metrics of requests to one json-rpc method or url path.
+   */
+  public static class MethodMetrics {
+
+    private final LongAdder count = new LongAdder();
+    private final LongAdder errorCount = new LongAdder();
+    private final ConcurrentMap<Integer, LongAdder> errorCodes = new ConcurrentHashMap<Integer, LongAdder>();
+    private final AtomicLong inFlight = new AtomicLong();
+    private final LongAdder totalLatencyNanos = new LongAdder();
+    private final AtomicLong maxLatencyNanos = new AtomicLong();
+    private final AtomicLongArray latencyHistogram = new AtomicLongArray(LATENCY_BUCKETS_MS.length + 1);
+    private final LongAdder requestBytes = new LongAdder();
+    private final LongAdder responseBytes = new LongAdder();
+
+    private void record(long latencyNanos, long requestBytes, long responseBytes, MoneroException error) {
+      inFlight.decrementAndGet();
+      count.increment();
+      totalLatencyNanos.add(latencyNanos);
+      long max;
+      while (latencyNanos > (max = maxLatencyNanos.get()) && !maxLatencyNanos.compareAndSet(max, latencyNanos));
+      latencyHistogram.incrementAndGet(getBucket(latencyNanos / 1000000));
+      this.requestBytes.add(requestBytes);
+      this.responseBytes.add(responseBytes);
+      if (error != null) {
+        errorCount.increment();
+        if (error.getCode() != null) {
+          LongAdder codeCount = errorCodes.get(error.getCode());
+          if (codeCount == null) {
+            LongAdder created = new LongAdder();
+            codeCount = errorCodes.putIfAbsent(error.getCode(), created);
+            if (codeCount == null) codeCount = created;
+          }
+          codeCount.increment();
+        }
+      }
+    }
+
+    private static int getBucket(long latencyMs) {
+      for (int i = 0; i < LATENCY_BUCKETS_MS.length; i++) {
+        if (latencyMs <= LATENCY_BUCKETS_MS[i]) return i;
+      }
+      return LATENCY_BUCKETS_MS.length;
+    }
+
+    /**
+     * Get the number of completed requests.
+     *
+     * @return the number of completed requests including failures
+     */
+    public long getCount() {
+      return count.sum();
+    }
+
+    /**
+     * Get the number of failed requests.
+     *
+     * @return the number of requests which failed
+     */
+    public long getErrorCount() {
+      return errorCount.sum();
+    }
+
+    /**
+     * Get the number of failed requests per rpc or http error code.
+     *
+     * @return the number of failures per error code
+     */
+    public Map<Integer, Long> getErrorCodes() {
+      Map<Integer, Long> codes = new HashMap<Integer, Long>();
+      for (Map.Entry<Integer, LongAdder> entry : errorCodes.entrySet()) codes.put(entry.getKey(), entry.getValue().sum());
+      return codes;
+    }
+
+    /**
+     * Get the number of requests currently being sent.
+     *
+     * @return the number of requests in flight
+     */
+    public long getInFlight() {
+      return inFlight.get();
+    }
+
+    public double getAverageLatencyMs() {
+      long count = getCount();
+      return count == 0 ? 0 : totalLatencyNanos.sum() / (double) count / 1000000;
+    }
+
+    public double getMaxLatencyMs() {
+      return maxLatencyNanos.get() / 1000000d;
+    }
+
+    /**
+     * Get the number of requests per latency bucket.
+     *
+     * @return the number of requests whose latency is within each bound of LATENCY_BUCKETS_MS, followed by the number above the last bound
+     */
+    public long[] getLatencyHistogram() {
+      long[] histogram = new long[latencyHistogram.length()];
+      for (int i = 0; i < histogram.length; i++) histogram[i] = latencyHistogram.get(i);
+      return histogram;
+    }
+
+    /**
+     * Estimate a latency percentile from the histogram.
+     *
+     * @param percentile is the percentile to estimate between 0 and 100, e.g. 99
+     * @return the upper bound in milliseconds of the bucket containing the percentile, or the max latency if above all bounds
+     */
+    public double getLatencyPercentileMs(double percentile) {
+      if (percentile < 0 || percentile > 100) throw new MoneroException("Percentile must be between 0 and 100");
+      long[] histogram = getLatencyHistogram();
+      long total = 0;
+      for (long bucketCount : histogram) total += bucketCount;
+      if (total == 0) return 0;
+      long rank = (long) Math.ceil(percentile / 100 * total);
+      long seen = 0;
+      for (int i = 0; i < LATENCY_BUCKETS_MS.length; i++) {
+        seen += histogram[i];
+        if (seen >= rank) return LATENCY_BUCKETS_MS[i];
+      }
+      return getMaxLatencyMs();
+    }
+
+    public long getRequestBytes() {
+      return requestBytes.sum();
+    }
+
+    public long getResponseBytes() {
+      return responseBytes.sum();
+    }
+  }
+}
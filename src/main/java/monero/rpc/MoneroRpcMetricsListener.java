@@ -0,0 +1,32 @@
+package monero.rpc;
+
+import monero.utils.MoneroException;
+
+/**
+ * Receives metrics of requests sent by RPC connections.
+ *
+ * Listeners are called on the thread sending the request, so they should
+ * return quickly.
+ */
+public class MoneroRpcMetricsListener {
+
+  /**
+   * Called before a request is sent.
+   *
+   * @param connection is the connection sending the request
+   * @param method is the json-rpc method or url path of the request
+   */
+  public void onRequestStarted(MoneroRpcConnection connection, String method) { }
+
+  /**
+   * Called after a request completes or fails.
+   *
+   * @param connection is the connection which sent the request
+   * @param method is the json-rpc method or url path of the request
+   * @param latencyNanos is the time to send the request and read its response in nanoseconds
+   * @param requestBytes is the size of the request body in bytes
+   * @param responseBytes is the size of the response body in bytes, 0 if not read
+   * @param error is the error if the request failed (a MoneroRpcException with the rpc or http error code if returned by the server), null otherwise
+   */
+  public void onRequestCompleted(MoneroRpcConnection connection, String method, long latencyNanos, long requestBytes, long responseBytes, MoneroException error) { }
+}
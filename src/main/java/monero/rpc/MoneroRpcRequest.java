@@ -0,0 +1,27 @@
+package monero.rpc;
+
+/**
+ * A single JSON-RPC method call, e.g. as part of a batch request.
+ */
+public class MoneroRpcRequest {
+
+  private String method;
+  private Object params;
+  
+  public MoneroRpcRequest(String method) {
+    this(method, null);
+  }
+  
+  public MoneroRpcRequest(String method, Object params) {
+    this.method = method;
+    this.params = params;
+  }
+  
+  public String getMethod() {
+    return method;
+  }
+  
+  public Object getParams() {
+    return params;
+  }
+}
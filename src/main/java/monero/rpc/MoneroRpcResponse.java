@@ -0,0 +1,47 @@
+package monero.rpc;
+
+import java.util.Map;
+
+/**
+ * The response to a single JSON-RPC method call within a batch request.
+ */
+public class MoneroRpcResponse {
+
+  private Map<String, Object> respMap;
+  private MoneroRpcException error;
+  
+  public MoneroRpcResponse(Map<String, Object> respMap, MoneroRpcException error) {
+    this.respMap = respMap;
+    this.error = error;
+  }
+  
+  /**
+   * Get the full response map including the "result" or "error" field.
+   * 
+   * @return the response map
+   */
+  public Map<String, Object> getResponseMap() {
+    return respMap;
+  }
+  
+  /**
+   * Get the error returned for the call.
+   * 
+   * @return the error returned for the call, null if the call succeeded
+   */
+  public MoneroRpcException getError() {
+    return error;
+  }
+  
+  /**
+   * Get the result of the call.
+   * 
+   * @return the "result" field of the response
+   * @throws MoneroRpcException if the call returned an error
+   */
+  @SuppressWarnings("unchecked")
+  public Map<String, Object> getResult() {
+    if (error != null) throw error;
+    return (Map<String, Object>) respMap.get("result");
+  }
+}
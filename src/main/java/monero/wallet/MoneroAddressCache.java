@@ -0,0 +1,58 @@
+package monero.wallet;
+
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+
+/**
+ * Thread-safe cache of a wallet's addresses by account and subaddress index
+ * and of their indices by address.
+ *
+ * Addresses are derived from the wallet's keys, so entries never become
+ * stale.  The wallet replaces its cache when another wallet is opened, so
+ * responses to requests sent before the switch fill the old cache.
+ */
+class MoneroAddressCache {
+
+  private ConcurrentMap<Integer, ConcurrentMap<Integer, String>> addresses;  // addresses by account and subaddress index
+  private ConcurrentMap<String, int[]> indices;  // account and subaddress index by address
+
+  MoneroAddressCache() {
+    addresses = new ConcurrentHashMap<Integer, ConcurrentMap<Integer, String>>();
+    indices = new ConcurrentHashMap<String, int[]>();
+  }
+
+  /**
+   * Get a cached address.
+   *
+   * @param accountIdx is the index of the address's account
+   * @param subaddressIdx is the index of the address's subaddress
+   * @return the cached address, null if not cached
+   */
+  String getAddress(int accountIdx, int subaddressIdx) {
+    Map<Integer, String> subaddressMap = addresses.get(accountIdx);
+    return subaddressMap == null ? null : subaddressMap.get(subaddressIdx);
+  }
+
+  /**
+   * Get the cached account and subaddress index of an address.
+   *
+   * @param address is the address to get the indices of
+   * @return the account and subaddress index of the address, null if not cached
+   */
+  int[] getIndices(String address) {
+    int[] addressIndices = indices.get(address);
+    return addressIndices == null ? null : addressIndices.clone();
+  }
+
+  void put(int accountIdx, int subaddressIdx, String address) {
+    ConcurrentMap<Integer, String> subaddressMap = addresses.get(accountIdx);
+    if (subaddressMap == null) {
+      ConcurrentMap<Integer, String> created = new ConcurrentHashMap<Integer, String>();
+      subaddressMap = addresses.putIfAbsent(accountIdx, created);
+      if (subaddressMap == null) subaddressMap = created;
+    }
+    subaddressMap.put(subaddressIdx, address);
+    indices.put(address, new int[] { accountIdx, subaddressIdx });
+  }
+}
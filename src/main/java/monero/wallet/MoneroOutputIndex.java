@@ -0,0 +1,193 @@
+package monero.wallet;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.NavigableMap;
+import java.util.Set;
+import java.util.TreeMap;
+
+import monero.rpc.MoneroRpcConnection;
+import monero.rpc.MoneroRpcRequest;
+import monero.rpc.MoneroRpcResponse;
+import monero.wallet.model.MoneroOutputQuery;
+import monero.wallet.model.MoneroTxQuery;
+
+/**
+ * Local copy of a wallet's outputs.
+ *
+ * Outputs are re-fetched with <code>incoming_transfers</code> only if the
+ * wallet's height or balances changed since they were fetched, since
+ * receiving or spending outputs changes the balances and outputs unlock
+ * with new blocks.  Outputs frozen or thawed by another client are not
+ * detected until then.
+ *
+ * Outputs are indexed by key image, spent status, height, tx id, account
+ * and subaddress so queries only read the outputs which can match.
+ *
+ * Outputs are kept in the form returned by <code>incoming_transfers</code> so
+ * they are converted to wallet types the same way as fetched outputs.
+ */
+class MoneroOutputIndex {
+
+  private static final Comparator<Map<String, Object>> HEIGHT_COMPARATOR = new Comparator<Map<String, Object>>() {
+    @Override
+    public int compare(Map<String, Object> rpcOutput1, Map<String, Object> rpcOutput2) {
+      return Long.compare(getHeight(rpcOutput1), getHeight(rpcOutput2));
+    }
+  };
+
+  private MoneroRpcConnection rpc;
+  private List<Object> syncState;  // wallet height and balances when outputs were fetched, null if not fetched
+  private List<Map<String, Object>> outputs;  // rpc outputs ordered by height
+  private Map<String, Map<String, Object>> byKeyImage;
+  private Map<Boolean, List<Map<String, Object>>> bySpent;
+  private NavigableMap<Long, List<Map<String, Object>>> byHeight;
+  private Map<String, List<Map<String, Object>>> byTxId;
+  private Map<Integer, List<Map<String, Object>>> byAccount;
+  private Map<List<Integer>, List<Map<String, Object>>> bySubaddress;  // by account and subaddress index
+
+  MoneroOutputIndex(MoneroRpcConnection rpc) {
+    this.rpc = rpc;
+    index(new ArrayList<Map<String, Object>>());
+  }
+
+  /**
+   * Re-fetch the wallet's outputs if its height or balances changed.
+   */
+  @SuppressWarnings("unchecked")
+  synchronized void sync() {
+
+    // fetch height, balances and accounts in one batch
+    Map<String, Object> balanceParams = new HashMap<String, Object>();
+    balanceParams.put("all_accounts", true);
+    List<MoneroRpcResponse> responses = rpc.sendJsonRequests(Arrays.asList(
+        new MoneroRpcRequest("get_height"),
+        new MoneroRpcRequest("get_balance", balanceParams),
+        new MoneroRpcRequest("get_accounts")));
+    Map<String, Object> balances = responses.get(1).getResult();
+    List<Object> state = Arrays.asList(responses.get(0).getResult().get("height"), balances.get("balance"), balances.get("unlocked_balance"));
+    if (state.equals(syncState)) return;
+
+    // fetch outputs of each account in one batch
+    List<MoneroRpcRequest> requests = new ArrayList<MoneroRpcRequest>();
+    for (Map<String, Object> rpcAccount : (List<Map<String, Object>>) responses.get(2).getResult().get("subaddress_accounts")) {
+      Map<String, Object> params = new HashMap<String, Object>();
+      params.put("transfer_type", "all");
+      params.put("verbose", true);
+      params.put("account_index", rpcAccount.get("account_index"));
+      requests.add(new MoneroRpcRequest("incoming_transfers", params));
+    }
+    List<Map<String, Object>> fetched = new ArrayList<Map<String, Object>>();
+    for (MoneroRpcResponse response : rpc.sendJsonRequests(requests)) {
+      Map<String, Object> result = response.getResult();
+      if (result.containsKey("transfers")) fetched.addAll((List<Map<String, Object>>) result.get("transfers"));
+    }
+    index(fetched);
+    syncState = state;
+  }
+
+  /**
+   * Get synced outputs which can match a query.
+   *
+   * Outputs are looked up by the most selective of the key image, tx ids,
+   * subaddresses, heights, account or spent status which are queried.
+   *
+   * @param query is the query of the outputs
+   * @return the rpc outputs which can match the query
+   */
+  synchronized Collection<Map<String, Object>> getOutputs(MoneroOutputQuery query) {
+    MoneroTxQuery txQuery = query.getTxQuery();
+    Set<String> txIds = null;
+    if (txQuery != null && (txQuery.getId() != null || txQuery.getTxIds() != null)) {
+      txIds = new HashSet<String>();
+      if (txQuery.getId() != null) txIds.add(txQuery.getId());
+      if (txQuery.getTxIds() != null) txIds.addAll(txQuery.getTxIds());
+    }
+    Long minHeight = txQuery == null ? null : txQuery.getHeight() != null ? txQuery.getHeight() : txQuery.getMinHeight();
+    Long maxHeight = txQuery == null ? null : txQuery.getHeight() != null ? txQuery.getHeight() : txQuery.getMaxHeight();
+
+    // look up by the most selective index
+    if (query.getKeyImage() != null && query.getKeyImage().getHex() != null) {
+      Map<String, Object> rpcOutput = byKeyImage.get(query.getKeyImage().getHex());
+      return rpcOutput == null ? Collections.emptyList() : Arrays.asList(rpcOutput);
+    }
+    if (txIds != null) return lookup(byTxId, txIds);
+    if (query.getAccountIndex() != null && (query.getSubaddressIndex() != null || query.getSubaddressIndices() != null)) {
+      Set<List<Integer>> subaddresses = new HashSet<List<Integer>>();
+      if (query.getSubaddressIndex() != null) subaddresses.add(Arrays.asList(query.getAccountIndex(), query.getSubaddressIndex()));
+      if (query.getSubaddressIndices() != null) {
+        for (Integer subaddressIdx : query.getSubaddressIndices()) subaddresses.add(Arrays.asList(query.getAccountIndex(), subaddressIdx));
+      }
+      return lookup(bySubaddress, subaddresses);
+    }
+    if (minHeight != null || maxHeight != null) {
+      long fromHeight = minHeight == null ? 0 : minHeight;
+      long toHeight = maxHeight == null ? Long.MAX_VALUE : maxHeight;
+      List<Map<String, Object>> rpcOutputs = new ArrayList<Map<String, Object>>();
+      if (fromHeight <= toHeight) {
+        for (List<Map<String, Object>> heightOutputs : byHeight.subMap(fromHeight, true, toHeight, true).values()) rpcOutputs.addAll(heightOutputs);
+      }
+      return rpcOutputs;
+    }
+    if (query.getAccountIndex() != null) return get(byAccount, query.getAccountIndex());
+    if (query.isSpent() != null) return get(bySpent, query.isSpent());
+    return outputs;
+  }
+
+  // ------------------------------ PRIVATE -----------------------------------
+
+  @SuppressWarnings("unchecked")
+  private void index(List<Map<String, Object>> rpcOutputs) {
+    Collections.sort(rpcOutputs, HEIGHT_COMPARATOR);
+    outputs = rpcOutputs;
+    byKeyImage = new HashMap<String, Map<String, Object>>();
+    bySpent = new HashMap<Boolean, List<Map<String, Object>>>();
+    byHeight = new TreeMap<Long, List<Map<String, Object>>>();
+    byTxId = new HashMap<String, List<Map<String, Object>>>();
+    byAccount = new HashMap<Integer, List<Map<String, Object>>>();
+    bySubaddress = new HashMap<List<Integer>, List<Map<String, Object>>>();
+    for (Map<String, Object> rpcOutput : rpcOutputs) {
+      if (rpcOutput.get("key_image") != null) byKeyImage.put((String) rpcOutput.get("key_image"), rpcOutput);
+      add(bySpent, Boolean.TRUE.equals(rpcOutput.get("spent")), rpcOutput);
+      add(byHeight, getHeight(rpcOutput), rpcOutput);
+      add(byTxId, (String) rpcOutput.get("tx_hash"), rpcOutput);
+      Map<String, Object> rpcIndex = (Map<String, Object>) rpcOutput.get("subaddr_index");
+      if (rpcIndex != null) {
+        int accountIdx = ((Number) rpcIndex.get("major")).intValue();
+        add(byAccount, accountIdx, rpcOutput);
+        add(bySubaddress, Arrays.asList(accountIdx, ((Number) rpcIndex.get("minor")).intValue()), rpcOutput);
+      }
+    }
+  }
+
+  private static long getHeight(Map<String, Object> rpcOutput) {
+    return rpcOutput.get("block_height") == null ? 0 : ((Number) rpcOutput.get("block_height")).longValue();
+  }
+
+  private static <K> void add(Map<K, List<Map<String, Object>>> index, K key, Map<String, Object> rpcOutput) {
+    List<Map<String, Object>> rpcOutputs = index.get(key);
+    if (rpcOutputs == null) {
+      rpcOutputs = new ArrayList<Map<String, Object>>();
+      index.put(key, rpcOutputs);
+    }
+    rpcOutputs.add(rpcOutput);
+  }
+
+  private static <K> List<Map<String, Object>> get(Map<K, List<Map<String, Object>>> index, K key) {
+    List<Map<String, Object>> rpcOutputs = index.get(key);
+    return rpcOutputs == null ? Collections.emptyList() : rpcOutputs;
+  }
+
+  private static <K> List<Map<String, Object>> lookup(Map<K, List<Map<String, Object>>> index, Set<K> keys) {
+    List<Map<String, Object>> rpcOutputs = new ArrayList<Map<String, Object>>();
+    for (K key : keys) rpcOutputs.addAll(get(index, key));
+    return rpcOutputs;
+  }
+}
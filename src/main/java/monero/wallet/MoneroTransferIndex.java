@@ -0,0 +1,312 @@
+package monero.wallet;
+
+import java.math.BigInteger;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.IdentityHashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.NavigableMap;
+import java.util.Set;
+import java.util.TreeMap;
+import java.util.function.BiConsumer;
+
+import monero.daemon.model.MoneroTx;
+import monero.rpc.MoneroRpcConnection;
+import monero.rpc.MoneroRpcRequest;
+import monero.rpc.MoneroRpcResponse;
+import monero.wallet.model.MoneroTxQuery;
+
+/**
+ * Local copy of a wallet's transfers which is synced incrementally.
+ *
+ * The first sync downloads all transfers.  Later syncs download confirmed
+ * transfers above the last synced height and all transfers in the pool,
+ * pending or failed, in one batch request.  Confirmed transfers in the most
+ * recent blocks are re-fetched on each sync in case they were reorged.
+ *
+ * Confirmed transfers are indexed by height, tx id, payment id, account and
+ * subaddress so queries only read the transfers which can match.  The lists
+ * of each index are ordered by height, so re-fetched transfers are removed
+ * from their tails.
+ *
+ * Transfers are kept in the form returned by <code>get_transfers</code> so
+ * they are converted to wallet types the same way as fetched transfers.
+ */
+class MoneroTransferIndex {
+
+  static final List<String> TRANSFER_TYPES = Arrays.asList("in", "out", "pending", "failed", "pool");
+  private static final int RESYNC_DEPTH = 10;  // confirmed transfers in this many recent blocks are re-fetched on each sync
+  private static final Comparator<Map<String, Object>> HEIGHT_COMPARATOR = new Comparator<Map<String, Object>>() {
+    @Override
+    public int compare(Map<String, Object> rpcTransfer1, Map<String, Object> rpcTransfer2) {
+      return Long.compare(getHeight(rpcTransfer1), getHeight(rpcTransfer2));
+    }
+  };
+
+  private MoneroRpcConnection rpc;
+  private NavigableMap<Long, List<Map<String, Object>>> confirmed;  // confirmed rpc transfers by height
+  private Map<String, List<Map<String, Object>>> confirmedByTxId;
+  private Map<String, List<Map<String, Object>>> confirmedByPaymentId;
+  private Map<Integer, List<Map<String, Object>>> confirmedByAccount;
+  private Map<List<Integer>, List<Map<String, Object>>> confirmedBySubaddress;  // by account and subaddress index
+  private List<Map<String, Object>> unconfirmed;                     // rpc transfers in the pool, pending or failed
+  private long height;  // wallet height at the last sync, 0 if not synced
+
+  MoneroTransferIndex(MoneroRpcConnection rpc) {
+    this.rpc = rpc;
+    confirmed = new TreeMap<Long, List<Map<String, Object>>>();
+    confirmedByTxId = new HashMap<String, List<Map<String, Object>>>();
+    confirmedByPaymentId = new HashMap<String, List<Map<String, Object>>>();
+    confirmedByAccount = new HashMap<Integer, List<Map<String, Object>>>();
+    confirmedBySubaddress = new HashMap<List<Integer>, List<Map<String, Object>>>();
+    unconfirmed = new ArrayList<Map<String, Object>>();
+  }
+
+  /**
+   * Fetch transfers added or changed since the last sync.
+   */
+  @SuppressWarnings("unchecked")
+  synchronized void sync() {
+
+    // first sync streams all transfers
+    if (height == 0) {
+      long syncHeight = ((BigInteger) ((Map<String, Object>) rpc.sendJsonRequest("get_height").get("result")).get("height")).longValue();
+      List<Map<String, Object>> fetchedConfirmed = new ArrayList<Map<String, Object>>();
+      List<Map<String, Object>> fetchedUnconfirmed = new ArrayList<Map<String, Object>>();
+      rpc.sendJsonRequest("get_transfers", getTransfersParams(true, true), TRANSFER_TYPES, new BiConsumer<String, Map<String, Object>>() {
+        @Override
+        public void accept(String type, Map<String, Object> rpcTransfer) {
+          if (isConfirmed(type)) fetchedConfirmed.add(rpcTransfer);
+          else fetchedUnconfirmed.add(rpcTransfer);
+        }
+      });
+      addConfirmed(fetchedConfirmed);
+      unconfirmed = fetchedUnconfirmed;
+      height = Math.max(syncHeight, getMaxHeight() + 1);
+      return;
+    }
+
+    // otherwise fetch height, recent confirmed transfers and unconfirmed transfers in one batch
+    // TODO monero core: wallet2::get_payments() min_height is exclusive (issues #5751, #5598)
+    long resyncHeight = Math.max(0, height - 1 - RESYNC_DEPTH);
+    Map<String, Object> confirmedParams = getTransfersParams(true, false);
+    confirmedParams.put("filter_by_height", true);
+    confirmedParams.put("min_height", resyncHeight);
+    List<MoneroRpcResponse> responses = rpc.sendJsonRequests(Arrays.asList(
+        new MoneroRpcRequest("get_height"),
+        new MoneroRpcRequest("get_transfers", confirmedParams),
+        new MoneroRpcRequest("get_transfers", getTransfersParams(false, true))));
+    long syncHeight = ((BigInteger) responses.get(0).getResult().get("height")).longValue();
+    Map<String, Object> confirmedResult = responses.get(1).getResult();
+    Map<String, Object> unconfirmedResult = responses.get(2).getResult();
+
+    // replace recent confirmed transfers and all unconfirmed transfers
+    removeConfirmedAbove(resyncHeight);
+    List<Map<String, Object>> fetchedConfirmed = new ArrayList<Map<String, Object>>();
+    for (String type : TRANSFER_TYPES) {
+      if (!confirmedResult.containsKey(type)) continue;
+      for (Map<String, Object> rpcTransfer : (List<Map<String, Object>>) confirmedResult.get(type)) {
+        if (getHeight(rpcTransfer) > resyncHeight) fetchedConfirmed.add(rpcTransfer);
+      }
+    }
+    addConfirmed(fetchedConfirmed);
+    List<Map<String, Object>> fetchedUnconfirmed = new ArrayList<Map<String, Object>>();
+    for (String type : TRANSFER_TYPES) {
+      if (unconfirmedResult.containsKey(type)) fetchedUnconfirmed.addAll((List<Map<String, Object>>) unconfirmedResult.get(type));
+    }
+    unconfirmed = fetchedUnconfirmed;
+    height = Math.max(syncHeight, getMaxHeight() + 1);
+  }
+
+  /**
+   * Get synced transfers which match parameters of <code>get_transfers</code>.
+   *
+   * Confirmed transfers are looked up by the most selective of the tx ids,
+   * payment ids, heights, subaddresses or account which are queried.  The
+   * returned transfers include every transfer of the queried txs which
+   * <code>get_transfers</code> would return, so txs are built completely.
+   *
+   * Confirmations of confirmed transfers are updated to the last synced height.
+   *
+   * @param params are the parameters of <code>get_transfers</code> to match
+   * @param txQuery is the query of the transfers' txs
+   * @return the matching rpc transfers
+   */
+  synchronized List<Map<String, Object>> getTransfers(Map<String, Object> params, MoneroTxQuery txQuery) {
+
+    // get range of confirmed heights
+    long minHeight = 0;
+    long maxHeight = Long.MAX_VALUE;
+    if (txQuery.getHeight() != null) minHeight = maxHeight = txQuery.getHeight();
+    if (txQuery.getMinHeight() != null) minHeight = Math.max(minHeight, txQuery.getMinHeight());
+    if (txQuery.getMaxHeight() != null) maxHeight = Math.min(maxHeight, txQuery.getMaxHeight());
+    boolean filterByHeight = minHeight > 0 || maxHeight < Long.MAX_VALUE;
+
+    // look up confirmed transfers by the most selective index
+    Integer accountIdx = params.get("account_index") == null ? null : ((Number) params.get("account_index")).intValue();
+    Collection<Map<String, Object>> candidates;
+    Set<String> txIds = getTxIds(txQuery);
+    if (!Boolean.TRUE.equals(params.get("in")) && !Boolean.TRUE.equals(params.get("out"))) candidates = Collections.emptyList();
+    else if (txIds != null) candidates = lookup(confirmedByTxId, txIds);
+    else if (txQuery.getPaymentIds() != null) candidates = lookup(confirmedByPaymentId, new HashSet<String>(txQuery.getPaymentIds()));
+    else if (filterByHeight) {
+      candidates = new ArrayList<Map<String, Object>>();
+      if (minHeight <= maxHeight) {
+        for (List<Map<String, Object>> rpcTransfers : confirmed.subMap(minHeight, true, maxHeight, true).values()) candidates.addAll(rpcTransfers);
+      }
+    }
+    else if (accountIdx != null && params.get("subaddr_indices") != null) {
+      Set<List<Integer>> subaddresses = new HashSet<List<Integer>>();
+      for (Object subaddressIdx : (Collection<?>) params.get("subaddr_indices")) subaddresses.add(Arrays.asList(accountIdx, ((Number) subaddressIdx).intValue()));
+      candidates = lookup(confirmedBySubaddress, subaddresses);
+    }
+    else if (accountIdx != null) candidates = confirmedByAccount.containsKey(accountIdx) ? confirmedByAccount.get(accountIdx) : Collections.emptyList();
+    else {
+      candidates = new ArrayList<Map<String, Object>>();
+      for (List<Map<String, Object>> rpcTransfers : confirmed.values()) candidates.addAll(rpcTransfers);
+    }
+
+    // collect transfers of requested types, account and heights
+    List<Map<String, Object>> transfers = new ArrayList<Map<String, Object>>();
+    for (Map<String, Object> rpcTransfer : candidates) {
+      if (!matches(rpcTransfer, params, accountIdx)) continue;
+      long transferHeight = getHeight(rpcTransfer);
+      if (transferHeight < minHeight || transferHeight > maxHeight) continue;
+      if (rpcTransfer.containsKey("confirmations")) {
+        rpcTransfer = new LinkedHashMap<String, Object>(rpcTransfer);
+        rpcTransfer.put("confirmations", BigInteger.valueOf(height - transferHeight));
+      }
+      transfers.add(rpcTransfer);
+    }
+    for (Map<String, Object> rpcTransfer : unconfirmed) {
+      if (matches(rpcTransfer, params, accountIdx)) transfers.add(rpcTransfer);
+    }
+    return transfers;
+  }
+
+  // ------------------------------ PRIVATE -----------------------------------
+
+  private static Map<String, Object> getTransfersParams(boolean includeConfirmed, boolean includeUnconfirmed) {
+    Map<String, Object> params = new LinkedHashMap<String, Object>();
+    params.put("in", includeConfirmed);
+    params.put("out", includeConfirmed);
+    params.put("pool", includeUnconfirmed);
+    params.put("pending", includeUnconfirmed);
+    params.put("failed", includeUnconfirmed);
+    params.put("all_accounts", true);
+    return params;
+  }
+
+  private static boolean isConfirmed(String type) {
+    return "in".equals(type) || "out".equals(type);
+  }
+
+  static Set<String> getTxIds(MoneroTxQuery txQuery) {
+    if (txQuery.getId() == null && txQuery.getTxIds() == null) return null;
+    Set<String> txIds = new HashSet<String>();
+    if (txQuery.getId() != null) txIds.add(txQuery.getId());
+    if (txQuery.getTxIds() != null) txIds.addAll(txQuery.getTxIds());
+    return txIds;
+  }
+
+  private static <K> Collection<Map<String, Object>> lookup(Map<K, List<Map<String, Object>>> index, Set<K> keys) {
+    Set<Map<String, Object>> rpcTransfers = Collections.newSetFromMap(new IdentityHashMap<Map<String, Object>, Boolean>());  // outgoing transfers may be indexed under multiple subaddresses
+    for (K key : keys) {
+      List<Map<String, Object>> keyTransfers = index.get(key);
+      if (keyTransfers != null) rpcTransfers.addAll(keyTransfers);
+    }
+    return rpcTransfers;
+  }
+
+  @SuppressWarnings("unchecked")
+  static boolean matches(Map<String, Object> rpcTransfer, Map<String, Object> params, Integer accountIdx) {
+    if (!Boolean.TRUE.equals(params.get(rpcTransfer.get("type")))) return false;
+    if (accountIdx == null) return true;
+    Map<String, Object> rpcIndex = (Map<String, Object>) rpcTransfer.get("subaddr_index");
+    return rpcIndex != null && accountIdx == ((Number) rpcIndex.get("major")).intValue();
+  }
+
+  private static long getHeight(Map<String, Object> rpcTransfer) {
+    return ((Number) rpcTransfer.get("height")).longValue();
+  }
+
+  /**
+   * Get the keys of a confirmed transfer in the secondary indices.
+   */
+  @SuppressWarnings("unchecked")
+  private static void getKeys(Map<String, Object> rpcTransfer, Set<String> paymentIds, Set<Integer> accountIndices, Set<List<Integer>> subaddresses) {
+    String paymentId = (String) rpcTransfer.get("payment_id");
+    if (paymentId != null && !MoneroTx.DEFAULT_PAYMENT_ID.equals(paymentId)) paymentIds.add(paymentId);
+    Map<String, Object> rpcIndex = (Map<String, Object>) rpcTransfer.get("subaddr_index");
+    if (rpcIndex != null) accountIndices.add(((Number) rpcIndex.get("major")).intValue());
+    List<Map<String, Object>> rpcIndices = (List<Map<String, Object>>) rpcTransfer.get("subaddr_indices");
+    if (rpcIndices != null) {
+      for (Map<String, Object> index : rpcIndices) subaddresses.add(Arrays.asList(((Number) index.get("major")).intValue(), ((Number) index.get("minor")).intValue()));
+    }
+  }
+
+  private void addConfirmed(List<Map<String, Object>> rpcTransfers) {
+    Collections.sort(rpcTransfers, HEIGHT_COMPARATOR);  // keep index lists ordered by height
+    Set<String> paymentIds = new HashSet<String>();
+    Set<Integer> accountIndices = new HashSet<Integer>();
+    Set<List<Integer>> subaddresses = new HashSet<List<Integer>>();
+    for (Map<String, Object> rpcTransfer : rpcTransfers) {
+      add(confirmed, getHeight(rpcTransfer), rpcTransfer);
+      add(confirmedByTxId, (String) rpcTransfer.get("txid"), rpcTransfer);
+      paymentIds.clear();
+      accountIndices.clear();
+      subaddresses.clear();
+      getKeys(rpcTransfer, paymentIds, accountIndices, subaddresses);
+      for (String paymentId : paymentIds) add(confirmedByPaymentId, paymentId, rpcTransfer);
+      for (Integer accountIdx : accountIndices) add(confirmedByAccount, accountIdx, rpcTransfer);
+      for (List<Integer> subaddress : subaddresses) add(confirmedBySubaddress, subaddress, rpcTransfer);
+    }
+  }
+
+  private void removeConfirmedAbove(long minHeight) {
+    NavigableMap<Long, List<Map<String, Object>>> removed = confirmed.tailMap(minHeight, false);
+    Set<String> txIds = new HashSet<String>();
+    Set<String> paymentIds = new HashSet<String>();
+    Set<Integer> accountIndices = new HashSet<Integer>();
+    Set<List<Integer>> subaddresses = new HashSet<List<Integer>>();
+    for (List<Map<String, Object>> rpcTransfers : removed.values()) {
+      for (Map<String, Object> rpcTransfer : rpcTransfers) {
+        txIds.add((String) rpcTransfer.get("txid"));
+        getKeys(rpcTransfer, paymentIds, accountIndices, subaddresses);
+      }
+    }
+    for (String txId : txIds) trim(confirmedByTxId, txId, minHeight);
+    for (String paymentId : paymentIds) trim(confirmedByPaymentId, paymentId, minHeight);
+    for (Integer accountIdx : accountIndices) trim(confirmedByAccount, accountIdx, minHeight);
+    for (List<Integer> subaddress : subaddresses) trim(confirmedBySubaddress, subaddress, minHeight);
+    removed.clear();
+  }
+
+  private static <K> void add(Map<K, List<Map<String, Object>>> index, K key, Map<String, Object> rpcTransfer) {
+    List<Map<String, Object>> rpcTransfers = index.get(key);
+    if (rpcTransfers == null) {
+      rpcTransfers = new ArrayList<Map<String, Object>>();
+      index.put(key, rpcTransfers);
+    }
+    rpcTransfers.add(rpcTransfer);
+  }
+
+  // removes transfers above the given height from the tail of an index list
+  private static <K> void trim(Map<K, List<Map<String, Object>>> index, K key, long minHeight) {
+    List<Map<String, Object>> rpcTransfers = index.get(key);
+    if (rpcTransfers == null) return;
+    while (!rpcTransfers.isEmpty() && getHeight(rpcTransfers.get(rpcTransfers.size() - 1)) > minHeight) rpcTransfers.remove(rpcTransfers.size() - 1);
+    if (rpcTransfers.isEmpty()) index.remove(key);
+  }
+
+  private long getMaxHeight() {
+    return confirmed.isEmpty() ? 0 : confirmed.lastKey();
+  }
+}
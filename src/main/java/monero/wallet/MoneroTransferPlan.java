@@ -0,0 +1,211 @@
+package monero.wallet;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.TreeMap;
+import java.util.function.BiConsumer;
+import java.util.regex.Pattern;
+
+import common.utils.JsonUtils;
+import monero.daemon.model.MoneroTx;
+import monero.rpc.MoneroRpcConnection;
+import monero.rpc.MoneroRpcRequest;
+import monero.rpc.MoneroRpcResponse;
+import monero.wallet.model.MoneroTxQuery;
+
+/**
+ * Plan of the rpc calls which fetch the transfers of a query.
+ *
+ * Transfers are fetched by the first of these strategies which applies:
+ *
+ * 1. from the local transfer index if transfers are synced incrementally
+ * 2. with <code>get_transfer_by_txid</code> for each queried tx id and account
+ * 3. with <code>get_payments</code> or <code>get_bulk_payments</code> for the
+ *    queried payment ids, then <code>get_transfer_by_txid</code> for each paying
+ *    tx, if only confirmed incoming transfers are queried
+ * 4. with <code>get_transfers</code> bounded by the queried types, heights,
+ *    account and subaddresses
+ *
+ * Transfers fetched by tx id are filtered by the parameters of
+ * <code>get_transfers</code>, so txs are built the same way by each strategy.
+ */
+class MoneroTransferPlan {
+
+  enum Strategy { INDEX, TX_IDS, PAYMENT_IDS, TRANSFERS }
+
+  private static final int MAX_TX_IDS = 25;             // more tx ids are fetched with get_transfers
+  private static final int TX_NOT_FOUND_CODE = -8;      // error code of get_transfer_by_txid if the tx is not in the account
+  private static final Pattern PAYMENT_ID_PATTERN = Pattern.compile("[0-9a-fA-F]{16}|[0-9a-fA-F]{64}");
+
+  private Strategy strategy;
+  private Map<String, Object> params;  // parameters of get_transfers
+  private MoneroTxQuery txQuery;
+  private MoneroTransferIndex index;
+  private Set<String> txIds;
+  private Set<String> paymentIds;
+
+  private MoneroTransferPlan(Strategy strategy, Map<String, Object> params, MoneroTxQuery txQuery, MoneroTransferIndex index) {
+    this.strategy = strategy;
+    this.params = params;
+    this.txQuery = txQuery;
+    this.index = index;
+    this.txIds = MoneroTransferIndex.getTxIds(txQuery);
+    this.paymentIds = txQuery.getPaymentIds() == null ? null : new LinkedHashSet<String>(txQuery.getPaymentIds());
+  }
+
+  /**
+   * Plan the cheapest rpc calls to fetch transfers.
+   *
+   * @param params are the parameters of <code>get_transfers</code> for the query
+   * @param txQuery is the query of the transfers' txs
+   * @param index is the local transfer index, null if transfers are not synced incrementally
+   * @return the plan to fetch the transfers
+   */
+  static MoneroTransferPlan plan(Map<String, Object> params, MoneroTxQuery txQuery, MoneroTransferIndex index) {
+    Set<String> txIds = MoneroTransferIndex.getTxIds(txQuery);
+    Strategy strategy;
+    if (index != null) strategy = Strategy.INDEX;
+    else if (txIds != null && txIds.size() <= MAX_TX_IDS) strategy = Strategy.TX_IDS;
+    else if (isPaymentIdsQuery(params, txQuery)) strategy = Strategy.PAYMENT_IDS;
+    else strategy = Strategy.TRANSFERS;
+    return new MoneroTransferPlan(strategy, params, txQuery, index);
+  }
+
+  /**
+   * Fetch the planned transfers.
+   *
+   * @param rpc is the connection to the wallet
+   * @param consumer accepts the type and rpc transfer of each fetched transfer
+   */
+  @SuppressWarnings("unchecked")
+  void execute(MoneroRpcConnection rpc, BiConsumer<String, Map<String, Object>> consumer) {
+    if (strategy == Strategy.INDEX) {
+      index.sync();
+      for (Map<String, Object> rpcTransfer : index.getTransfers(params, txQuery)) consumer.accept((String) rpcTransfer.get("type"), rpcTransfer);
+    } else if (strategy == Strategy.TX_IDS) {
+      Collection<Object> accountIndices = params.get("account_index") == null ? getAccountIndices(rpc) : Arrays.asList(params.get("account_index"));
+      List<MoneroRpcRequest> requests = new ArrayList<MoneroRpcRequest>();
+      for (String txId : txIds) {
+        for (Object accountIdx : accountIndices) requests.add(getTransferByTxIdRequest(txId, accountIdx));
+      }
+      fetchByTxId(rpc, requests, consumer);
+    } else if (strategy == Strategy.PAYMENT_IDS) {
+
+      // fetch ids and accounts of paying txs
+      Map<String, Object> result;
+      if (paymentIds.size() == 1) {
+        Map<String, Object> paymentParams = new HashMap<String, Object>();
+        paymentParams.put("payment_id", paymentIds.iterator().next());
+        result = (Map<String, Object>) rpc.sendJsonRequest("get_payments", paymentParams).get("result");
+      } else {
+        Map<String, Object> paymentParams = new HashMap<String, Object>();
+        paymentParams.put("payment_ids", new ArrayList<String>(paymentIds));
+        result = (Map<String, Object>) rpc.sendJsonRequest("get_bulk_payments", paymentParams).get("result");
+      }
+      Set<List<Object>> payingTxs = new LinkedHashSet<List<Object>>();  // tx id and account index
+      if (result.get("payments") != null) {
+        Integer queriedAccountIdx = getAccountIndex();
+        for (Map<String, Object> rpcPayment : (List<Map<String, Object>>) result.get("payments")) {
+          Object accountIdx = ((Map<String, Object>) rpcPayment.get("subaddr_index")).get("major");
+          if (queriedAccountIdx == null || queriedAccountIdx == ((Number) accountIdx).intValue()) payingTxs.add(Arrays.asList(rpcPayment.get("tx_hash"), accountIdx));
+        }
+      }
+
+      // fetch transfers of paying txs
+      List<MoneroRpcRequest> requests = new ArrayList<MoneroRpcRequest>();
+      for (List<Object> payingTx : payingTxs) requests.add(getTransferByTxIdRequest((String) payingTx.get(0), payingTx.get(1)));
+      fetchByTxId(rpc, requests, consumer);
+    } else {
+      rpc.sendJsonRequest("get_transfers", params, MoneroTransferIndex.TRANSFER_TYPES, consumer);
+    }
+  }
+
+  @Override
+  public String toString() {
+    if (strategy == Strategy.INDEX) return "local transfer index";
+    if (strategy == Strategy.TX_IDS) return "get_transfer_by_txid for " + txIds.size() + " tx ids in " + (getAccountIndex() == null ? "each account" : "account " + getAccountIndex());
+    if (strategy == Strategy.PAYMENT_IDS) return (paymentIds.size() == 1 ? "get_payments" : "get_bulk_payments") + " for " + paymentIds.size() + " payment ids, then get_transfer_by_txid for each paying tx";
+    return "get_transfers with params " + JsonUtils.serialize(new TreeMap<String, Object>(params));
+  }
+
+  // ------------------------------ PRIVATE -----------------------------------
+
+  // payment ids are only looked up if get_transfers would only return confirmed incoming transfers
+  private static boolean isPaymentIdsQuery(Map<String, Object> params, MoneroTxQuery txQuery) {
+    if (txQuery.getPaymentIds() == null || txQuery.getPaymentIds().isEmpty()) return false;
+    if (!Boolean.TRUE.equals(params.get("in"))) return false;
+    for (String type : MoneroTransferIndex.TRANSFER_TYPES) {
+      if (!"in".equals(type) && Boolean.TRUE.equals(params.get(type))) return false;
+    }
+    for (String paymentId : txQuery.getPaymentIds()) {
+      if (paymentId == null || MoneroTx.DEFAULT_PAYMENT_ID.equals(paymentId) || !PAYMENT_ID_PATTERN.matcher(paymentId).matches()) return false;
+    }
+    return true;
+  }
+
+  @SuppressWarnings("unchecked")
+  private static List<Object> getAccountIndices(MoneroRpcConnection rpc) {
+    Map<String, Object> result = (Map<String, Object>) rpc.sendJsonRequest("get_accounts").get("result");
+    List<Object> accountIndices = new ArrayList<Object>();
+    for (Map<String, Object> rpcAccount : (List<Map<String, Object>>) result.get("subaddress_accounts")) accountIndices.add(rpcAccount.get("account_index"));
+    return accountIndices;
+  }
+
+  private static MoneroRpcRequest getTransferByTxIdRequest(String txId, Object accountIdx) {
+    Map<String, Object> params = new HashMap<String, Object>();
+    params.put("txid", txId);
+    params.put("account_index", accountIdx);
+    return new MoneroRpcRequest("get_transfer_by_txid", params);
+  }
+
+  @SuppressWarnings("unchecked")
+  private void fetchByTxId(MoneroRpcConnection rpc, List<MoneroRpcRequest> requests, BiConsumer<String, Map<String, Object>> consumer) {
+    if (requests.isEmpty()) return;
+    for (MoneroRpcResponse response : rpc.sendJsonRequests(requests)) {
+      if (response.getError() != null && Integer.valueOf(TX_NOT_FOUND_CODE).equals(response.getError().getCode())) continue;
+      Map<String, Object> result = response.getResult();
+      List<Map<String, Object>> rpcTransfers = result.get("transfers") != null ? (List<Map<String, Object>>) result.get("transfers") : Arrays.asList((Map<String, Object>) result.get("transfer"));
+      for (Map<String, Object> rpcTransfer : rpcTransfers) {
+        if (matches(rpcTransfer)) consumer.accept((String) rpcTransfer.get("type"), rpcTransfer);
+      }
+    }
+  }
+
+  // indicates if get_transfers would return a transfer fetched by tx id
+  @SuppressWarnings("unchecked")
+  private boolean matches(Map<String, Object> rpcTransfer) {
+    if (!MoneroTransferIndex.matches(rpcTransfer, params, getAccountIndex())) return false;
+
+    // confirmed transfers must be in the queried heights
+    String type = (String) rpcTransfer.get("type");
+    if ("in".equals(type) || "out".equals(type)) {
+      long height = ((Number) rpcTransfer.get("height")).longValue();
+      if (txQuery.getHeight() != null && height != txQuery.getHeight()) return false;
+      if (txQuery.getMinHeight() != null && height < txQuery.getMinHeight()) return false;
+      if (txQuery.getMaxHeight() != null && height > txQuery.getMaxHeight()) return false;
+    }
+
+    // transfers must involve a queried subaddress
+    if (params.get("subaddr_indices") == null) return true;
+    Set<Integer> subaddressIndices = new HashSet<Integer>();
+    for (Object subaddressIdx : (Collection<?>) params.get("subaddr_indices")) subaddressIndices.add(((Number) subaddressIdx).intValue());
+    List<Map<String, Object>> rpcIndices = (List<Map<String, Object>>) rpcTransfer.get("subaddr_indices");
+    if (rpcIndices == null && rpcTransfer.get("subaddr_index") != null) rpcIndices = Arrays.asList((Map<String, Object>) rpcTransfer.get("subaddr_index"));
+    if (rpcIndices == null) return false;
+    for (Map<String, Object> rpcIndex : rpcIndices) {
+      if (subaddressIndices.contains(((Number) rpcIndex.get("minor")).intValue())) return true;
+    }
+    return false;
+  }
+
+  private Integer getAccountIndex() {
+    return params.get("account_index") == null ? null : ((Number) params.get("account_index")).intValue();
+  }
+}
@@ -41,7 +41,9 @@ import monero.daemon.model.MoneroBlock;
 import monero.daemon.model.MoneroKeyImage;
 import monero.daemon.model.MoneroNetworkType;
 import monero.daemon.model.MoneroTx;
+import monero.rpc.MoneroConnectionManagerListener;
 import monero.rpc.MoneroRpcConnection;
+import monero.rpc.MoneroRpcConnectionManager;
 import monero.utils.MoneroException;
 import monero.wallet.model.MoneroAccount;
 import monero.wallet.model.MoneroAccountTag;
@@ -89,6 +91,8 @@ public class MoneroWalletJni extends MoneroWalletDefault {
   private WalletJniListener jniListener;        // receives notifications from jni c++
   private Set<MoneroWalletListenerI> listeners; // externally subscribed wallet listeners
   private boolean isClosed;                     // whether or not wallet is closed
+  private MoneroRpcConnectionManager daemonManager;          // manager of the daemon connection, if any
+  private MoneroConnectionManagerListener daemonManagerListener; // switches the daemon connection when the manager fails over
   
   /**
    * Private constructor with a handle to the memory address of the wallet in c++.
@@ -233,10 +237,31 @@ public class MoneroWalletJni extends MoneroWalletDefault {
   /**
    * Set the wallet's daemon connection
    * 
+   * If the connection is a MoneroRpcConnectionManager, the wallet uses the
+   * manager's best connection and switches connections when it fails over.
+   * 
    * @param daemonConnection manages daemon connection information
    */
   public void setDaemonConnection(MoneroRpcConnection daemonConnection) {
     assertNotClosed();
+    
+    // follow changes to a connection manager's best connection
+    if (daemonManager != null) {
+      daemonManager.removeListener(daemonManagerListener);
+      daemonManager = null;
+      daemonManagerListener = null;
+    }
+    if (daemonConnection instanceof MoneroRpcConnectionManager) {
+      daemonManager = (MoneroRpcConnectionManager) daemonConnection;
+      daemonManagerListener = new MoneroConnectionManagerListener() {
+        @Override
+        public void onConnectionChanged(MoneroRpcConnection connection) {
+          if (!isClosed && connection != null) setDaemonConnectionJni(connection.getUri(), connection.getUsername(), connection.getPassword());
+        }
+      };
+      daemonManager.addListener(daemonManagerListener);
+    }
+    
     if (daemonConnection == null) setDaemonConnectionJni("", "", "");
     else {
       try {
@@ -1239,6 +1264,7 @@ public class MoneroWalletJni extends MoneroWalletDefault {
   public void close(boolean save) {
     if (isClosed) return; // closing a closed wallet has no effect
     isClosed = true;
+    if (daemonManager != null) daemonManager.removeListener(daemonManagerListener);
     try {
       closeJni(save);
     } catch (Exception e) {
@@ -35,6 +35,11 @@ import java.util.LinkedHashMap;
 import java.util.List;
 import java.util.Map;
 import java.util.Set;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CompletableFuture;
+import java.util.function.BiConsumer;
+import java.util.function.Function;
+import java.util.logging.Level;
 import java.util.logging.Logger;
 
 import common.utils.GenUtils;
@@ -45,6 +50,8 @@ import monero.daemon.model.MoneroOutput;
 import monero.daemon.model.MoneroTx;
 import monero.rpc.MoneroRpcConnection;
 import monero.rpc.MoneroRpcException;
+import monero.rpc.MoneroRpcRequest;
+import monero.rpc.MoneroRpcResponse;
 import monero.utils.MoneroException;
 import monero.wallet.model.MoneroAccount;
 import monero.wallet.model.MoneroAccountTag;
@@ -73,12 +80,22 @@ import monero.wallet.model.MoneroTxWallet;
 
 /**
  * Implements a Monero wallet using monero-wallet-rpc.
+ * 
+ * One instance may be shared between threads.  Methods which only read from
+ * the wallet may be called concurrently and read from lock-free caches.
+ * Methods which modify the wallet, e.g. sending, sweeping, creating accounts
+ * and subaddresses, importing or opening and closing wallets, are
+ * synchronized on this instance so they run one at a time, e.g. so that
+ * concurrent sends do not select the same outputs.  Reads are not blocked by
+ * writes in progress.
  */
 public class MoneroWalletRpc extends MoneroWalletDefault {
 
-  private String path;  // wallet's path identifier
+  private volatile String path;  // wallet's path identifier
   private MoneroRpcConnection rpc;  // handles rpc interactions
-  private Map<Integer, Map<Integer, String>> addressCache;  // cache static addresses to reduce requests
+  private volatile MoneroAddressCache addressCache;  // cache static addresses and their indices to reduce requests, replaced when the wallet changes
+  private volatile MoneroTransferIndex transferIndex;  // local transfers synced incrementally if enabled, replaced when the wallet changes
+  private volatile MoneroOutputIndex outputIndex;      // local outputs re-fetched on changes if enabled, replaced when the wallet changes
   
   // static
   private static final int ERROR_CODE_INVALID_PAYMENT_ID = -5;  // invalid payment id error code
@@ -103,7 +120,7 @@ public class MoneroWalletRpc extends MoneroWalletDefault {
   
   public MoneroWalletRpc(MoneroRpcConnection rpc) {
     this.rpc = rpc;
-    addressCache = new HashMap<Integer, Map<Integer, String>>();
+    addressCache = new MoneroAddressCache();
   }
   
   // --------------------------- RPC WALLET METHODS ---------------------------
@@ -117,20 +134,140 @@ public class MoneroWalletRpc extends MoneroWalletDefault {
     return rpc;
   }
   
+  /**
+   * Invoke a method of this wallet asynchronously.
+   * 
+   * E.g. {@code wallet.submit(w -> w.getBalance())}
+   * 
+   * The call runs on the executor of the connection's configuration.
+   * Cancelling the returned future or completing it exceptionally (e.g. with
+   * {@code orTimeout()} on Java 9+) aborts the in-flight request.
+   * 
+   * Requests to monero-wallet-rpc are processed one at a time by the server,
+   * so calls submitted concurrently to the same wallet do not run in parallel.
+   * 
+   * @param function invokes one or more methods of this wallet
+   * @return a future which completes with the call's result or error
+   */
+  public <T> CompletableFuture<T> submit(Function<? super MoneroWalletRpc, T> function) {
+    MoneroWalletRpc wallet = this;
+    return rpc.submit(new Callable<T>() {
+      @Override
+      public T call() {
+        return function.apply(wallet);
+      }
+    });
+  }
+  
+  /**
+   * Set whether transfers are synced incrementally to a local index.
+   * 
+   * By default, each call to getTransfers() or getTxs() downloads all
+   * matching transfers.  Incrementally, the first call downloads all
+   * transfers and later calls only download confirmed transfers in new
+   * blocks and the transfers in the pool, pending or failed, after which
+   * queries are answered from the local index.  Confirmed transfers in the
+   * last 10 blocks are re-fetched on each call in case of reorgs.
+   * 
+   * Transfers are indexed by height, tx id, payment id, account and
+   * subaddress, so queries which specify them only read matching transfers.
+   * 
+   * The index keeps all of the wallet's transfers in memory.
+   * 
+   * @param isIncremental specifies if transfers are synced incrementally
+   */
+  public synchronized void setIncrementalTransfers(boolean isIncremental) {
+    if (isIncremental == (transferIndex != null)) return;
+    transferIndex = isIncremental ? new MoneroTransferIndex(rpc) : null;
+  }
+  
+  /**
+   * Indicates if transfers are synced incrementally to a local index.
+   * 
+   * @return true if transfers are synced incrementally, false otherwise
+   */
+  public boolean isIncrementalTransfers() {
+    return transferIndex != null;
+  }
+  
+  /**
+   * Set whether outputs are kept in a local index.
+   * 
+   * By default, each call to getOutputs() downloads all of the outputs of
+   * the queried accounts.  Incrementally, outputs are only downloaded again
+   * if the wallet's height or balances changed since the last download, so
+   * polling an unchanged wallet sends one batch request of three calls.
+   * Outputs which are frozen or thawed by another client are not updated
+   * until the height or balances change.
+   * 
+   * Outputs are indexed by key image, spent status, height, tx id, account
+   * and subaddress, so queries which specify them only read matching outputs.
+   * 
+   * @param isIncremental specifies if outputs are kept in a local index
+   */
+  public synchronized void setIncrementalOutputs(boolean isIncremental) {
+    if (isIncremental == (outputIndex != null)) return;
+    outputIndex = isIncremental ? new MoneroOutputIndex(rpc) : null;
+  }
+  
+  /**
+   * Indicates if outputs are kept in a local index.
+   * 
+   * @return true if outputs are kept in a local index, false otherwise
+   */
+  public boolean isIncrementalOutputs() {
+    return outputIndex != null;
+  }
+  
+  /**
+   * Describe the rpc calls which getTransfers() makes for a query.
+   * 
+   * Transfers are fetched from the local index if transfers are synced
+   * incrementally.  Otherwise up to 25 queried tx ids are fetched with
+   * get_transfer_by_txid and queried payment ids of confirmed incoming
+   * transfers with get_payments or get_bulk_payments.  Other queries fetch
+   * get_transfers bounded by the queried types, heights and subaddresses.
+   * 
+   * @param query is the query to explain
+   * @return a description of the rpc calls which fetch the query's transfers
+   */
+  public String explainTransfers(MoneroTransferQuery query) {
+    query = normalizeTransferQuery(query);
+    return MoneroTransferPlan.plan(getTransfersParams(query), query.getTxQuery(), transferIndex).toString();
+  }
+  
+  /**
+   * Describe the rpc calls which getTxs() makes for a query.
+   * 
+   * @param query is the query to explain
+   * @return a description of the rpc calls which fetch the query's txs
+   */
+  public String explainTxs(MoneroTxQuery query) {
+    query = query == null ? new MoneroTxQuery() : query.copy();
+    boolean fetchOutputs = Boolean.TRUE.equals(query.getIncludeOutputs()) || (query.getOutputQuery() != null && !query.getOutputQuery().isDefault());
+    query.setTransferQuery(null);
+    query.setOutputQuery(null);
+    String plan = "transfers from " + explainTransfers(new MoneroTransferQuery().setTxQuery(query));
+    if (fetchOutputs) plan += ", outputs from " + (outputIndex == null ? "incoming_transfers" : "local output index");
+    return plan;
+  }
+  
   /**
    * Open an existing wallet on the RPC server.
    * 
    * @param name is the name of the wallet file to open
    * @param password is the wallet's password
    */
-  public void openWallet(String name, String password) {
+  public synchronized void openWallet(String name, String password) {
     if (name == null || name.isEmpty()) throw new MoneroException("Filename is not initialized");
     if (password == null || password.isEmpty()) throw new MoneroException("Password is not initialized");
     Map<String, Object> params = new HashMap<String, Object>();
     params.put("filename", name);
     params.put("password", password);
     rpc.sendJsonRequest("open_wallet", params);
-    addressCache.clear();
+    addressCache = new MoneroAddressCache();
+    if (transferIndex != null) transferIndex = new MoneroTransferIndex(rpc);
+    if (outputIndex != null) outputIndex = new MoneroOutputIndex(rpc);
     path = name;
   }
   
@@ -142,7 +279,7 @@ public class MoneroWalletRpc extends MoneroWalletDefault {
    * @param language is the language for the wallet's mnemonic seed
    */
   public void createWalletRandom(String name, String password) { createWalletRandom(name, password, null); }
-  public void createWalletRandom(String name, String password, String language) {
+  public synchronized void createWalletRandom(String name, String password, String language) {
     if (name == null || name.isEmpty()) throw new MoneroException("Wallet name is not initialized");
     if (password == null || password.isEmpty()) throw new MoneroException("Password is not initialized");
     if (language == null || language.isEmpty()) language = DEFAULT_LANGUAGE;
@@ -151,6 +288,9 @@ public class MoneroWalletRpc extends MoneroWalletDefault {
     params.put("password", password);
     params.put("language", language);
     rpc.sendJsonRequest("create_wallet", params);
+    addressCache = new MoneroAddressCache();
+    if (transferIndex != null) transferIndex = new MoneroTransferIndex(rpc);
+    if (outputIndex != null) outputIndex = new MoneroOutputIndex(rpc);
     path = name;
   }
   
@@ -168,7 +308,7 @@ public class MoneroWalletRpc extends MoneroWalletDefault {
    */
   public void createWalletFromMnemonic(String name, String password, String mnemonic) { createWalletFromMnemonic(name, password, mnemonic, null, null, null, null); }
   public void createWalletFromMnemonic(String name, String password, String mnemonic, Long restoreHeight) { createWalletFromMnemonic(name, password, mnemonic, restoreHeight, null, null, null); }
-  public void createWalletFromMnemonic(String name, String password, String mnemonic, Long restoreHeight, String language, String offset, Boolean saveCurrent) {
+  public synchronized void createWalletFromMnemonic(String name, String password, String mnemonic, Long restoreHeight, String language, String offset, Boolean saveCurrent) {
     if (language == null) language = DEFAULT_LANGUAGE;
     Map<String, Object> params = new HashMap<String, Object>();
     params.put("filename", name);
@@ -179,15 +319,20 @@ public class MoneroWalletRpc extends MoneroWalletDefault {
     params.put("language", language);
     params.put("autosave_current", saveCurrent);
     rpc.sendJsonRequest("restore_deterministic_wallet", params);
+    addressCache = new MoneroAddressCache();
+    if (transferIndex != null) transferIndex = new MoneroTransferIndex(rpc);
+    if (outputIndex != null) outputIndex = new MoneroOutputIndex(rpc);
     path = name;
   }
   
   /**
    * Save and close the current wallet and stop the RPC server.
    */
-  public void stop() {
+  public synchronized void stop() {
     rpc.sendJsonRequest("stop_wallet");
-    addressCache.clear();
+    addressCache = new MoneroAddressCache();
+    if (transferIndex != null) transferIndex = new MoneroTransferIndex(rpc);
+    if (outputIndex != null) outputIndex = new MoneroOutputIndex(rpc);
     path = null;
   }
   
@@ -243,24 +388,29 @@ public class MoneroWalletRpc extends MoneroWalletDefault {
 
   @Override
   public String getAddress(int accountIdx, int subaddressIdx) {
-    Map<Integer, String> subaddressMap = addressCache.get(accountIdx);
-    if (subaddressMap == null) {
-      getSubaddresses(accountIdx, null, true);      // cache's all addresses at this account
-      return getAddress(accountIdx, subaddressIdx); // uses cache
-    }
-    String address = subaddressMap.get(subaddressIdx);
+    MoneroAddressCache cache = addressCache;
+    String address = cache.getAddress(accountIdx, subaddressIdx);
     if (address == null) {
-      getSubaddresses(accountIdx, null, true);      // cache's all addresses at this account
-      return addressCache.get(accountIdx).get(subaddressIdx);
+      getSubaddresses(accountIdx, null, true, cache);  // cache's all addresses at this account
+      address = cache.getAddress(accountIdx, subaddressIdx);
     }
     return address;
   }
 
-  // TODO: use cache
   @SuppressWarnings("unchecked")
   @Override
   public MoneroSubaddress getAddressIndex(String address) {
     
+    // check cache
+    MoneroAddressCache cache = addressCache;
+    int[] indices = cache.getIndices(address);
+    if (indices != null) {
+      MoneroSubaddress subaddress = new MoneroSubaddress(address);
+      subaddress.setAccountIndex(indices[0]);
+      subaddress.setIndex(indices[1]);
+      return subaddress;
+    }
+    
     // fetch result and normalize error if address does not belong to the wallet
     Map<String, Object> result;
     try {
@@ -269,18 +419,31 @@ public class MoneroWalletRpc extends MoneroWalletDefault {
       Map<String, Object> resp = rpc.sendJsonRequest("get_address_index", params);
       result = (Map<String, Object>) resp.get("result");
     } catch (MoneroRpcException e) {
-      System.out.println(e.getMessage());
       if (e.getCode() == -2) throw new MoneroException(e.getMessage(), e.getCode());
       throw e;
     }
     
-    // convert rpc response
+    // convert rpc response and cache indices
     Map<String, BigInteger> rpcIndices = (Map<String, BigInteger>) result.get("index");
     MoneroSubaddress subaddress = new MoneroSubaddress(address);
     subaddress.setAccountIndex(rpcIndices.get("major").intValue());
     subaddress.setIndex(rpcIndices.get("minor").intValue());
+    cache.put(subaddress.getAccountIndex(), subaddress.getIndex(), address);
     return subaddress;
   }
+  
+  /**
+   * Cache the addresses of all accounts and subaddresses using one batch of
+   * requests so subsequent calls to getAddress() and getAddressIndex() for
+   * existing addresses do not send requests.
+   * 
+   * Subaddresses and accounts created through this client are cached as they
+   * are created.  Addresses which are not cached, e.g. subaddresses created
+   * by another client of the same wallet, are fetched when requested.
+   */
+  public void warmAddressCache() {
+    getAccounts(true, null, true);
+  }
 
   @SuppressWarnings("unchecked")
   @Override
@@ -343,11 +506,11 @@ public class MoneroWalletRpc extends MoneroWalletDefault {
   }
   
   @Override
-  public void rescanSpent() {
+  public synchronized void rescanSpent() {
     rpc.sendJsonRequest("rescan_spent");
   }
   
-  public void rescanBlockchain() {
+  public synchronized void rescanBlockchain() {
     rpc.sendJsonRequest("rescan_blockchain");
   }
 
@@ -390,18 +553,28 @@ public class MoneroWalletRpc extends MoneroWalletDefault {
   public List<MoneroAccount> getAccounts(boolean includeSubaddresses, String tag, boolean skipBalances) {
     
     // fetch accounts from rpc
+    MoneroAddressCache cache = addressCache;
     Map<String, Object> params = new HashMap<String, Object>();
     params.put("tag", tag);
     Map<String, Object> resp = rpc.sendJsonRequest("get_accounts", params);
     Map<String, Object> result = (Map<String, Object>) resp.get("result");
     
-    // build account objects and fetch subaddresses per account using get_address
-    // TODO monero-wallet-rpc: get_address should support all_accounts so not called once per account
+    // build account objects
     List<MoneroAccount> accounts = new ArrayList<MoneroAccount>();
     for (Map<String, Object> rpcAccount : (List<Map<String, Object>>) result.get("subaddress_accounts")) {
-      MoneroAccount account = convertRpcAccount(rpcAccount);
-      if (includeSubaddresses) account.setSubaddresses(getSubaddresses(account.getIndex(), null, true));
-      accounts.add(account);
+      accounts.add(convertRpcAccount(rpcAccount));
+    }
+    
+    // fetch subaddresses per account using one batch of get_address calls
+    // TODO monero-wallet-rpc: get_address should support all_accounts so not called once per account
+    if (includeSubaddresses) {
+      List<MoneroRpcRequest> requests = new ArrayList<MoneroRpcRequest>();
+      for (MoneroAccount account : accounts) requests.add(new MoneroRpcRequest("get_address", getAddressParams(account.getIndex(), null)));
+      List<MoneroRpcResponse> responses = rpc.sendJsonRequests(requests);
+      for (int i = 0; i < accounts.size(); i++) {
+        MoneroAccount account = accounts.get(i);
+        account.setSubaddresses(convertRpcAddresses(account.getIndex(), responses.get(i).getResult(), cache));
+      }
     }
     
     // fetch and merge fields from get_balance across all accounts
@@ -462,13 +635,15 @@ public class MoneroWalletRpc extends MoneroWalletDefault {
 
   @SuppressWarnings("unchecked")
   @Override
-  public MoneroAccount createAccount(String label) {
+  public synchronized MoneroAccount createAccount(String label) {
     label = label == null || label.isEmpty() ? null : label;
     Map<String, Object> params = new HashMap<String, Object>();
     params.put("label", label);
     Map<String, Object> resp = rpc.sendJsonRequest("create_account", params);
     Map<String, Object> result = (Map<String, Object>) resp.get("result");
-    return new MoneroAccount(((BigInteger) result.get("account_index")).intValue(), (String) result.get("address"), BigInteger.valueOf(0), BigInteger.valueOf(0), null);
+    MoneroAccount account = new MoneroAccount(((BigInteger) result.get("account_index")).intValue(), (String) result.get("address"), BigInteger.valueOf(0), BigInteger.valueOf(0), null);
+    addressCache.put(account.getIndex(), 0, account.getPrimaryAddress());
+    return account;
   }
   
   @Override
@@ -476,23 +651,20 @@ public class MoneroWalletRpc extends MoneroWalletDefault {
     return getSubaddresses(accountIdx, subaddressIndices, false);
   }
 
-  @SuppressWarnings("unchecked")
   public List<MoneroSubaddress> getSubaddresses(int accountIdx, List<Integer> subaddressIndices, boolean skipBalances) {
+    return getSubaddresses(accountIdx, subaddressIndices, skipBalances, addressCache);
+  }
+
+  @SuppressWarnings("unchecked")
+  private List<MoneroSubaddress> getSubaddresses(int accountIdx, List<Integer> subaddressIndices, boolean skipBalances, MoneroAddressCache cache) {
     
     // fetch subaddresses
-    Map<String, Object> params = new HashMap<String, Object>();
-    params.put("account_index", accountIdx);
-    if (subaddressIndices != null && !subaddressIndices.isEmpty()) params.put("address_index", subaddressIndices);
+    Map<String, Object> params = getAddressParams(accountIdx, subaddressIndices);
     Map<String, Object> resp = rpc.sendJsonRequest("get_address", params);
     Map<String, Object> result = (Map<String, Object>) resp.get("result");
     
     // initialize subaddresses
-    List<MoneroSubaddress> subaddresses = new ArrayList<MoneroSubaddress>();
-    for (Map<String, Object> rpcSubaddress : (List<Map<String, Object>>) result.get("addresses")) {
-      MoneroSubaddress subaddress = convertRpcSubaddress(rpcSubaddress);
-      subaddress.setAccountIndex(accountIdx);
-      subaddresses.add(subaddress);
-    }
+    List<MoneroSubaddress> subaddresses = convertRpcAddresses(accountIdx, result, cache);
     
     // fetch and initialize subaddress balances
     if (!skipBalances) {
@@ -524,23 +696,13 @@ public class MoneroWalletRpc extends MoneroWalletDefault {
       }
     }
     
-    // cache addresses
-    Map<Integer, String> subaddressMap = addressCache.get(accountIdx);
-    if (subaddressMap == null) {
-      subaddressMap = new HashMap<Integer, String>();
-      addressCache.put(accountIdx, subaddressMap);
-    }
-    for (MoneroSubaddress subaddress : subaddresses) {
-      subaddressMap.put(subaddress.getIndex(), subaddress.getAddress());
-    }
-    
     // return results
     return subaddresses;
   }
 
   @SuppressWarnings("unchecked")
   @Override
-  public MoneroSubaddress createSubaddress(int accountIdx, String label) {
+  public synchronized MoneroSubaddress createSubaddress(int accountIdx, String label) {
     
     // send request
     Map<String, Object> params = new HashMap<String, Object>();
@@ -560,6 +722,7 @@ public class MoneroWalletRpc extends MoneroWalletDefault {
     subaddress.setNumUnspentOutputs(0l);
     subaddress.setIsUsed(false);
     subaddress.setNumBlocksToUnlock(0l);
+    addressCache.put(accountIdx, subaddress.getIndex(), subaddress.getAddress());
     return subaddress;
   }
 
@@ -653,69 +816,22 @@ public class MoneroWalletRpc extends MoneroWalletDefault {
     return txs;
   }
 
-  @SuppressWarnings("unchecked")
   @Override
   public List<MoneroTransfer> getTransfers(MoneroTransferQuery query) {
     
-    // copy and normalize query up to block
-    if (query == null) query = new MoneroTransferQuery();
-    else {
-      if (query.getTxQuery() == null) query = query.copy();
-      else {
-        MoneroTxQuery txQuery = query.getTxQuery().copy();
-        if (query.getTxQuery().getTransferQuery() == query) query = txQuery.getTransferQuery();
-        else {
-          GenUtils.assertNull("Transfer query's tx query must be circular reference or null", query.getTxQuery().getTransferQuery());
-          query = query.copy();
-          query.setTxQuery(txQuery);
-        }
-      }
-    }
-    if (query.getTxQuery() == null) query.setTxQuery(new MoneroTxQuery());
-    MoneroTxQuery txQuery = query.getTxQuery();
-    txQuery.setTransferQuery(null); // break circular link for meetsCriteria()
-
-    // build params for get_transfers rpc call
-    Map<String, Object> params = new HashMap<String, Object>();
-    boolean canBeConfirmed = !Boolean.FALSE.equals(txQuery.isConfirmed()) && !Boolean.TRUE.equals(txQuery.inTxPool()) && !Boolean.TRUE.equals(txQuery.isFailed()) && !Boolean.FALSE.equals(txQuery.isRelayed());
-    boolean canBeInTxPool = !Boolean.TRUE.equals(txQuery.isConfirmed()) && !Boolean.FALSE.equals(txQuery.inTxPool()) && !Boolean.TRUE.equals(txQuery.isFailed()) && !Boolean.FALSE.equals(txQuery.isRelayed()) && txQuery.getHeight() == null && txQuery.getMinHeight() == null && txQuery.getMaxHeight() == null;
-    boolean canBeIncoming = !Boolean.FALSE.equals(query.isIncoming()) && !Boolean.TRUE.equals(query.isOutgoing()) && !Boolean.TRUE.equals(query.hasDestinations());
-    boolean canBeOutgoing = !Boolean.FALSE.equals(query.isOutgoing()) && !Boolean.TRUE.equals(query.isIncoming());
-    params.put("in", canBeIncoming && canBeConfirmed);
-    params.put("out", canBeOutgoing && canBeConfirmed);
-    params.put("pool", canBeIncoming && canBeInTxPool);
-    params.put("pending", canBeOutgoing && canBeInTxPool);
-    params.put("failed", !Boolean.FALSE.equals(txQuery.isFailed()) && !Boolean.TRUE.equals(txQuery.isConfirmed()) && !Boolean.TRUE.equals(txQuery.inTxPool()));
-    if (txQuery.getMinHeight() != null) {
-      if (txQuery.getMinHeight() > 0) params.put("min_height", txQuery.getMinHeight() - 1); // TODO monero core: wallet2::get_payments() min_height is exclusive, so manually offset to match intended range (issues #5751, #5598)
-      else params.put("min_height", txQuery.getMinHeight());
-    }
-    if (txQuery.getMaxHeight() != null) params.put("max_height", txQuery.getMaxHeight());
-    params.put("filter_by_height", txQuery.getMinHeight() != null || txQuery.getMaxHeight() != null);
-    if (query.getAccountIndex() == null) {
-      GenUtils.assertTrue("Filter specifies a subaddress index but not an account index", query.getSubaddressIndex() == null && query.getSubaddressIndices() == null);
-      params.put("all_accounts", true);
-    } else {
-      params.put("account_index", query.getAccountIndex());
-      
-      // set subaddress indices param
-      Set<Integer> subaddressIndices = new HashSet<Integer>();
-      if (query.getSubaddressIndex() != null) subaddressIndices.add(query.getSubaddressIndex());
-      if (query.getSubaddressIndices() != null) {
-        for (int subaddressIdx : query.getSubaddressIndices()) subaddressIndices.add(subaddressIdx);
-      }
-      if (!subaddressIndices.isEmpty()) params.put("subaddr_indices", new ArrayList<Integer>(subaddressIndices));
-    }
+    // plan rpc calls to fetch transfers which meet the normalized query
+    query = normalizeTransferQuery(query);
+    MoneroTransferPlan plan = MoneroTransferPlan.plan(getTransfersParams(query), query.getTxQuery(), transferIndex);
+    if (LOGGER.isLoggable(Level.FINE)) LOGGER.fine("Fetching transfers using " + plan);
     
     // cache unique txs and blocks
     Map<String, MoneroTxWallet> txMap = new HashMap<String, MoneroTxWallet>();
     Map<Long, MoneroBlock> blockMap = new HashMap<Long, MoneroBlock>();
     
-    // build txs using `get_transfers`
-    Map<String, Object> resp = rpc.sendJsonRequest("get_transfers", params);
-    Map<String, Object> result = (Map<String, Object>) resp.get("result");
-    for (String key : result.keySet()) {
-      for (Map<String, Object> rpcTx :((List<Map<String, Object>>) result.get(key))) {
+    // build txs from the planned rpc calls or the incrementally synced index
+    BiConsumer<String, Map<String, Object>> txMerger = new BiConsumer<String, Map<String, Object>>() {
+      @Override
+      public void accept(String field, Map<String, Object> rpcTx) {
         MoneroTxWallet tx = convertRpcTxWithTransfer(rpcTx, null, null);
         if (tx.isConfirmed()) GenUtils.assertTrue(tx.getBlock().getTxs().contains(tx));
 //        if (tx.getId().equals("38436c710dfbebfb24a14cddfd430d422e7282bbe94da5e080643a1bd2880b44")) {
@@ -736,7 +852,8 @@ public class MoneroWalletRpc extends MoneroWalletDefault {
         // merge tx
         mergeTx(tx, txMap, blockMap, false);
       }
-    }
+    };
+    plan.execute(rpc, txMerger);
     
     // sort txs by block height
     List<MoneroTxWallet> txs = new ArrayList<MoneroTxWallet>(txMap.values());
@@ -794,47 +911,64 @@ public class MoneroWalletRpc extends MoneroWalletDefault {
     MoneroTxQuery txQuery = query.getTxQuery();
     txQuery.setOutputQuery(null); // break circular link for meetsCriteria()
     
-    // determine account and subaddress indices to be queried
-    Map<Integer, List<Integer>> indices = new HashMap<Integer, List<Integer>>();
-    if (query.getAccountIndex() != null) {
-      Set<Integer> subaddressIndices = new HashSet<Integer>();
-      if (query.getSubaddressIndex() != null) subaddressIndices.add(query.getSubaddressIndex());
-      if (query.getSubaddressIndices() != null) for (int subaddressIdx : query.getSubaddressIndices()) subaddressIndices.add(subaddressIdx);
-      indices.put(query.getAccountIndex(), subaddressIndices.isEmpty() ? null : new ArrayList<Integer>(subaddressIndices));  // null will fetch from all subaddresses
-    } else {
+    // validate subaddress indices are queried with an account index
+    if (query.getAccountIndex() == null) {
       GenUtils.assertEquals("Request specifies a subaddress index but not an account index", null, query.getSubaddressIndex());
       GenUtils.assertTrue("Request specifies subaddress indices but not an account index", query.getSubaddressIndices() == null || query.getSubaddressIndices().size() == 0);
-      indices = getAccountIndices(false);  // fetch all account indices without subaddresses
     }
     
     // cache unique txs and blocks
     Map<String, MoneroTxWallet> txMap = new HashMap<String, MoneroTxWallet>();
     Map<Long, MoneroBlock> blockMap = new HashMap<Long, MoneroBlock>();
     
-    // collect txs with vouts for each indicated account using `incoming_transfers` rpc call
-    Map<String, Object> params = new HashMap<String, Object>();
-    String transferType;
-    if (Boolean.TRUE.equals(query.isSpent())) transferType = "unavailable";
-    else if (Boolean.FALSE.equals(query.isSpent())) transferType = "available";
-    else transferType = "all";
-    params.put("transfer_type", transferType);
-    params.put("verbose", true);
-    for (int accountIdx : indices.keySet()) {
-    
-      // send request
-      params.put("account_index", accountIdx);
-      params.put("subaddr_indices", indices.get(accountIdx));
-      Map<String, Object> resp = rpc.sendJsonRequest("incoming_transfers", params);
-      Map<String, Object> result = (Map<String, Object>) resp.get("result");
-      
-      // convert response to txs with vouts and merge
-      if (!result.containsKey("transfers")) continue;
-      for (Map<String, Object> rpcVout : (List<Map<String, Object>>) result.get("transfers")) {
+    // collect txs with vouts from the local index if enabled
+    MoneroOutputIndex index = outputIndex;
+    if (index != null) {
+      index.sync();
+      for (Map<String, Object> rpcVout : index.getOutputs(query)) {
         MoneroTxWallet tx = convertRpcTxWithVout(rpcVout);
         mergeTx(tx, txMap, blockMap, false);
       }
     }
     
+    // otherwise collect txs with vouts for each indicated account using `incoming_transfers` rpc call
+    else {
+      
+      // determine account and subaddress indices to be queried
+      Map<Integer, List<Integer>> indices = new HashMap<Integer, List<Integer>>();
+      if (query.getAccountIndex() != null) {
+        Set<Integer> subaddressIndices = new HashSet<Integer>();
+        if (query.getSubaddressIndex() != null) subaddressIndices.add(query.getSubaddressIndex());
+        if (query.getSubaddressIndices() != null) for (int subaddressIdx : query.getSubaddressIndices()) subaddressIndices.add(subaddressIdx);
+        indices.put(query.getAccountIndex(), subaddressIndices.isEmpty() ? null : new ArrayList<Integer>(subaddressIndices));  // null will fetch from all subaddresses
+      } else {
+        indices = getAccountIndices(false);  // fetch all account indices without subaddresses
+      }
+      
+      Map<String, Object> params = new HashMap<String, Object>();
+      String transferType;
+      if (Boolean.TRUE.equals(query.isSpent())) transferType = "unavailable";
+      else if (Boolean.FALSE.equals(query.isSpent())) transferType = "available";
+      else transferType = "all";
+      params.put("transfer_type", transferType);
+      params.put("verbose", true);
+      for (int accountIdx : indices.keySet()) {
+      
+        // send request
+        params.put("account_index", accountIdx);
+        params.put("subaddr_indices", indices.get(accountIdx));
+        Map<String, Object> resp = rpc.sendJsonRequest("incoming_transfers", params);
+        Map<String, Object> result = (Map<String, Object>) resp.get("result");
+        
+        // convert response to txs with vouts and merge
+        if (!result.containsKey("transfers")) continue;
+        for (Map<String, Object> rpcVout : (List<Map<String, Object>>) result.get("transfers")) {
+          MoneroTxWallet tx = convertRpcTxWithVout(rpcVout);
+          mergeTx(tx, txMap, blockMap, false);
+        }
+      }
+    }
+    
     // sort txs by block height
     List<MoneroTxWallet> txs = new ArrayList<MoneroTxWallet>(txMap.values());
     Collections.sort(txs, new TxHeightComparator());
@@ -872,7 +1006,7 @@ public class MoneroWalletRpc extends MoneroWalletDefault {
 
   @SuppressWarnings("unchecked")
   @Override
-  public int importOutputsHex(String outputsHex) {
+  public synchronized int importOutputsHex(String outputsHex) {
     Map<String, Object> params = new HashMap<String, Object>();
     params.put("outputs_data_hex", outputsHex);
     Map<String, Object> resp = rpc.sendJsonRequest("import_outputs", params);
@@ -887,7 +1021,7 @@ public class MoneroWalletRpc extends MoneroWalletDefault {
 
   @SuppressWarnings("unchecked")
   @Override
-  public MoneroKeyImageImportResult importKeyImages(List<MoneroKeyImage> keyImages) {
+  public synchronized MoneroKeyImageImportResult importKeyImages(List<MoneroKeyImage> keyImages) {
     
     // convert key images to rpc parameter
     List<Map<String, Object>> rpcKeyImages = new ArrayList<Map<String, Object>>();
@@ -919,7 +1053,7 @@ public class MoneroWalletRpc extends MoneroWalletDefault {
 
   @SuppressWarnings("unchecked")
   @Override
-  public List<String> relayTxs(Collection<String> txMetadatas) {
+  public synchronized List<String> relayTxs(Collection<String> txMetadatas) {
     if (txMetadatas == null || txMetadatas.isEmpty()) throw new MoneroException("Must provide an array of tx metadata to relay");
     List<String> txIds = new ArrayList<String>();
     for (String txMetadata : txMetadatas) {
@@ -933,7 +1067,7 @@ public class MoneroWalletRpc extends MoneroWalletDefault {
   }
   
   @SuppressWarnings("unchecked")
-  public MoneroTxSet sendSplit(MoneroSendRequest request) {
+  public synchronized MoneroTxSet sendSplit(MoneroSendRequest request) {
     
     // validate, copy, and sanitize request
     if (request == null) throw new MoneroException("Send request cannot be null");
@@ -998,7 +1132,7 @@ public class MoneroWalletRpc extends MoneroWalletDefault {
 
   @SuppressWarnings("unchecked")
   @Override
-  public MoneroTxSet sweepOutput(MoneroSendRequest request) {
+  public synchronized MoneroTxSet sweepOutput(MoneroSendRequest request) {
     
     // validate request
     GenUtils.assertNull(request.getSweepEachSubaddress());
@@ -1033,7 +1167,7 @@ public class MoneroWalletRpc extends MoneroWalletDefault {
   }
   
   @Override
-  public List<MoneroTxSet> sweepUnlocked(MoneroSendRequest request) {
+  public synchronized List<MoneroTxSet> sweepUnlocked(MoneroSendRequest request) {
     
     // validate request
     if (request == null) throw new MoneroException("Sweep request cannot be null");
@@ -1099,7 +1233,7 @@ public class MoneroWalletRpc extends MoneroWalletDefault {
 
   @SuppressWarnings("unchecked")
   @Override
-  public MoneroTxSet sweepDust(boolean doNotRelay) {
+  public synchronized MoneroTxSet sweepDust(boolean doNotRelay) {
     Map<String, Object> params = new HashMap<String, Object>();
     params.put("do_not_relay", doNotRelay);
     Map<String, Object> resp = rpc.sendJsonRequest("sweep_dust", params);
@@ -1286,7 +1420,7 @@ public class MoneroWalletRpc extends MoneroWalletDefault {
   }
 
   @Override
-  public void setTxNotes(Collection<String> txIds, Collection<String> notes) {
+  public synchronized void setTxNotes(Collection<String> txIds, Collection<String> notes) {
     Map<String, Object> params = new HashMap<String, Object>();
     params.put("txids", txIds);
     params.put("notes", notes);
@@ -1316,7 +1450,7 @@ public class MoneroWalletRpc extends MoneroWalletDefault {
 
   @SuppressWarnings("unchecked")
   @Override
-  public int addAddressBookEntry(String address, String description, String paymentId) {
+  public synchronized int addAddressBookEntry(String address, String description, String paymentId) {
     Map<String, Object> params = new HashMap<String, Object>();
     params.put("address", address);
     params.put("payment_id", paymentId);
@@ -1327,14 +1461,14 @@ public class MoneroWalletRpc extends MoneroWalletDefault {
   }
 
   @Override
-  public void deleteAddressBookEntry(int entryIdx) {
+  public synchronized void deleteAddressBookEntry(int entryIdx) {
     Map<String, Object> params = new HashMap<String, Object>();
     params.put("index", entryIdx);
     rpc.sendJsonRequest("delete_address_book", params);
   }
   
   @Override
-  public void tagAccounts(String tag, Collection<Integer> accountIndices) {
+  public synchronized void tagAccounts(String tag, Collection<Integer> accountIndices) {
     Map<String, Object> params = new HashMap<String, Object>();
     params.put("tag", tag);
     params.put("accounts", accountIndices);
@@ -1342,7 +1476,7 @@ public class MoneroWalletRpc extends MoneroWalletDefault {
   }
 
   @Override
-  public void untagAccounts(Collection<Integer> accountIndices) {
+  public synchronized void untagAccounts(Collection<Integer> accountIndices) {
     Map<String, Object> params = new HashMap<String, Object>();
     params.put("accounts", accountIndices);
     rpc.sendJsonRequest("untag_accounts", params);
@@ -1371,7 +1505,7 @@ public class MoneroWalletRpc extends MoneroWalletDefault {
   }
 
   @Override
-  public void setAccountTagLabel(String tag, String label) {
+  public synchronized void setAccountTagLabel(String tag, String label) {
     Map<String, Object> params = new HashMap<String, Object>();
     params.put("tag", tag);
     params.put("description", label);
@@ -1425,7 +1559,7 @@ public class MoneroWalletRpc extends MoneroWalletDefault {
   }
 
   @Override
-  public void setAttribute(String key, String val) {
+  public synchronized void setAttribute(String key, String val) {
     Map<String, Object> params = new HashMap<String, Object>();
     params.put("key", key);
     params.put("value", val);
@@ -1469,7 +1603,7 @@ public class MoneroWalletRpc extends MoneroWalletDefault {
 
   @Override
   @SuppressWarnings("unchecked")
-  public String prepareMultisig() {
+  public synchronized String prepareMultisig() {
     Map<String, Object> resp = rpc.sendJsonRequest("prepare_multisig");
     Map<String, Object> result = (Map<String, Object>) resp.get("result");
     return (String) result.get("multisig_info");
@@ -1477,7 +1611,7 @@ public class MoneroWalletRpc extends MoneroWalletDefault {
 
   @Override
   @SuppressWarnings("unchecked")
-  public MoneroMultisigInitResult makeMultisig(List<String> multisigHexes, int threshold, String password) {
+  public synchronized MoneroMultisigInitResult makeMultisig(List<String> multisigHexes, int threshold, String password) {
     Map<String, Object> params = new HashMap<String, Object>();
     params.put("multisig_info", multisigHexes);
     params.put("threshold", threshold);
@@ -1494,7 +1628,7 @@ public class MoneroWalletRpc extends MoneroWalletDefault {
 
   @Override
   @SuppressWarnings("unchecked")
-  public MoneroMultisigInitResult exchangeMultisigKeys(List<String> multisigHexes, String password) {
+  public synchronized MoneroMultisigInitResult exchangeMultisigKeys(List<String> multisigHexes, String password) {
     Map<String, Object> params = new HashMap<String, Object>();
     params.put("multisig_info", multisigHexes);
     params.put("password", password);
@@ -1518,7 +1652,7 @@ public class MoneroWalletRpc extends MoneroWalletDefault {
 
   @Override
   @SuppressWarnings("unchecked")
-  public int importMultisigHex(List<String> multisigHexes) {
+  public synchronized int importMultisigHex(List<String> multisigHexes) {
     Map<String, Object> params = new HashMap<String, Object>();
     params.put("info", multisigHexes);
     Map<String, Object> resp = rpc.sendJsonRequest("import_multisig_info", params);
@@ -1528,7 +1662,7 @@ public class MoneroWalletRpc extends MoneroWalletDefault {
 
   @Override
   @SuppressWarnings("unchecked")
-  public MoneroMultisigSignResult signMultisigTxHex(String multisigTxHex) {
+  public synchronized MoneroMultisigSignResult signMultisigTxHex(String multisigTxHex) {
     Map<String, Object> params = new HashMap<String, Object>();
     params.put("tx_data_hex", multisigTxHex);
     Map<String, Object> resp = rpc.sendJsonRequest("sign_multisig", params);
@@ -1541,7 +1675,7 @@ public class MoneroWalletRpc extends MoneroWalletDefault {
 
   @Override
   @SuppressWarnings("unchecked")
-  public List<String> submitMultisigTxHex(String signedMultisigTxHex) {
+  public synchronized List<String> submitMultisigTxHex(String signedMultisigTxHex) {
     Map<String, Object> params = new HashMap<String, Object>();
     params.put("tx_data_hex", signedMultisigTxHex);
     Map<String, Object> resp = rpc.sendJsonRequest("submit_multisig", params);
@@ -1550,13 +1684,15 @@ public class MoneroWalletRpc extends MoneroWalletDefault {
   }
   
   @Override
-  public void save() {
+  public synchronized void save() {
     rpc.sendJsonRequest("store");
   }
   
   @Override
-  public void close(boolean save) {
-    addressCache.clear();
+  public synchronized void close(boolean save) {
+    addressCache = new MoneroAddressCache();
+    if (transferIndex != null) transferIndex = new MoneroTransferIndex(rpc);
+    if (outputIndex != null) outputIndex = new MoneroOutputIndex(rpc);
     path = null;
     Map<String, Object> params = new HashMap<String, Object>();
     params.put("autosave_current", save);
@@ -1567,23 +1703,48 @@ public class MoneroWalletRpc extends MoneroWalletDefault {
   
   private Map<Integer, List<Integer>> getAccountIndices(boolean getSubaddressIndices) {
     Map<Integer, List<Integer>> indices = new HashMap<Integer, List<Integer>>();
-    for (MoneroAccount account : getAccounts()) {
-      indices.put(account.getIndex(), getSubaddressIndices ? getSubaddressIndices(account.getIndex()) : null);
+    for (MoneroAccount account : getAccounts(getSubaddressIndices, null, true)) {
+      List<Integer> subaddressIndices = null;
+      if (getSubaddressIndices) {
+        subaddressIndices = new ArrayList<Integer>();
+        for (MoneroSubaddress subaddress : account.getSubaddresses()) subaddressIndices.add(subaddress.getIndex());
+      }
+      indices.put(account.getIndex(), subaddressIndices);
     }
     return indices;
   }
   
-  @SuppressWarnings("unchecked")
-  private List<Integer> getSubaddressIndices(int accountIdx) {
-    List<Integer> subaddressIndices = new ArrayList<Integer>();
+  private static Map<String, Object> getAddressParams(int accountIdx, List<Integer> subaddressIndices) {
     Map<String, Object> params = new HashMap<String, Object>();
     params.put("account_index", accountIdx);
-    Map<String, Object> resp = rpc.sendJsonRequest("get_address", params);
-    Map<String, Object> result = (Map<String, Object>) resp.get("result");
-    for (Map<String, Object> address : (List<Map<String, Object>>) result.get("addresses")) {
-      subaddressIndices.add(((BigInteger) address.get("address_index")).intValue());
+    if (subaddressIndices != null && !subaddressIndices.isEmpty()) params.put("address_index", subaddressIndices);
+    return params;
+  }
+  
+  /**
+   * Converts the result of `get_address` to subaddresses and caches their addresses.
+   * 
+   * @param accountIdx is the index of the account the addresses belong to
+   * @param result is the result of `get_address`
+   * @param cache is the address cache of the wallet when the request was sent
+   * @return the subaddresses without balance information
+   */
+  @SuppressWarnings("unchecked")
+  private static List<MoneroSubaddress> convertRpcAddresses(int accountIdx, Map<String, Object> result, MoneroAddressCache cache) {
+    
+    // initialize subaddresses
+    List<MoneroSubaddress> subaddresses = new ArrayList<MoneroSubaddress>();
+    for (Map<String, Object> rpcSubaddress : (List<Map<String, Object>>) result.get("addresses")) {
+      MoneroSubaddress subaddress = convertRpcSubaddress(rpcSubaddress);
+      subaddress.setAccountIndex(accountIdx);
+      subaddresses.add(subaddress);
+    }
+    
+    // cache addresses
+    for (MoneroSubaddress subaddress : subaddresses) {
+      cache.put(accountIdx, subaddress.getIndex(), subaddress.getAddress());
     }
-    return subaddressIndices;
+    return subaddresses;
   }
   
   /**
@@ -1705,6 +1866,68 @@ public class MoneroWalletRpc extends MoneroWalletDefault {
   
   // ---------------------------- PRIVATE STATIC ------------------------------
   
+  // copies and normalizes a transfer query up to its tx query
+  private static MoneroTransferQuery normalizeTransferQuery(MoneroTransferQuery query) {
+    if (query == null) query = new MoneroTransferQuery();
+    else {
+      if (query.getTxQuery() == null) query = query.copy();
+      else {
+        MoneroTxQuery txQuery = query.getTxQuery().copy();
+        if (query.getTxQuery().getTransferQuery() == query) query = txQuery.getTransferQuery();
+        else {
+          GenUtils.assertNull("Transfer query's tx query must be circular reference or null", query.getTxQuery().getTransferQuery());
+          query = query.copy();
+          query.setTxQuery(txQuery);
+        }
+      }
+    }
+    if (query.getTxQuery() == null) query.setTxQuery(new MoneroTxQuery());
+    query.getTxQuery().setTransferQuery(null); // break circular link for meetsCriteria()
+    return query;
+  }
+  
+  // builds params of get_transfers which bound the transfers of a normalized query
+  private static Map<String, Object> getTransfersParams(MoneroTransferQuery query) {
+    MoneroTxQuery txQuery = query.getTxQuery();
+    Map<String, Object> params = new HashMap<String, Object>();
+    boolean canBeConfirmed = !Boolean.FALSE.equals(txQuery.isConfirmed()) && !Boolean.TRUE.equals(txQuery.inTxPool()) && !Boolean.TRUE.equals(txQuery.isFailed()) && !Boolean.FALSE.equals(txQuery.isRelayed());
+    boolean canBeInTxPool = !Boolean.TRUE.equals(txQuery.isConfirmed()) && !Boolean.FALSE.equals(txQuery.inTxPool()) && !Boolean.TRUE.equals(txQuery.isFailed()) && !Boolean.FALSE.equals(txQuery.isRelayed()) && txQuery.getHeight() == null && txQuery.getMinHeight() == null && txQuery.getMaxHeight() == null;
+    boolean canBeIncoming = !Boolean.FALSE.equals(query.isIncoming()) && !Boolean.TRUE.equals(query.isOutgoing()) && !Boolean.TRUE.equals(query.hasDestinations());
+    boolean canBeOutgoing = !Boolean.FALSE.equals(query.isOutgoing()) && !Boolean.TRUE.equals(query.isIncoming());
+    params.put("in", canBeIncoming && canBeConfirmed);
+    params.put("out", canBeOutgoing && canBeConfirmed);
+    params.put("pool", canBeIncoming && canBeInTxPool);
+    params.put("pending", canBeOutgoing && canBeInTxPool);
+    params.put("failed", !Boolean.FALSE.equals(txQuery.isFailed()) && !Boolean.TRUE.equals(txQuery.isConfirmed()) && !Boolean.TRUE.equals(txQuery.inTxPool()));
+    Long minHeight = txQuery.getMinHeight();
+    Long maxHeight = txQuery.getMaxHeight();
+    if (txQuery.getHeight() != null) {
+      minHeight = minHeight == null ? txQuery.getHeight() : Math.max(minHeight, txQuery.getHeight());
+      maxHeight = maxHeight == null ? txQuery.getHeight() : Math.min(maxHeight, txQuery.getHeight());
+    }
+    if (minHeight != null) {
+      if (minHeight > 0) params.put("min_height", minHeight - 1); // TODO monero core: wallet2::get_payments() min_height is exclusive, so manually offset to match intended range (issues #5751, #5598)
+      else params.put("min_height", minHeight);
+    }
+    if (maxHeight != null) params.put("max_height", maxHeight);
+    params.put("filter_by_height", minHeight != null || maxHeight != null);
+    if (query.getAccountIndex() == null) {
+      GenUtils.assertTrue("Filter specifies a subaddress index but not an account index", query.getSubaddressIndex() == null && query.getSubaddressIndices() == null);
+      params.put("all_accounts", true);
+    } else {
+      params.put("account_index", query.getAccountIndex());
+      
+      // set subaddress indices param
+      Set<Integer> subaddressIndices = new HashSet<Integer>();
+      if (query.getSubaddressIndex() != null) subaddressIndices.add(query.getSubaddressIndex());
+      if (query.getSubaddressIndices() != null) {
+        for (int subaddressIdx : query.getSubaddressIndices()) subaddressIndices.add(subaddressIdx);
+      }
+      if (!subaddressIndices.isEmpty()) params.put("subaddr_indices", new ArrayList<Integer>(subaddressIndices));
+    }
+    return params;
+  }
+  
   private static MoneroAccount convertRpcAccount(Map<String, Object> rpcAccount) {
     MoneroAccount account = new MoneroAccount();
     for (String key : rpcAccount.keySet()) {
@@ -11,16 +11,27 @@ import static org.junit.Assert.fail;
 import java.math.BigInteger;
 import java.util.ArrayList;
 import java.util.Arrays;
+import java.util.Collections;
 import java.util.Date;
+import java.util.HashSet;
 import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutionException;
 import java.util.concurrent.TimeUnit;
+import java.util.function.Consumer;
 
+import org.apache.http.pool.PoolStats;
 import org.junit.Before;
 import org.junit.BeforeClass;
 import org.junit.Ignore;
 import org.junit.Test;
 
 import common.utils.JsonUtils;
+import monero.daemon.MoneroBlockHeaderCache;
 import monero.daemon.MoneroDaemon;
 import monero.daemon.MoneroDaemonRpc;
 import monero.daemon.model.MoneroAltChain;
@@ -46,8 +57,14 @@ import monero.daemon.model.MoneroOutputDistributionEntry;
 import monero.daemon.model.MoneroOutputHistogramEntry;
 import monero.daemon.model.MoneroSubmitTxResult;
 import monero.daemon.model.MoneroTx;
+import monero.daemon.model.MoneroTxBacklogEntry;
+import monero.daemon.model.MoneroTxPoolHistoEntry;
 import monero.daemon.model.MoneroTxPoolStats;
+import monero.rpc.MoneroRpcConnection;
+import monero.rpc.MoneroRpcConnectionConfig;
 import monero.rpc.MoneroRpcException;
+import monero.rpc.MoneroRpcRequest;
+import monero.rpc.MoneroRpcResponse;
 import monero.utils.MoneroException;
 import monero.utils.MoneroUtils;
 import monero.wallet.MoneroWallet;
@@ -340,6 +357,100 @@ public class TestMoneroDaemonRpc {
     testGetBlocksRange(endHeight - numBlocks - 1, null, height, true);
   };
   
+  // Can get blocks by range using pipelined chunked requests
+  @Test
+  public void testGetBlocksByRangeChunkedPipelined() {
+    org.junit.Assume.assumeTrue(TEST_NON_RELAYS && !LITE_MODE);
+    
+    // get long height range
+    long numBlocks = 2160;
+    long height = daemon.getHeight();
+    long startHeight = height - numBlocks;
+    long endHeight = height - 1;
+    
+    // fetch blocks with small chunks so many are in flight
+    List<MoneroBlock> blocks = daemon.getBlocksByRangeChunked(startHeight, endHeight, 100000l, 4);
+    assertEquals(numBlocks, blocks.size());
+    for (int i = 0; i < blocks.size(); i++) {
+      assertEquals(startHeight + i, (long) blocks.get(i).getHeight());
+      testBlock(blocks.get(i), BINARY_BLOCK_CTX);
+    }
+    
+    // test same blocks as sequential requests
+    List<MoneroBlock> sequentialBlocks = daemon.getBlocksByRangeChunked(startHeight, endHeight, 100000l);
+    assertEquals(sequentialBlocks.size(), blocks.size());
+    for (int i = 0; i < blocks.size(); i++) assertEquals(sequentialBlocks.get(i).getId(), blocks.get(i).getId());
+  }
+  
+  // Can iterate over blocks in a range
+  @Test
+  public void testForEachBlock() {
+    org.junit.Assume.assumeTrue(TEST_NON_RELAYS && !LITE_MODE);
+    
+    // iterate over range with small chunks
+    long numBlocks = 720;
+    long height = daemon.getHeight();
+    long startHeight = height - numBlocks;
+    List<Long> heights = new ArrayList<Long>();
+    daemon.forEachBlock(startHeight, height - 1, 100000l, new Consumer<MoneroBlock>() {
+      @Override
+      public void accept(MoneroBlock block) {
+        testBlock(block, BINARY_BLOCK_CTX);
+        heights.add(block.getHeight());
+      }
+    });
+    
+    // test blocks are consumed in height order
+    assertEquals(numBlocks, heights.size());
+    for (int i = 0; i < heights.size(); i++) assertEquals(startHeight + i, (long) heights.get(i));
+  }
+  
+  // Can cache block headers used to fetch blocks by range
+  @Test
+  public void testBlockHeaderCache() {
+    org.junit.Assume.assumeTrue(TEST_NON_RELAYS && !LITE_MODE);
+    
+    // fetch blocks in chunks to fill the cache
+    MoneroBlockHeaderCache cache = daemon.getBlockHeaderCache();
+    cache.clear();
+    long height = daemon.getHeight();
+    long startHeight = height - 100;
+    long misses = cache.getMisses();
+    daemon.getBlocksByRangeChunked(startHeight, height - 1, 100000l);
+    assertTrue(cache.getMisses() > misses);
+    assertTrue(cache.size() >= 100);
+    
+    // fetch again from the cache
+    long hits = cache.getHits();
+    misses = cache.getMisses();
+    daemon.getBlocksByRangeChunked(startHeight, height - 1, 100000l);
+    assertTrue(cache.getHits() >= hits + 100);
+    assertEquals(misses, cache.getMisses());
+    
+    // cache is bounded to a window of heights
+    List<MoneroBlockHeader> headers = daemon.getBlockHeadersByRange(startHeight, height - 1);
+    MoneroBlockHeaderCache smallCache = new MoneroBlockHeaderCache(50);
+    smallCache.putAll(headers.subList(0, 50));
+    smallCache.putAll(headers.subList(50, 75));
+    assertEquals(50, smallCache.size());
+    assertNull(smallCache.get(startHeight));
+    assertNotNull(smallCache.get(startHeight + 74));
+    
+    // cached headers which do not link to a refilled header are dropped
+    MoneroBlockHeader forkHeader = new MoneroBlockHeader(headers.get(75));
+    forkHeader.setPrevId(headers.get(0).getId());
+    smallCache.putAll(Arrays.asList(forkHeader));
+    assertNull(smallCache.get(startHeight + 74));
+    assertEquals(1, smallCache.size());
+    smallCache.putAll(headers.subList(40, 75));
+    assertNull(smallCache.get(startHeight + 75));
+    assertEquals(35, smallCache.size());
+    
+    // cached headers are dropped above a reorg point
+    smallCache.invalidateFrom(startHeight + 70);
+    assertEquals(startHeight + 69, (long) smallCache.getHighest().getHeight());
+  }
+  
   // Can get block ids (binary)
   @Test
   public void testGetBlockIdsBinary() {
@@ -579,6 +690,30 @@ public class TestMoneroDaemonRpc {
     wallet.sync();
   }
   
+  // Can get ids of transactions in the transaction pool
+  @Test
+  public void testGetTxPoolIds() {
+    org.junit.Assume.assumeTrue(TEST_NON_RELAYS);
+    TestUtils.TX_POOL_WALLET_TRACKER.waitForWalletTxsToClearPool(wallet);
+    
+    // submit tx to pool but don't relay
+    MoneroTx tx = getUnrelayedTx(wallet, 1);
+    MoneroSubmitTxResult result = daemon.submitTxHex(tx.getFullHex(), true);
+    assertTrue(result.isGood());
+    
+    // test ids match txs in the pool
+    try {
+      List<String> txIds = daemon.getTxPoolIds();
+      assertTrue(txIds.contains(tx.getId()));
+      Set<String> poolTxIds = new HashSet<String>();
+      for (MoneroTx poolTx : daemon.getTxPool()) poolTxIds.add(poolTx.getId());
+      assertEquals(poolTxIds, new HashSet<String>(txIds));
+    } finally {
+      daemon.flushTxPool(tx.getId());
+      wallet.sync();
+    }
+  }
+  
   // Can get ids of transactions in the transaction pool (binary)
   @Test
   public void testGetIdsOfTxsInPoolBin() {
@@ -591,8 +726,26 @@ public class TestMoneroDaemonRpc {
   @Test
   public void testGetTxPoolBacklogBin() {
     org.junit.Assume.assumeTrue(TEST_NON_RELAYS);
-    // TODO: get_txpool_backlog
-    throw new RuntimeException("Not implemented");
+    TestUtils.TX_POOL_WALLET_TRACKER.waitForWalletTxsToClearPool(wallet);
+    
+    // submit tx to pool but don't relay
+    MoneroTx tx = getUnrelayedTx(wallet, 1);
+    MoneroSubmitTxResult result = daemon.submitTxHex(tx.getFullHex(), true);
+    assertTrue(result.isGood());
+    
+    // test backlog
+    try {
+      List<MoneroTxBacklogEntry> backlog = daemon.getTxPoolBacklog();
+      assertFalse(backlog.isEmpty());
+      for (MoneroTxBacklogEntry entry : backlog) {
+        assertTrue(entry.getWeight() > 0);
+        TestUtils.testUnsignedBigInteger(entry.getFee(), true);
+        assertTrue(entry.getTimeInPool() >= 0);
+      }
+    } finally {
+      daemon.flushTxPool(tx.getId());
+      wallet.sync();
+    }
   }
   
   // Can get transaction pool statistics (binary)
@@ -775,7 +928,24 @@ public class TestMoneroDaemonRpc {
   @Test
   public void testGetOutputsFromAmountsAndIndicesBinary() {
     org.junit.Assume.assumeTrue(TEST_NON_RELAYS);
-    throw new RuntimeException("Not implemented"); // get_outs.bin
+    
+    // identify enough ringct outputs to require multiple requests
+    int numOutputs = 2500;
+    List<MoneroOutput> outputs = new ArrayList<MoneroOutput>();
+    for (int i = 0; i < numOutputs; i++) outputs.add(new MoneroOutput().setAmount(BigInteger.valueOf(0)).setIndex(i));
+    
+    // fetch outputs
+    List<MoneroOutput> fetchedOutputs = daemon.getOutputs(outputs);
+    assertEquals(numOutputs, fetchedOutputs.size());
+    for (int i = 0; i < numOutputs; i++) {
+      MoneroOutput output = fetchedOutputs.get(i);
+      assertEquals(i, (int) output.getIndex());
+      assertEquals(BigInteger.valueOf(0), output.getAmount());
+      assertEquals(64, output.getStealthPublicKey().length());
+      assertEquals(64, output.getTx().getId().length());
+      assertTrue(output.getTx().getBlock().getHeight() >= 0);
+      assertTrue(output.getTx().getVouts().contains(output));
+    }
   }
   
   // Can get an output histogram (binary)
@@ -1105,6 +1275,125 @@ public class TestMoneroDaemonRpc {
     }
   }
   
+  // Can send concurrent requests over a shared connection pool
+  @Test
+  public void testSharedConnectionPool() throws InterruptedException {
+    org.junit.Assume.assumeTrue(TEST_NON_RELAYS);
+    
+    // create daemons which share a connection pool
+    MoneroRpcConnectionConfig config = new MoneroRpcConnectionConfig().setMaxConnections(8).setMaxConnectionsPerRoute(4).setSocketTimeoutMs(30000);
+    try {
+      MoneroDaemonRpc daemon1 = new MoneroDaemonRpc(new MoneroRpcConnection(TestUtils.DAEMON_RPC_URI, TestUtils.DAEMON_RPC_USERNAME, TestUtils.DAEMON_RPC_PASSWORD, config));
+      MoneroDaemonRpc daemon2 = new MoneroDaemonRpc(new MoneroRpcConnection(TestUtils.DAEMON_RPC_URI, TestUtils.DAEMON_RPC_USERNAME, TestUtils.DAEMON_RPC_PASSWORD, config));
+      
+      // send requests from many threads
+      List<Thread> threads = new ArrayList<Thread>();
+      List<Throwable> errors = Collections.synchronizedList(new ArrayList<Throwable>());
+      for (int i = 0; i < 16; i++) {
+        MoneroDaemonRpc threadDaemon = i % 2 == 0 ? daemon1 : daemon2;
+        Thread thread = new Thread(new Runnable() {
+          @Override
+          public void run() {
+            try {
+              for (int j = 0; j < 5; j++) assertTrue(threadDaemon.getHeight() > 0);
+            } catch (Throwable e) {
+              errors.add(e);
+            }
+          }
+        });
+        threads.add(thread);
+        thread.start();
+      }
+      for (Thread thread : threads) thread.join();
+      assertTrue("Concurrent requests failed: " + errors, errors.isEmpty());
+      
+      // test pool stats
+      PoolStats stats = config.getPoolStats(TestUtils.DAEMON_RPC_URI);
+      assertEquals(4, stats.getMax());
+      assertEquals(0, stats.getLeased());
+      assertTrue(stats.getAvailable() > 0 && stats.getAvailable() <= 4);
+      assertEquals(8, config.getPoolStats().getMax());
+      
+      // https routes are pooled separately from http routes
+      String uri = TestUtils.DAEMON_RPC_URI.replaceFirst("^https?:", "");
+      config.setMaxConnectionsPerRoute("https:" + uri, 2);
+      assertEquals(2, config.getPoolStats("https:" + uri).getMax());
+      assertEquals(4, config.getPoolStats("http:" + uri).getMax());
+    } finally {
+      config.close();
+    }
+  }
+  
+  // Can send batched requests
+  @Test
+  @SuppressWarnings("unchecked")
+  public void testBatchRequests() {
+    org.junit.Assume.assumeTrue(TEST_NON_RELAYS);
+    MoneroRpcConnection rpc = new MoneroRpcConnection(TestUtils.DAEMON_RPC_URI, TestUtils.DAEMON_RPC_USERNAME, TestUtils.DAEMON_RPC_PASSWORD);
+    
+    // send batch with valid and invalid calls
+    List<MoneroRpcRequest> requests = new ArrayList<MoneroRpcRequest>();
+    requests.add(new MoneroRpcRequest("get_block_count"));
+    requests.add(new MoneroRpcRequest("get_block_header_by_height", Collections.singletonMap("height", 0)));
+    requests.add(new MoneroRpcRequest("invalid_method"));
+    List<MoneroRpcResponse> responses = rpc.sendJsonRequests(requests);
+    assertEquals(requests.size(), responses.size());
+    
+    // test responses are in request order
+    assertEquals(daemon.getHeight(), ((BigInteger) responses.get(0).getResult().get("count")).longValue());
+    Map<String, Object> header = (Map<String, Object>) responses.get(1).getResult().get("block_header");
+    assertEquals(0, ((BigInteger) header.get("height")).longValue());
+    assertNull(responses.get(0).getError());
+    assertNotNull(responses.get(2).getError());
+    try {
+      responses.get(2).getResult();
+      fail("Should have thrown error for invalid method");
+    } catch (MoneroRpcException e) {
+      assertEquals("invalid_method", e.getRpcMethod());
+    }
+  }
+  
+  // Can invoke methods asynchronously
+  @Test
+  @SuppressWarnings("unchecked")
+  public void testAsyncRequests() throws InterruptedException, ExecutionException {
+    org.junit.Assume.assumeTrue(TEST_NON_RELAYS);
+    
+    // invoke methods concurrently
+    long height = daemon.getHeight();
+    List<CompletableFuture<Long>> futures = new ArrayList<CompletableFuture<Long>>();
+    for (int i = 0; i < 10; i++) futures.add(daemon.submit(d -> d.getHeight()));
+    CompletableFuture.allOf(futures.toArray(new CompletableFuture<?>[futures.size()])).get();
+    for (CompletableFuture<Long> future : futures) assertTrue(future.get() >= height);
+    
+    // test json request
+    Map<String, Object> resp = daemon.getRpcConnection().sendJsonRequestAsync("get_block_count", null).get();
+    assertTrue(((BigInteger) ((Map<String, Object>) resp.get("result")).get("count")).longValue() >= height);
+    
+    // test cancelled call does not send further requests
+    CountDownLatch started = new CountDownLatch(1);
+    CountDownLatch cancelled = new CountDownLatch(1);
+    CompletableFuture<Long> future = daemon.submit(d -> {
+      started.countDown();
+      try {
+        cancelled.await();
+      } catch (InterruptedException e) {
+        throw new RuntimeException(e);
+      }
+      return d.getHeight();
+    });
+    started.await();
+    assertTrue(future.cancel(true));
+    cancelled.countDown();
+    assertTrue(future.isCancelled());
+    try {
+      future.get();
+      fail("Should have been cancelled");
+    } catch (CancellationException e) {
+      // expected
+    }
+  }
+  
   // Can be stopped
   @Test
   @Ignore // test is disabled to not interfere with other tests
@@ -1693,7 +1982,14 @@ public class TestMoneroDaemonRpc {
       if (stats.getNumTxs() == 1) assertNull(stats.getHisto());
       else {
         assertNotNull(stats.getHisto());
-        fail("Ready to test histogram");
+        assertFalse(stats.getHisto().isEmpty());
+        int numTxs = 0;
+        for (MoneroTxPoolHistoEntry entry : stats.getHisto()) {
+          assertTrue(entry.getNumTxs() >= 0);
+          assertTrue(entry.getBytes() >= 0);
+          numTxs += entry.getNumTxs();
+        }
+        assertTrue(numTxs <= stats.getNumTxs());
       }
       assertTrue(stats.getBytesMax() > 0);
       assertTrue(stats.getBytesMed() > 0);
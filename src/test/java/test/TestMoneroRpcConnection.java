@@ -0,0 +1,1255 @@
+package test;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.math.BigInteger;
+import java.net.InetSocketAddress;
+import java.net.ServerSocket;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.TreeSet;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.BiFunction;
+import java.util.logging.Handler;
+import java.util.logging.Level;
+import java.util.logging.LogRecord;
+import java.util.logging.Logger;
+import java.util.zip.GZIPInputStream;
+import java.util.zip.GZIPOutputStream;
+
+import org.junit.AfterClass;
+import org.junit.Before;
+import org.junit.BeforeClass;
+import org.junit.Test;
+
+import com.fasterxml.jackson.core.type.TypeReference;
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpHandler;
+import com.sun.net.httpserver.HttpServer;
+
+import common.utils.JsonUtils;
+import monero.daemon.MoneroDaemonRpc;
+import monero.daemon.MoneroKeyImageChecker;
+import monero.daemon.MoneroOutputDistributionCache;
+import monero.daemon.model.MoneroBlockHeader;
+import monero.daemon.model.MoneroDaemonListener;
+import monero.daemon.model.MoneroKeyImageSpentStatus;
+import monero.daemon.model.MoneroOutputDistributionEntry;
+import monero.daemon.model.MoneroOutputHistogramEntry;
+import monero.daemon.model.MoneroTx;
+import monero.daemon.model.MoneroTxBacklogEntry;
+import monero.daemon.model.MoneroTxPoolListener;
+import monero.rpc.MoneroConnectionManagerListener;
+import monero.rpc.MoneroRpcConnection;
+import monero.rpc.MoneroRpcConnectionConfig;
+import monero.rpc.MoneroRpcConnectionManager;
+import monero.rpc.MoneroRpcException;
+import monero.rpc.MoneroRpcMetrics;
+import monero.rpc.MoneroRpcRequest;
+import monero.rpc.MoneroRpcResponse;
+import monero.utils.MoneroException;
+
+/**
+ * Tests the RPC connection and clients using it against a local stub server,
+ * which does not require a running daemon or wallet.
+ */
+public class TestMoneroRpcConnection {
+
+  private static final int NUM_TRANSFERS = 5000;  // number of transfers in the stubbed get_transfers response (~1.5 MB)
+  private static final int NUM_LOOKUPS = 20;      // number of repeated tx lookups
+  private static final int NUM_POOL_TXS = 5000;     // number of txs in the stubbed get_transaction_pool response
+
+  private static HttpServer server;
+  private static byte[] transfersResp;
+  private static byte[] infoResp;
+  private static byte[] txPoolResp;
+  private static AtomicInteger numTxPoolRequests = new AtomicInteger();
+  private static volatile long lastBlockHeight;  // height of the stubbed last block
+  private static final long STUB_HEIGHT = 400000;  // height of the stubbed last block when each test starts
+  private static volatile long forkHeight = Long.MAX_VALUE;  // stubbed blocks from this height are on a fork
+  private static AtomicInteger numLastBlockHeaderRequests = new AtomicInteger();
+  private static Set<String> poolTxIds = ConcurrentHashMap.newKeySet();  // ids of txs in the stubbed pool in addition to ids starting with 'p'
+  private static List<Long> outputDistributionFromHeights = new CopyOnWriteArrayList<Long>();  // from heights of stubbed output distribution requests
+  private static AtomicInteger numOutputHistogramRequests = new AtomicInteger();
+  private static AtomicInteger numFeeEstimateRequests = new AtomicInteger();
+  private static AtomicInteger numKeyImageRequests = new AtomicInteger();
+  private static AtomicInteger numKeyImagesChecked = new AtomicInteger();
+  private static volatile boolean isRequestCompressed;
+  private static volatile boolean isResponseCompressed;
+
+  @BeforeClass
+  public static void beforeClass() throws IOException {
+
+    // build large get_transfers response
+    List<Map<String, Object>> transfers = new ArrayList<Map<String, Object>>();
+    for (int i = 0; i < NUM_TRANSFERS; i++) {
+      Map<String, Object> transfer = new HashMap<String, Object>();
+      transfer.put("txid", String.format("%064x", i));
+      transfer.put("amount", BigInteger.valueOf(1000000000000l + i));
+      transfer.put("fee", BigInteger.valueOf(25000000l));
+      transfer.put("height", BigInteger.valueOf(400000 + i));
+      transfer.put("timestamp", BigInteger.valueOf(1570000000l + i));
+      transfer.put("type", "in");
+      transfer.put("address", "528qdm2pXnYYesCy5VdmBneWeaSZutEijFVAKjpVHeVd4unsCSM55CjgViQsK9WFNHK1eZgcCuZ3fRqYpzKDokqSKp4yp38");
+      Map<String, Object> subaddrIndex = new HashMap<String, Object>();
+      subaddrIndex.put("major", 0);
+      subaddrIndex.put("minor", i % 10);
+      transfer.put("subaddr_index", subaddrIndex);
+      transfers.add(transfer);
+    }
+    Map<String, Object> result = new HashMap<String, Object>();
+    result.put("in", transfers);
+    Map<String, Object> resp = new HashMap<String, Object>();
+    resp.put("jsonrpc", "2.0");
+    resp.put("id", "0");
+    resp.put("result", result);
+    transfersResp = JsonUtils.serializeToBytes(MoneroRpcConnection.MAPPER, resp);
+    
+    // build get_info response
+    Map<String, Object> info = new HashMap<String, Object>();
+    info.put("height", 400000 + NUM_TRANSFERS);
+    info.put("synchronized", true);
+    info.put("status", "OK");
+    resp.put("result", info);
+    infoResp = JsonUtils.serializeToBytes(MoneroRpcConnection.MAPPER, resp);
+
+    // build large get_transaction_pool response
+    List<Map<String, Object>> poolTxs = new ArrayList<Map<String, Object>>();
+    for (int i = 0; i < NUM_POOL_TXS; i++) {
+      Map<String, Object> poolTx = new HashMap<String, Object>();
+      poolTx.put("id_hash", getPoolTxId(i));
+      poolTx.put("blob_size", BigInteger.valueOf(1500));
+      poolTx.put("weight", BigInteger.valueOf(1500));
+      poolTx.put("fee", BigInteger.valueOf(25000000l));
+      poolTx.put("receive_time", BigInteger.valueOf(1570000000l + i));
+      poolTx.put("last_relayed_time", BigInteger.valueOf(1570000000l + i));
+      poolTx.put("relayed", true);
+      poolTx.put("do_not_relay", false);
+      poolTx.put("kept_by_block", false);
+      poolTx.put("double_spend_seen", false);
+      poolTx.put("last_failed_height", BigInteger.ZERO);
+      poolTx.put("max_used_block_height", BigInteger.valueOf(400000));
+      poolTx.put("max_used_block_id_hash", String.format("%064x", 400000));
+      poolTx.put("tx_blob", String.format("%03000x", i));
+      poolTx.put("tx_json", "{\"version\":2,\"unlock_time\":0,\"vin\":[],\"vout\":[],\"extra\":[1,2,3],\"rct_signatures\":{\"type\":5}}");
+      poolTxs.add(poolTx);
+    }
+    Map<String, Object> pool = new HashMap<String, Object>();
+    pool.put("transactions", poolTxs);
+    pool.put("status", "OK");
+    txPoolResp = JsonUtils.serializeToBytes(MoneroRpcConnection.MAPPER, pool);
+
+    // start stub server
+    server = HttpServer.create(new InetSocketAddress("localhost", 0), 0);
+    server.createContext("/json_rpc", new HttpHandler() {
+      @Override
+      public void handle(HttpExchange exchange) throws IOException {
+        
+        // read request, decompressing if encoded
+        isRequestCompressed = "gzip".equals(exchange.getRequestHeaders().getFirst("Content-Encoding"));
+        Object req;
+        try (InputStream is = isRequestCompressed ? new GZIPInputStream(exchange.getRequestBody()) : exchange.getRequestBody()) {
+          req = MoneroRpcConnection.MAPPER.readValue(is, Object.class);
+        }
+        
+        // write response, compressing if accepted
+        byte[] resp = getJsonRpcResp(req, TestMoneroRpcConnection::getJsonRpcResp);
+        String acceptEncoding = exchange.getRequestHeaders().getFirst("Accept-Encoding");
+        isResponseCompressed = acceptEncoding != null && acceptEncoding.contains("gzip");
+        if (isResponseCompressed) {
+          ByteArrayOutputStream baos = new ByteArrayOutputStream();
+          try (GZIPOutputStream gzip = new GZIPOutputStream(baos)) {
+            gzip.write(resp);
+          }
+          resp = baos.toByteArray();
+          exchange.getResponseHeaders().add("Content-Encoding", "gzip");
+        }
+        exchange.getResponseHeaders().add("Content-Type", "application/json");
+        exchange.sendResponseHeaders(200, resp.length);
+        try (OutputStream os = exchange.getResponseBody()) {
+          os.write(resp);
+        }
+      }
+    });
+    server.createContext("/get_transaction_pool", new HttpHandler() {
+      @Override
+      public void handle(HttpExchange exchange) throws IOException {
+        numTxPoolRequests.incrementAndGet();
+        try (InputStream is = exchange.getRequestBody()) {
+          while (is.read() != -1);
+        }
+        sendJsonResponse(exchange, txPoolResp);
+      }
+    });
+    server.createContext("/get_transaction_pool_hashes", new HttpHandler() {
+      @Override
+      public void handle(HttpExchange exchange) throws IOException {
+        try (InputStream is = exchange.getRequestBody()) {
+          while (is.read() != -1);
+        }
+        Map<String, Object> resp = new HashMap<String, Object>();
+        if (!poolTxIds.isEmpty()) resp.put("tx_hashes", new ArrayList<String>(poolTxIds));
+        resp.put("status", "OK");
+        sendJsonResponse(exchange, JsonUtils.serializeToBytes(MoneroRpcConnection.MAPPER, resp));
+      }
+    });
+    server.createContext("/get_transactions", new HttpHandler() {
+      @SuppressWarnings("unchecked")
+      @Override
+      public void handle(HttpExchange exchange) throws IOException {
+        
+        // txs with pool ids are unconfirmed, ids starting with 'd' are not found, others are confirmed
+        Map<String, Object> req;
+        try (InputStream is = exchange.getRequestBody()) {
+          req = MoneroRpcConnection.MAPPER.readValue(is, new TypeReference<Map<String, Object>>(){});
+        }
+        List<Map<String, Object>> txs = new ArrayList<Map<String, Object>>();
+        for (String txId : (List<String>) req.get("txs_hashes")) {
+          boolean inPool = txId.startsWith("p") || poolTxIds.contains(txId);
+          if (txId.startsWith("d") && !inPool) continue;
+          Map<String, Object> tx = new HashMap<String, Object>();
+          tx.put("tx_hash", txId);
+          tx.put("in_pool", inPool);
+          tx.put("double_spend_seen", false);
+          if (!inPool) {
+            tx.put("block_height", BigInteger.valueOf(300000));
+            tx.put("block_timestamp", BigInteger.valueOf(1560000000l));
+          }
+          txs.add(tx);
+        }
+        Map<String, Object> resp = new HashMap<String, Object>();
+        resp.put("txs", txs);
+        resp.put("status", "OK");
+        sendJsonResponse(exchange, JsonUtils.serializeToBytes(MoneroRpcConnection.MAPPER, resp));
+      }
+    });
+    server.createContext("/is_key_image_spent", new HttpHandler() {
+      @SuppressWarnings("unchecked")
+      @Override
+      public void handle(HttpExchange exchange) throws IOException {
+        
+        // key images starting with 'c' are confirmed, 'p' are in the pool, others are not spent
+        Map<String, Object> req;
+        try (InputStream is = exchange.getRequestBody()) {
+          req = MoneroRpcConnection.MAPPER.readValue(is, new TypeReference<Map<String, Object>>(){});
+        }
+        List<String> keyImages = (List<String>) req.get("key_images");
+        numKeyImageRequests.incrementAndGet();
+        numKeyImagesChecked.addAndGet(keyImages.size());
+        List<Integer> spentStatuses = new ArrayList<Integer>();
+        for (String keyImage : keyImages) spentStatuses.add(keyImage.startsWith("c") ? 1 : keyImage.startsWith("p") ? 2 : 0);
+        Map<String, Object> resp = new HashMap<String, Object>();
+        resp.put("spent_status", spentStatuses);
+        resp.put("status", "OK");
+        sendJsonResponse(exchange, JsonUtils.serializeToBytes(MoneroRpcConnection.MAPPER, resp));
+      }
+    });
+    server.createContext("/", new HttpHandler() {
+      @Override
+      public void handle(HttpExchange exchange) throws IOException {
+        try (InputStream is = exchange.getRequestBody()) {
+          while (is.read() != -1);
+        }
+        byte[] resp = "Not Found".getBytes();
+        exchange.sendResponseHeaders(404, resp.length);
+        try (OutputStream os = exchange.getResponseBody()) {
+          os.write(resp);
+        }
+      }
+    });
+    server.start();
+  }
+
+  @AfterClass
+  public static void afterClass() {
+    if (server != null) server.stop(0);
+  }
+  
+  @Before
+  public void before() {
+    
+    // reset stubbed chain, pool and request counts which tests change
+    lastBlockHeight = STUB_HEIGHT;
+    forkHeight = Long.MAX_VALUE;
+    poolTxIds.clear();
+    outputDistributionFromHeights.clear();
+    numTxPoolRequests.set(0);
+    numLastBlockHeaderRequests.set(0);
+    numOutputHistogramRequests.set(0);
+    numFeeEstimateRequests.set(0);
+    numKeyImageRequests.set(0);
+    numKeyImagesChecked.set(0);
+  }
+
+  // Does not serialize debug output when fine logging is disabled
+  @Test
+  public void testLoggingSerialization() {
+    MoneroRpcConnection rpc = new MoneroRpcConnection("http://localhost:" + server.getAddress().getPort());
+    Logger logger = Logger.getLogger(MoneroRpcConnection.class.getName());
+    Level level = logger.getLevel();
+    List<LogRecord> records = new CopyOnWriteArrayList<LogRecord>();
+    Handler handler = new Handler() {
+      @Override
+      public void publish(LogRecord record) {
+        if (record.getLevel() == Level.FINE) records.add(record);
+      }
+      @Override
+      public void flush() { }
+      @Override
+      public void close() { }
+    };
+    logger.addHandler(handler);
+    try {
+      
+      // requests with fine logging disabled do not log their serialized request or response
+      logger.setLevel(Level.INFO);
+      sendTransfersRequest(rpc);
+      assertTrue(records.isEmpty());
+      
+      // requests with fine logging enabled log both
+      logger.setLevel(Level.FINE);
+      sendTransfersRequest(rpc);
+      assertEquals(2, records.size());
+      assertTrue(records.get(0).getMessage().startsWith("Sending json request with method 'get_transfers'"));
+      assertTrue(records.get(1).getMessage().startsWith("Received response to method 'get_transfers'"));
+    } finally {
+      logger.removeHandler(handler);
+      logger.setLevel(level);
+    }
+  }
+  
+  // Fails over to the next connection when a node is unreachable
+  @Test
+  public void testConnectionManagerFailover() throws IOException {
+    
+    // get uri of an unreachable endpoint
+    int unusedPort;
+    try (ServerSocket socket = new ServerSocket(0)) {
+      unusedPort = socket.getLocalPort();
+    }
+    MoneroRpcConnection offline = new MoneroRpcConnection("http://localhost:" + unusedPort);
+    MoneroRpcConnection online = new MoneroRpcConnection("http://localhost:" + server.getAddress().getPort());
+    MoneroRpcConnectionManager manager = new MoneroRpcConnectionManager(offline, online);
+    assertEquals(offline, manager.getConnection());
+    assertNull(manager.isOnline(offline));
+    
+    // track connection changes
+    List<MoneroRpcConnection> changes = new ArrayList<MoneroRpcConnection>();
+    manager.addListener(new MoneroConnectionManagerListener() {
+      @Override
+      public void onConnectionChanged(MoneroRpcConnection connection) {
+        changes.add(connection);
+      }
+    });
+    
+    // request fails over to online connection
+    sendTransfersRequest(manager);
+    assertFalse(manager.isOnline(offline));
+    assertTrue(manager.isOnline(online));
+    assertEquals(online, manager.getConnection());
+    assertEquals(online.getUri(), manager.getUri());
+    assertNotNull(manager.getLatencyMs(online));
+    assertEquals(1, changes.size());
+    assertEquals(online, changes.get(0));
+    
+    // check connections
+    manager.checkConnections();
+    assertFalse(manager.isOnline(offline));
+    assertTrue(manager.isOnline(online));
+    assertTrue(manager.isSynced(online));
+    assertEquals(online, manager.getConnection());
+  }
+  
+  // Only stops batching when the server answers a batch with an error
+  @Test
+  public void testBatchFallback() throws IOException {
+    
+    // stub node answers batches with an http error, a truncated body, or a json-rpc error
+    AtomicInteger numRequests = new AtomicInteger();
+    AtomicInteger batchStatus = new AtomicInteger();  // 500, 0 to truncate, -32700 for a parse error, or 200
+    HttpServer batchServer = HttpServer.create(new InetSocketAddress("localhost", 0), 0);
+    batchServer.createContext("/json_rpc", new HttpHandler() {
+      @Override
+      public void handle(HttpExchange exchange) throws IOException {
+        numRequests.incrementAndGet();
+        Object req;
+        try (InputStream is = exchange.getRequestBody()) {
+          req = MoneroRpcConnection.MAPPER.readValue(is, Object.class);
+        }
+        if (!(req instanceof List) || batchStatus.get() == 200) {
+          sendJsonResponse(exchange, getJsonRpcResp(req, TestMoneroRpcConnection::getJsonRpcResp));
+        } else if (batchStatus.get() == 500) {
+          exchange.sendResponseHeaders(500, -1);
+          exchange.close();
+        } else if (batchStatus.get() == 0) {
+          byte[] resp = "[{\"jsonrpc\":\"2.0\",".getBytes();
+          exchange.sendResponseHeaders(200, resp.length + 100);
+          OutputStream os = exchange.getResponseBody();
+          os.write(resp);
+          os.flush();
+          exchange.close();  // connection closes before the declared length is sent
+        } else {
+          sendJsonResponse(exchange, getJsonRpcErrorResp(batchStatus.get(), "Parse error"));
+        }
+      }
+    });
+    batchServer.start();
+    try {
+      MoneroRpcConnection rpc = new MoneroRpcConnection("http://localhost:" + batchServer.getAddress().getPort());
+      List<MoneroRpcRequest> requests = Arrays.asList(new MoneroRpcRequest("get_block_count"), new MoneroRpcRequest("get_block_count"), new MoneroRpcRequest("get_block_count"));
+      
+      // http errors are thrown
+      batchStatus.set(500);
+      try {
+        rpc.sendJsonRequests(requests);
+        fail("Should have thrown http error");
+      } catch (MoneroRpcException e) {
+        assertEquals(500, (int) e.getCode());
+      }
+      
+      // transport errors are thrown
+      batchStatus.set(0);
+      try {
+        rpc.sendJsonRequests(requests);
+        fail("Should have thrown transport error");
+      } catch (MoneroException e) {
+        assertFalse(e instanceof MoneroRpcException);
+      }
+      
+      // batching is still used
+      batchStatus.set(200);
+      numRequests.set(0);
+      assertEquals(3, rpc.sendJsonRequests(requests).size());
+      assertEquals(1, numRequests.get());
+      
+      // json-rpc error to batch sends calls individually from then on
+      batchStatus.set(-32700);
+      numRequests.set(0);
+      List<MoneroRpcResponse> responses = rpc.sendJsonRequests(requests);
+      assertEquals(3, responses.size());
+      for (MoneroRpcResponse response : responses) assertNull(response.getError());
+      assertEquals(4, numRequests.get());
+      batchStatus.set(200);
+      numRequests.set(0);
+      assertEquals(3, rpc.sendJsonRequests(requests).size());
+      assertEquals(3, numRequests.get());
+    } finally {
+      batchServer.stop(0);
+    }
+  }
+  
+  // Only fails over requests which are safe to repeat on another node
+  @Test
+  public void testConnectionManagerFailoverSafety() throws IOException {
+    
+    // first node truncates streamed txs and fails to submit txs, second node is healthy
+    AtomicInteger numFirstRequests = new AtomicInteger();
+    AtomicInteger numSecondRequests = new AtomicInteger();
+    HttpServer first = HttpServer.create(new InetSocketAddress("localhost", 0), 0);
+    first.createContext("/", new HttpHandler() {
+      @Override
+      public void handle(HttpExchange exchange) throws IOException {
+        numFirstRequests.incrementAndGet();
+        try (InputStream is = exchange.getRequestBody()) {
+          while (is.read() != -1);
+        }
+        if (!"/get_transactions".equals(exchange.getRequestURI().getPath())) {
+          exchange.sendResponseHeaders(500, -1);
+          exchange.close();
+          return;
+        }
+        byte[] resp = "{\"txs\":[{\"tx_hash\":\"a\"},{\"tx_hash\":\"b\"},".getBytes();
+        exchange.sendResponseHeaders(200, resp.length + 100);
+        OutputStream os = exchange.getResponseBody();
+        os.write(resp);
+        os.flush();
+        exchange.close();  // connection closes before the declared length is sent
+      }
+    });
+    HttpServer second = HttpServer.create(new InetSocketAddress("localhost", 0), 0);
+    second.createContext("/", new HttpHandler() {
+      @Override
+      public void handle(HttpExchange exchange) throws IOException {
+        numSecondRequests.incrementAndGet();
+        try (InputStream is = exchange.getRequestBody()) {
+          while (is.read() != -1);
+        }
+        sendJsonResponse(exchange, "{\"txs\":[{\"tx_hash\":\"a\"},{\"tx_hash\":\"b\"},{\"tx_hash\":\"c\"}],\"status\":\"OK\"}".getBytes());
+      }
+    });
+    first.start();
+    second.start();
+    try {
+      MoneroRpcConnection firstConnection = new MoneroRpcConnection("http://localhost:" + first.getAddress().getPort());
+      MoneroRpcConnection secondConnection = new MoneroRpcConnection("http://localhost:" + second.getAddress().getPort());
+      MoneroRpcConnectionManager manager = new MoneroRpcConnectionManager(firstConnection, secondConnection);
+      
+      // streamed request which fails after delivering elements is not repeated
+      List<String> txIds = new ArrayList<String>();
+      try {
+        manager.sendPathRequest("get_transactions", new HashMap<String, Object>(), Arrays.asList("txs"), (field, tx) -> txIds.add((String) tx.get("tx_hash")));
+        fail("Should have failed with truncated response");
+      } catch (MoneroException e) {
+        assertEquals(Arrays.asList("a", "b"), txIds);
+        assertEquals(0, numSecondRequests.get());
+      }
+      
+      // request which may change state is not repeated after an http error
+      try {
+        manager.sendPathRequest("send_raw_transaction", new HashMap<String, Object>());
+        fail("Should have failed with http error");
+      } catch (MoneroRpcException e) {
+        assertEquals(500, (int) e.getCode());
+        assertEquals(0, numSecondRequests.get());
+      }
+      assertFalse(manager.isOnline(firstConnection));
+      
+      // error thrown by handler does not fail over or mark the node offline
+      manager = new MoneroRpcConnectionManager(secondConnection, firstConnection);
+      int numFirst = numFirstRequests.get();
+      try {
+        manager.sendPathRequest("get_transactions", new HashMap<String, Object>(), Arrays.asList("txs"), (field, tx) -> {
+          throw new IllegalStateException("handler failed");
+        });
+        fail("Should have failed with handler error");
+      } catch (MoneroException e) {
+        assertTrue(e.getCause() instanceof IllegalStateException);
+      }
+      assertNull(manager.isOnline(secondConnection));
+      assertEquals(numFirst, numFirstRequests.get());
+      
+      // read-only daemon request fails over on http error
+      MoneroRpcConnection stubConnection = new MoneroRpcConnection("http://localhost:" + server.getAddress().getPort());
+      manager = new MoneroRpcConnectionManager(firstConnection, stubConnection);
+      numFirst = numFirstRequests.get();
+      assertNotNull(new MoneroDaemonRpc(manager).getInfo());
+      assertEquals(numFirst + 1, numFirstRequests.get());
+      assertFalse(manager.isOnline(firstConnection));
+      assertTrue(manager.isOnline(stubConnection));
+      
+      // request which may change state fails over if the connection is refused
+      int unusedPort;
+      try (ServerSocket socket = new ServerSocket(0)) {
+        unusedPort = socket.getLocalPort();
+      }
+      manager = new MoneroRpcConnectionManager(new MoneroRpcConnection("http://localhost:" + unusedPort), secondConnection);
+      int numSecond = numSecondRequests.get();
+      manager.sendPathRequest("send_raw_transaction", new HashMap<String, Object>());
+      assertEquals(numSecond + 1, numSecondRequests.get());
+    } finally {
+      first.stop(0);
+      second.stop(0);
+    }
+  }
+  
+  // Records per-method request metrics
+  @Test
+  public void testMetrics() {
+    MoneroRpcConnection rpc = new MoneroRpcConnection("http://localhost:" + server.getAddress().getPort());
+    MoneroRpcMetrics metrics = new MoneroRpcMetrics();
+    rpc.addMetricsListener(metrics);
+    
+    // send successful and failed requests
+    for (int i = 0; i < 3; i++) sendTransfersRequest(rpc);
+    try {
+      rpc.sendPathRequest("get_height");
+      fail("Should have failed with 404");
+    } catch (MoneroRpcException e) {
+      assertEquals(404, (int) e.getCode());
+    }
+    
+    // test metrics
+    assertEquals(new TreeSet<String>(Arrays.asList("get_height", "get_transfers")), metrics.getMethods());
+    MoneroRpcMetrics.MethodMetrics transfers = metrics.getMetrics("get_transfers");
+    assertEquals(3, transfers.getCount());
+    assertEquals(0, transfers.getErrorCount());
+    assertEquals(0, transfers.getInFlight());
+    assertEquals(3 * transfersResp.length, transfers.getResponseBytes());
+    assertTrue(transfers.getRequestBytes() > 0);
+    assertTrue(transfers.getAverageLatencyMs() > 0);
+    assertTrue(transfers.getMaxLatencyMs() >= transfers.getAverageLatencyMs());
+    assertTrue(transfers.getLatencyPercentileMs(99) >= transfers.getLatencyPercentileMs(50));
+    long numInHistogram = 0;
+    for (long count : transfers.getLatencyHistogram()) numInHistogram += count;
+    assertEquals(3, numInHistogram);
+    MoneroRpcMetrics.MethodMetrics height = metrics.getMetrics("get_height");
+    assertEquals(1, height.getCount());
+    assertEquals(1, height.getErrorCount());
+    assertEquals(Long.valueOf(1), height.getErrorCodes().get(404));
+    
+    // stop recording
+    rpc.removeMetricsListener(metrics);
+    sendTransfersRequest(rpc);
+    assertEquals(3, metrics.getMetrics("get_transfers").getCount());
+  }
+  
+  // Can compress requests and responses
+  @Test
+  public void testCompression() {
+    
+    // compression is disabled by default
+    sendTransfersRequest(new MoneroRpcConnection("http://localhost:" + server.getAddress().getPort()));
+    assertFalse(isRequestCompressed);
+    assertFalse(isResponseCompressed);
+    
+    // enable compression
+    MoneroRpcConnectionConfig config = new MoneroRpcConnectionConfig().setCompressionEnabled(true).setRequestCompressionThreshold(0);
+    try {
+      MoneroRpcConnection rpc = new MoneroRpcConnection("http://localhost:" + server.getAddress().getPort(), null, null, config);
+      sendTransfersRequest(rpc);
+      assertTrue(isRequestCompressed);
+      assertTrue(isResponseCompressed);
+      
+      // request below threshold is not compressed
+      config.setRequestCompressionThreshold(1000000);
+      sendTransfersRequest(rpc);
+      assertFalse(isRequestCompressed);
+      assertTrue(isResponseCompressed);
+    } finally {
+      config.close();
+    }
+  }
+  
+  // Only fetches the tx pool to get txs which are in the pool
+  @Test
+  public void testGetTxsPool() {
+    MoneroDaemonRpc daemon = new MoneroDaemonRpc("http://localhost:" + server.getAddress().getPort());
+    String confirmedTxId = String.format("c%063x", 1);
+    String poolTxId = getPoolTxId(NUM_POOL_TXS / 2);
+    
+    // confirmed txs do not fetch the pool
+    MoneroTx tx = daemon.getTx(confirmedTxId);
+    assertTrue(tx.isConfirmed());
+    assertEquals(0, numTxPoolRequests.get());
+    
+    // unconfirmed txs are merged with their pool entries
+    tx = daemon.getTxs(Arrays.asList(confirmedTxId, poolTxId)).get(1);
+    assertEquals(1, numTxPoolRequests.get());
+    assertFalse(tx.isConfirmed());
+    assertEquals(poolTxId, tx.getId());
+    assertEquals(1570000000l + NUM_POOL_TXS / 2, (long) tx.getReceivedTimestamp());
+    assertEquals(BigInteger.valueOf(25000000l), tx.getFee());
+    
+    // each lookup of an unconfirmed tx fetches the pool once, lookups of confirmed txs never do
+    numTxPoolRequests.set(0);
+    for (int i = 0; i < NUM_LOOKUPS; i++) daemon.getTx(confirmedTxId);
+    assertEquals(0, numTxPoolRequests.get());
+    for (int i = 0; i < NUM_LOOKUPS; i++) daemon.getTx(poolTxId);
+    assertEquals(NUM_LOOKUPS, numTxPoolRequests.get());
+  }
+  
+  // Notifies listeners as txs are added to and removed from the pool
+  @Test
+  public void testTxPoolListener() throws InterruptedException {
+    MoneroDaemonRpc daemon = new MoneroDaemonRpc("http://localhost:" + server.getAddress().getPort());
+    List<String> events = new CopyOnWriteArrayList<String>();
+    MoneroTxPoolListener listener = new MoneroTxPoolListener() {
+      @Override
+      public void onTxAdded(MoneroTx tx) {
+        assertTrue(tx.inTxPool());
+        events.add("added " + tx.getId());
+      }
+      @Override
+      public void onTxConfirmed(MoneroTx tx) {
+        assertTrue(tx.isConfirmed());
+        events.add("confirmed " + tx.getId());
+      }
+      @Override
+      public void onTxRemoved(String txId) {
+        events.add("removed " + txId);
+      }
+    };
+    
+    // txs in the pool when listening starts are not notified
+    String confirmedTxId = String.format("c%063x", 1);
+    String droppedTxId = String.format("d%063x", 1);
+    String addedTxId = String.format("a%063x", 1);
+    poolTxIds.add(confirmedTxId);
+    daemon.addTxPoolListener(listener);
+    try {
+      TimeUnit.MILLISECONDS.sleep(1000);
+      assertTrue(events.isEmpty());
+      
+      // add txs to the pool
+      poolTxIds.add(droppedTxId);
+      poolTxIds.add(addedTxId);
+      waitForEvents(events, 2);
+      assertEquals(new TreeSet<String>(Arrays.asList("added " + droppedTxId, "added " + addedTxId)), new TreeSet<String>(events));
+      
+      // remove txs from the pool
+      events.clear();
+      poolTxIds.remove(confirmedTxId);
+      poolTxIds.remove(droppedTxId);
+      waitForEvents(events, 2);
+      assertEquals(new TreeSet<String>(Arrays.asList("confirmed " + confirmedTxId, "removed " + droppedTxId)), new TreeSet<String>(events));
+      
+      // ids are fetched from the pool without fetching the pool
+      int numRequests = numTxPoolRequests.get();
+      assertEquals(Arrays.asList(addedTxId), daemon.getTxPoolIds());
+      assertEquals(numRequests, numTxPoolRequests.get());
+    } finally {
+      daemon.removeTxPoolListener(listener);
+    }
+  }
+  
+  // Polls for blocks on the shared scheduler without waiting for slow listeners
+  @Test
+  public void testDaemonPoller() throws InterruptedException {
+    MoneroDaemonRpc daemon = new MoneroDaemonRpc("http://localhost:" + server.getAddress().getPort());
+    daemon.setPollInterval(100);
+    
+    // register listener which blocks until released
+    CountDownLatch release = new CountDownLatch(1);
+    List<Long> heights = new CopyOnWriteArrayList<Long>();
+    MoneroDaemonListener listener = new MoneroDaemonListener() {
+      @Override
+      public void onBlockHeader(MoneroBlockHeader header) {
+        try {
+          release.await();
+        } catch (InterruptedException e) {
+          throw new RuntimeException(e);
+        }
+        heights.add(header.getHeight());
+      }
+    };
+    daemon.addListener(listener);
+    try {
+      TimeUnit.MILLISECONDS.sleep(500);
+      
+      // add blocks while the listener is blocked
+      long startHeight = lastBlockHeight;
+      lastBlockHeight++;
+      TimeUnit.MILLISECONDS.sleep(500);
+      lastBlockHeight++;
+      TimeUnit.MILLISECONDS.sleep(500);
+      
+      // polling continues while the listener is blocked
+      int numRequests = numLastBlockHeaderRequests.get();
+      TimeUnit.MILLISECONDS.sleep(500);
+      assertTrue(numLastBlockHeaderRequests.get() > numRequests);
+      assertTrue(heights.isEmpty());
+      
+      // listener is notified of each block in order once released
+      release.countDown();
+      long start = System.currentTimeMillis();
+      while (heights.size() < 2 && System.currentTimeMillis() - start < 5000) TimeUnit.MILLISECONDS.sleep(50);
+      assertEquals(Arrays.asList(startHeight + 1, startHeight + 2), heights);
+    } finally {
+      daemon.removeListener(listener);
+    }
+    
+    // polling stops when no listeners are registered
+    TimeUnit.MILLISECONDS.sleep(200);
+    int numRequests = numLastBlockHeaderRequests.get();
+    TimeUnit.MILLISECONDS.sleep(500);
+    assertEquals(numRequests, numLastBlockHeaderRequests.get());
+  }
+  
+  // Notifies every block in order and reorgs with their fork height
+  @Test
+  public void testDaemonPollerReorg() throws InterruptedException {
+    MoneroDaemonRpc daemon = new MoneroDaemonRpc("http://localhost:" + server.getAddress().getPort());
+    daemon.setPollInterval(100);
+    List<String> events = new CopyOnWriteArrayList<String>();
+    MoneroDaemonListener listener = new MoneroDaemonListener() {
+      @Override
+      public void onBlockHeader(MoneroBlockHeader header) {
+        events.add("block " + header.getHeight() + " " + header.getId().charAt(0));
+      }
+      @Override
+      public void onReorg(long forkHeight) {
+        events.add("reorg " + forkHeight);
+      }
+    };
+    daemon.addListener(listener);
+    try {
+      TimeUnit.MILLISECONDS.sleep(500);
+      
+      // blocks added between polls are notified in order
+      long startHeight = lastBlockHeight;
+      lastBlockHeight += 3;
+      waitForEvents(events, 3);
+      assertEquals(Arrays.asList("block " + (startHeight + 1) + " 0", "block " + (startHeight + 2) + " 0", "block " + (startHeight + 3) + " 0"), events);
+      
+      // reorg replaces the last two blocks and adds one
+      events.clear();
+      forkHeight = startHeight + 2;
+      lastBlockHeight++;
+      waitForEvents(events, 4);
+      assertEquals(Arrays.asList("reorg " + (startHeight + 2), "block " + (startHeight + 2) + " f", "block " + (startHeight + 3) + " f", "block " + (startHeight + 4) + " f"), events);
+      
+      // older tip of the known chain from a node behind is ignored
+      events.clear();
+      lastBlockHeight--;
+      TimeUnit.MILLISECONDS.sleep(500);
+      assertTrue(events.isEmpty());
+      lastBlockHeight += 2;
+      waitForEvents(events, 1);
+      assertEquals(Arrays.asList("block " + (startHeight + 5) + " f"), events);
+    } finally {
+      daemon.removeListener(listener);
+    }
+  }
+  
+  // Notifies the fork height of reorgs older than the window of recent blocks
+  @Test
+  public void testDaemonPollerDeepReorg() throws InterruptedException {
+    MoneroDaemonRpc daemon = new MoneroDaemonRpc("http://localhost:" + server.getAddress().getPort());
+    daemon.setPollInterval(100);
+    List<String> events = new CopyOnWriteArrayList<String>();
+    MoneroDaemonListener listener = new MoneroDaemonListener() {
+      @Override
+      public void onBlockHeader(MoneroBlockHeader header) {
+        events.add("block " + header.getHeight() + " " + header.getId().charAt(0));
+      }
+      @Override
+      public void onReorg(long forkHeight) {
+        events.add("reorg " + forkHeight);
+      }
+    };
+    daemon.addListener(listener);
+    try {
+      TimeUnit.MILLISECONDS.sleep(500);
+      
+      // reorg replaces every block of the window and 3 blocks below it
+      long startHeight = lastBlockHeight;
+      forkHeight = startHeight - 3;
+      lastBlockHeight++;
+      waitForEvents(events, 6);
+      List<String> expected = new ArrayList<String>();
+      expected.add("reorg " + (startHeight - 3));
+      for (long height = startHeight - 3; height <= startHeight + 1; height++) expected.add("block " + height + " f");
+      assertEquals(expected, events);
+    } finally {
+      daemon.removeListener(listener);
+    }
+  }
+  
+  // Syncs cached output distributions incrementally and repairs them on reorgs
+  @Test
+  public void testOutputDistributionCache() {
+    MoneroDaemonRpc daemon = new MoneroDaemonRpc("http://localhost:" + server.getAddress().getPort());
+    MoneroOutputDistributionCache cache = new MoneroOutputDistributionCache(daemon);
+    List<BigInteger> amounts = Arrays.asList(BigInteger.ZERO, BigInteger.TEN);
+    
+    // first query fetches full distributions
+    long startHeight = lastBlockHeight;
+    cache.getOutputDistribution(amounts, true, null, null);
+    assertEquals(Arrays.asList(0l), outputDistributionFromHeights);
+    testCumulativeDistribution(cache, BigInteger.ZERO);
+    testCumulativeDistribution(cache, BigInteger.TEN);
+    assertEquals(Arrays.asList(0l), outputDistributionFromHeights);
+    
+    // new blocks are fetched incrementally
+    lastBlockHeight += 2;
+    testCumulativeDistribution(cache, BigInteger.ZERO);
+    assertEquals(Arrays.asList(0l, startHeight + 1), outputDistributionFromHeights);
+    
+    // reorg repairs the tail from the last synced tip in the main chain
+    forkHeight = lastBlockHeight - 1;
+    lastBlockHeight++;
+    testCumulativeDistribution(cache, BigInteger.ZERO);
+    assertEquals(Arrays.asList(0l, startHeight + 1, startHeight + 1), outputDistributionFromHeights);
+    testCumulativeDistribution(cache, BigInteger.TEN);
+    assertEquals(Arrays.asList(0l, startHeight + 1, startHeight + 1, startHeight + 1), outputDistributionFromHeights);
+    
+    // non-cumulative ranges are served from the cache
+    MoneroOutputDistributionEntry entry = cache.getOutputDistribution(Arrays.asList(BigInteger.ZERO), false, forkHeight - 1, forkHeight + 1).get(0);
+    assertEquals(forkHeight - 1, (long) entry.getStartHeight());
+    assertEquals(getStubNumOutputs(BigInteger.ZERO, forkHeight - 2), (long) entry.getBase());
+    assertEquals(Arrays.asList(2, 3, 3), entry.getDistribution());
+    assertEquals(4, outputDistributionFromHeights.size());
+    
+    // histograms are cached until the tip changes
+    List<MoneroOutputHistogramEntry> histogram = cache.getOutputHistogram(amounts, null, null, null, null);
+    assertEquals(getStubNumOutputs(BigInteger.TEN, lastBlockHeight), (long) histogram.get(1).getNumInstances());
+    cache.getOutputHistogram(amounts, null, null, null, null);
+    assertEquals(1, numOutputHistogramRequests.get());
+    lastBlockHeight++;
+    histogram = cache.getOutputHistogram(amounts, null, null, null, null);
+    assertEquals(2, numOutputHistogramRequests.get());
+    assertEquals(getStubNumOutputs(BigInteger.TEN, lastBlockHeight), (long) histogram.get(1).getNumInstances());
+  }
+  
+  private static void testCumulativeDistribution(MoneroOutputDistributionCache cache, BigInteger amount) {
+    long[] cumulative = cache.getCumulativeDistribution(amount);
+    long startHeight = cache.getStartHeight(amount);
+    assertEquals(getStubOutputsStartHeight(amount), startHeight);
+    assertEquals(lastBlockHeight - startHeight + 1, cumulative.length);
+    for (int i = 0; i < cumulative.length; i++) assertEquals(getStubNumOutputs(amount, startHeight + i), cumulative[i]);
+    assertEquals(getStubNumOutputs(amount, lastBlockHeight - 1), cache.getNumOutputs(amount, lastBlockHeight - 1));
+  }
+  
+  // Caches fee estimates per height and shares requests between concurrent callers
+  @Test
+  public void testFeeEstimateCache() throws InterruptedException {
+    MoneroDaemonRpc daemon = new MoneroDaemonRpc("http://localhost:" + server.getAddress().getPort());
+    daemon.setPollInterval(200);
+    
+    // concurrent misses share one request
+    List<BigInteger> fees = new CopyOnWriteArrayList<BigInteger>();
+    List<Thread> threads = new ArrayList<Thread>();
+    for (int i = 0; i < 20; i++) threads.add(new Thread(() -> fees.add(daemon.getFeeEstimate(10))));
+    for (Thread thread : threads) thread.start();
+    for (Thread thread : threads) thread.join();
+    assertEquals(20, fees.size());
+    for (BigInteger fee : fees) assertEquals(getStubFeeEstimate(10), fee);
+    assertEquals(1, numFeeEstimateRequests.get());
+    
+    // estimates are cached per grace blocks
+    assertEquals(getStubFeeEstimate(10), daemon.getFeeEstimate(10));
+    assertEquals(getStubFeeEstimate(0), daemon.getFeeEstimate());
+    assertEquals(getStubFeeEstimate(0), daemon.getFeeEstimate(0));
+    assertEquals(2, numFeeEstimateRequests.get());
+    
+    // poller refreshes cached estimates on new blocks
+    MoneroDaemonListener listener = new MoneroDaemonListener();
+    daemon.addListener(listener);
+    try {
+      TimeUnit.MILLISECONDS.sleep(300);
+      lastBlockHeight++;
+      TimeUnit.MILLISECONDS.sleep(500);
+      assertEquals(4, numFeeEstimateRequests.get());
+      assertEquals(getStubFeeEstimate(10), daemon.getFeeEstimate(10));
+      assertEquals(getStubFeeEstimate(0), daemon.getFeeEstimate(0));
+      assertEquals(4, numFeeEstimateRequests.get());
+    } finally {
+      daemon.removeListener(listener);
+    }
+  }
+  
+  // Checks key images once per unique value in bounded batches and caches spends
+  @Test
+  public void testKeyImageChecker() throws InterruptedException {
+    MoneroDaemonRpc daemon = new MoneroDaemonRpc("http://localhost:" + server.getAddress().getPort());
+    MoneroKeyImageChecker checker = new MoneroKeyImageChecker(daemon);
+    checker.setPoolTtl(500);
+    
+    // 12,000 unique key images, each requested twice
+    List<String> keyImages = new ArrayList<String>();
+    for (int i = 0; i < 24000; i++) keyImages.add(getKeyImage(i % 12000));
+    List<MoneroKeyImageSpentStatus> statuses = checker.getSpentStatuses(keyImages);
+    assertEquals(keyImages.size(), statuses.size());
+    for (int i = 0; i < keyImages.size(); i++) assertEquals(getKeyImageStatus(i % 12000), statuses.get(i));
+    assertEquals(3, numKeyImageRequests.get());
+    assertEquals(12000, numKeyImagesChecked.get());
+    assertEquals(24000, checker.getNumChecked());
+    assertEquals(12000, checker.getNumFetched());
+    assertEquals(0, checker.getNumCacheHits());
+    assertEquals(8000, checker.getNumCached());
+    assertTrue(checker.getFetchRate() > 0);
+    
+    // confirmed and pool spends are cached, unspent key images are checked again
+    numKeyImagesChecked.set(0);
+    assertEquals(statuses, checker.getSpentStatuses(keyImages));
+    assertEquals(4000, numKeyImagesChecked.get());
+    assertEquals(8000, checker.getNumCacheHits());
+    
+    // pool spends expire
+    TimeUnit.MILLISECONDS.sleep(600);
+    numKeyImagesChecked.set(0);
+    assertEquals(statuses, checker.getSpentStatuses(keyImages));
+    assertEquals(8000, numKeyImagesChecked.get());
+    assertEquals(MoneroKeyImageSpentStatus.CONFIRMED, checker.getSpentStatus(getKeyImage(0)));
+    assertEquals(8000, numKeyImagesChecked.get());
+  }
+  
+  // Decodes the tx pool backlog byte for byte though monerod writes it unescaped
+  @Test
+  public void testTxPoolBacklogBinary() throws IOException {
+    
+    // entries with bytes above 0x7f, control and escaped bytes, and a fee above 2^63
+    ByteBuffer backlog = ByteBuffer.allocate(48).order(ByteOrder.LITTLE_ENDIAN);
+    backlog.putLong(0x0100ff80l).putLong(0x8000000000000a0bl).putLong(0x225cl);
+    backlog.putLong(0xfffel).putLong(0xffffffffffffffffl).putLong(0x2f0c0d09l);
+    ByteArrayOutputStream resp = new ByteArrayOutputStream();
+    resp.write("{\"jsonrpc\": \"2.0\", \"id\": \"0\", \"result\": {\"backlog\": \"".getBytes(StandardCharsets.US_ASCII));
+    for (byte b : backlog.array()) writeEpeeStringByte(resp, b);
+    resp.write("\", \"status\": \"OK\"}}".getBytes(StandardCharsets.US_ASCII));
+    
+    HttpServer backlogServer = HttpServer.create(new InetSocketAddress("localhost", 0), 0);
+    backlogServer.createContext("/json_rpc", new HttpHandler() {
+      @Override
+      public void handle(HttpExchange exchange) throws IOException {
+        try (InputStream is = exchange.getRequestBody()) {
+          while (is.read() != -1);
+        }
+        sendJsonResponse(exchange, resp.toByteArray());
+      }
+    });
+    backlogServer.start();
+    try {
+      MoneroDaemonRpc daemon = new MoneroDaemonRpc("http://localhost:" + backlogServer.getAddress().getPort());
+      List<MoneroTxBacklogEntry> entries = daemon.getTxPoolBacklog();
+      assertEquals(2, entries.size());
+      assertEquals(0x0100ff80l, (long) entries.get(0).getWeight());
+      assertEquals(BigInteger.ONE.shiftLeft(63).add(BigInteger.valueOf(0x0a0b)), entries.get(0).getFee());
+      assertEquals(0x225cl, (long) entries.get(0).getTimeInPool());
+      assertEquals(0xfffel, (long) entries.get(1).getWeight());
+      assertEquals(BigInteger.ONE.shiftLeft(64).subtract(BigInteger.ONE), entries.get(1).getFee());
+      assertEquals(0x2f0c0d09l, (long) entries.get(1).getTimeInPool());
+    } finally {
+      backlogServer.stop(0);
+    }
+  }
+  
+  // writes a byte of a binary string field the way monerod does
+  private static void writeEpeeStringByte(ByteArrayOutputStream os, byte b) {
+    String escaped;
+    switch (b) {
+      case '\b': escaped = "\\b"; break;
+      case '\f': escaped = "\\f"; break;
+      case '\n': escaped = "\\n"; break;
+      case '\r': escaped = "\\r"; break;
+      case '\t': escaped = "\\t"; break;
+      case 0x0b: escaped = "\\v"; break;
+      case '"': escaped = "\\\""; break;
+      case '\\': escaped = "\\\\"; break;
+      case '/': escaped = "\\/"; break;
+      default: os.write(b); return;
+    }
+    os.write(escaped.getBytes(StandardCharsets.US_ASCII), 0, escaped.length());
+  }
+  
+  static String getKeyImage(int i) {
+    return (i % 3 == 0 ? "c" : i % 3 == 1 ? "p" : "0") + String.format("%063x", i);
+  }
+  
+  private static MoneroKeyImageSpentStatus getKeyImageStatus(int i) {
+    return i % 3 == 0 ? MoneroKeyImageSpentStatus.CONFIRMED : i % 3 == 1 ? MoneroKeyImageSpentStatus.TX_POOL : MoneroKeyImageSpentStatus.NOT_SPENT;
+  }
+  
+  // stubbed outputs of amount 0 start at height 1000, each block has 2 outputs per amount and forked blocks have 3
+  private static long getStubOutputsStartHeight(BigInteger amount) {
+    return amount.signum() == 0 ? 1000 : 0;
+  }
+  
+  private static long getStubNumOutputs(BigInteger amount, long height) {
+    long startHeight = getStubOutputsStartHeight(amount);
+    if (height < startHeight) return 0;
+    return 2 * (height - startHeight + 1) + Math.max(0, height - Math.max(forkHeight, startHeight) + 1);
+  }
+  
+  @SuppressWarnings("unchecked")
+  private static byte[] getOutputDistributionResp(Map<String, Object> params) {
+    
+    // cumulative distribution from the greater of the requested height and the first output's height
+    long fromHeight = params.get("from_height") == null ? 0 : ((Number) params.get("from_height")).longValue();
+    long toHeight = params.get("to_height") == null ? 0 : ((Number) params.get("to_height")).longValue();
+    if (toHeight == 0) toHeight = lastBlockHeight;
+    outputDistributionFromHeights.add(fromHeight);
+    List<Map<String, Object>> distributions = new ArrayList<Map<String, Object>>();
+    for (Object rpcAmount : (List<Object>) params.get("amounts")) {
+      BigInteger amount = new BigInteger(rpcAmount.toString());
+      long startHeight = Math.max(fromHeight, getStubOutputsStartHeight(amount));
+      List<Long> distribution = new ArrayList<Long>();
+      for (long height = startHeight; height <= toHeight; height++) distribution.add(getStubNumOutputs(amount, height));
+      Map<String, Object> rpcDistribution = new HashMap<String, Object>();
+      rpcDistribution.put("amount", amount);
+      rpcDistribution.put("base", 0);
+      rpcDistribution.put("start_height", startHeight);
+      rpcDistribution.put("distribution", distribution);
+      rpcDistribution.put("binary", false);
+      rpcDistribution.put("compress", false);
+      distributions.add(rpcDistribution);
+    }
+    Map<String, Object> result = new HashMap<String, Object>();
+    result.put("distributions", distributions);
+    result.put("status", "OK");
+    return getJsonRpcResp(result);
+  }
+  
+  @SuppressWarnings("unchecked")
+  private static byte[] getOutputHistogramResp(Map<String, Object> params) {
+    numOutputHistogramRequests.incrementAndGet();
+    List<Map<String, Object>> histogram = new ArrayList<Map<String, Object>>();
+    for (Object rpcAmount : (List<Object>) params.get("amounts")) {
+      BigInteger amount = new BigInteger(rpcAmount.toString());
+      Map<String, Object> entry = new HashMap<String, Object>();
+      entry.put("amount", amount);
+      entry.put("total_instances", getStubNumOutputs(amount, lastBlockHeight));
+      entry.put("unlocked_instances", getStubNumOutputs(amount, lastBlockHeight - 10));
+      entry.put("recent_instances", 0);
+      histogram.add(entry);
+    }
+    Map<String, Object> result = new HashMap<String, Object>();
+    result.put("histogram", histogram);
+    result.put("status", "OK");
+    return getJsonRpcResp(result);
+  }
+  
+  private static byte[] getBlockHeaderByHeightResp(Map<String, Object> params) {
+    Map<String, Object> result = new HashMap<String, Object>();
+    result.put("block_header", getStubBlockHeader(((Number) params.get("height")).longValue()));
+    result.put("status", "OK");
+    return getJsonRpcResp(result);
+  }
+  
+  // stubbed blocks are found by id on the main chain or, if their id starts with '0', the chain before the fork
+  private static byte[] getBlockHeaderByHashResp(Map<String, Object> params) {
+    String id = (String) params.get("hash");
+    long height = Long.parseLong(id.substring(1), 16);
+    Map<String, Object> header = getStubBlockHeader(height);
+    header.put("hash", id);
+    if (id.startsWith("0")) header.put("prev_hash", String.format("0%063x", height - 1));
+    Map<String, Object> result = new HashMap<String, Object>();
+    result.put("block_header", header);
+    result.put("status", "OK");
+    return getJsonRpcResp(result);
+  }
+  
+  private static BigInteger getStubFeeEstimate(int graceBlocks) {
+    return BigInteger.valueOf(20000 + 100 * graceBlocks + lastBlockHeight % 1000);
+  }
+  
+  private static byte[] getFeeEstimateResp(Map<String, Object> params) {
+    numFeeEstimateRequests.incrementAndGet();
+    try {
+      TimeUnit.MILLISECONDS.sleep(100);  // keep request in flight for concurrent callers
+    } catch (InterruptedException e) {
+      throw new RuntimeException(e);
+    }
+    Map<String, Object> result = new HashMap<String, Object>();
+    result.put("fee", getStubFeeEstimate(params == null || params.get("grace_blocks") == null ? 0 : ((Number) params.get("grace_blocks")).intValue()));
+    result.put("status", "OK");
+    return getJsonRpcResp(result);
+  }
+  
+  private static byte[] getBlockCountResp() {
+    Map<String, Object> result = new HashMap<String, Object>();
+    result.put("count", lastBlockHeight + 1);
+    result.put("status", "OK");
+    return getJsonRpcResp(result);
+  }
+  
+  private static Map<String, Object> getStubBlockHeader(long height) {
+    Map<String, Object> header = new HashMap<String, Object>();
+    header.put("hash", getStubBlockId(height));
+    header.put("prev_hash", getStubBlockId(height - 1));
+    header.put("height", height);
+    header.put("timestamp", System.currentTimeMillis() / 1000 - 60);
+    return header;
+  }
+  
+  private static String getStubBlockId(long height) {
+    return (height >= forkHeight ? "f" : "0") + String.format("%063x", height);
+  }
+  
+  private static byte[] getLastBlockHeaderResp() {
+    numLastBlockHeaderRequests.incrementAndGet();
+    Map<String, Object> result = new HashMap<String, Object>();
+    result.put("block_header", getStubBlockHeader(lastBlockHeight));
+    result.put("status", "OK");
+    return getJsonRpcResp(result);
+  }
+  
+  private static byte[] getBlockHeadersRangeResp(Map<String, Object> params) {
+    List<Map<String, Object>> headers = new ArrayList<Map<String, Object>>();
+    long endHeight = ((Number) params.get("end_height")).longValue();
+    for (long height = ((Number) params.get("start_height")).longValue(); height <= endHeight; height++) headers.add(getStubBlockHeader(height));
+    Map<String, Object> result = new HashMap<String, Object>();
+    result.put("headers", headers);
+    result.put("status", "OK");
+    return getJsonRpcResp(result);
+  }
+  
+  // responds to a single json-rpc request or a batch of them using the given stub of each method
+  static byte[] getJsonRpcResp(Object req, BiFunction<String, Map<String, Object>, byte[]> stub) throws IOException {
+    if (!(req instanceof List)) return getJsonRpcResp(toMap(req), stub);
+    List<Map<String, Object>> batchResp = new ArrayList<Map<String, Object>>();
+    for (Object call : (List<?>) req) {
+      Map<String, Object> callResp = MoneroRpcConnection.MAPPER.readValue(getJsonRpcResp(toMap(call), stub), new TypeReference<Map<String, Object>>(){});
+      callResp.put("id", toMap(call).get("id"));
+      batchResp.add(callResp);
+    }
+    return JsonUtils.serializeToBytes(MoneroRpcConnection.MAPPER, batchResp);
+  }
+  
+  private static byte[] getJsonRpcResp(Map<String, Object> call, BiFunction<String, Map<String, Object>, byte[]> stub) {
+    return stub.apply((String) call.get("method"), toMap(call.get("params")));
+  }
+  
+  // converts a parsed json object to a typed map without an unchecked cast
+  static Map<String, Object> toMap(Object obj) {
+    return MoneroRpcConnection.MAPPER.convertValue(obj, new TypeReference<Map<String, Object>>(){});
+  }
+  
+  private static byte[] getJsonRpcResp(String method, Map<String, Object> params) {
+    if ("get_info".equals(method)) return infoResp;
+    else if ("get_last_block_header".equals(method)) return getLastBlockHeaderResp();
+    else if ("get_block_headers_range".equals(method)) return getBlockHeadersRangeResp(params);
+    else if ("get_block_header_by_height".equals(method)) return getBlockHeaderByHeightResp(params);
+    else if ("get_block_header_by_hash".equals(method)) return getBlockHeaderByHashResp(params);
+    else if ("get_output_distribution".equals(method)) return getOutputDistributionResp(params);
+    else if ("get_output_histogram".equals(method)) return getOutputHistogramResp(params);
+    else if ("get_block_count".equals(method)) return getBlockCountResp();
+    else if ("get_fee_estimate".equals(method)) return getFeeEstimateResp(params);
+    else return transfersResp;
+  }
+  
+  static byte[] getJsonRpcResp(Map<String, Object> result) {
+    Map<String, Object> resp = new HashMap<String, Object>();
+    resp.put("jsonrpc", "2.0");
+    resp.put("id", "0");
+    resp.put("result", result);
+    return JsonUtils.serializeToBytes(MoneroRpcConnection.MAPPER, resp);
+  }
+  
+  static byte[] getJsonRpcErrorResp(int code, String message) {
+    Map<String, Object> error = new HashMap<String, Object>();
+    error.put("code", code);
+    error.put("message", message);
+    Map<String, Object> resp = new HashMap<String, Object>();
+    resp.put("jsonrpc", "2.0");
+    resp.put("id", "0");
+    resp.put("error", error);
+    return JsonUtils.serializeToBytes(MoneroRpcConnection.MAPPER, resp);
+  }
+  
+  private static void waitForEvents(List<String> events, int numEvents) throws InterruptedException {
+    long start = System.currentTimeMillis();
+    while (events.size() < numEvents && System.currentTimeMillis() - start < 5000) TimeUnit.MILLISECONDS.sleep(50);
+    TimeUnit.MILLISECONDS.sleep(100);  // wait for unexpected events
+  }
+  
+  private static String getPoolTxId(int index) {
+    return String.format("p%063x", index);
+  }
+  
+  static void sendJsonResponse(HttpExchange exchange, byte[] resp) throws IOException {
+    exchange.getResponseHeaders().add("Content-Type", "application/json");
+    exchange.sendResponseHeaders(200, resp.length);
+    try (OutputStream os = exchange.getResponseBody()) {
+      os.write(resp);
+    }
+  }
+  
+  @SuppressWarnings("unchecked")
+  private static void sendTransfersRequest(MoneroRpcConnection rpc) {
+    Map<String, Object> params = new HashMap<String, Object>();
+    params.put("in", true);
+    params.put("all_accounts", true);
+    Map<String, Object> resp = rpc.sendJsonRequest("get_transfers", params);
+    assertEquals(NUM_TRANSFERS, ((List<Object>) ((Map<String, Object>) resp.get("result")).get("in")).size());
+  }
+}
@@ -0,0 +1,635 @@
+package test;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+import static test.TestMoneroRpcConnection.getJsonRpcErrorResp;
+import static test.TestMoneroRpcConnection.getJsonRpcResp;
+import static test.TestMoneroRpcConnection.getKeyImage;
+import static test.TestMoneroRpcConnection.sendJsonResponse;
+import static test.TestMoneroRpcConnection.toMap;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.math.BigInteger;
+import java.net.InetSocketAddress;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.junit.AfterClass;
+import org.junit.Before;
+import org.junit.BeforeClass;
+import org.junit.Test;
+
+import com.fasterxml.jackson.core.type.TypeReference;
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpHandler;
+import com.sun.net.httpserver.HttpServer;
+
+import monero.daemon.model.MoneroKeyImage;
+import monero.daemon.model.MoneroTx;
+import monero.rpc.MoneroRpcConnection;
+import monero.wallet.MoneroWalletRpc;
+import monero.wallet.model.MoneroOutputQuery;
+import monero.wallet.model.MoneroOutputWallet;
+import monero.wallet.model.MoneroSendRequest;
+import monero.wallet.model.MoneroSubaddress;
+import monero.wallet.model.MoneroTransfer;
+import monero.wallet.model.MoneroTransferQuery;
+import monero.wallet.model.MoneroTxQuery;
+import monero.wallet.model.MoneroTxWallet;
+
+/**
+ * Tests the caches and indices of the wallet rpc client against a local stub
+ * wallet-rpc, which does not require a running wallet.
+ */
+public class TestMoneroWalletRpcStub {
+
+  private static HttpServer server;
+  private static Map<Integer, Integer> stubNumSubaddresses = new ConcurrentHashMap<Integer, Integer>();  // number of subaddresses per account of the stubbed wallet
+  private static AtomicInteger numGetAddressRequests = new AtomicInteger();
+  private static AtomicInteger numAddressIndexRequests = new AtomicInteger();
+
+  @BeforeClass
+  public static void beforeClass() throws IOException {
+    server = HttpServer.create(new InetSocketAddress("localhost", 0), 0);
+    server.createContext("/json_rpc", new HttpHandler() {
+      @Override
+      public void handle(HttpExchange exchange) throws IOException {
+        Object req;
+        try (InputStream is = exchange.getRequestBody()) {
+          req = MoneroRpcConnection.MAPPER.readValue(is, Object.class);
+        }
+        sendJsonResponse(exchange, getJsonRpcResp(req, TestMoneroWalletRpcStub::getAddressesResp));
+      }
+    });
+    server.start();
+  }
+
+  @AfterClass
+  public static void afterClass() {
+    if (server != null) server.stop(0);
+  }
+  
+  @Before
+  public void before() {
+    
+    // stubbed wallet has 3 accounts with 200 subaddresses each
+    stubNumSubaddresses.clear();
+    for (int accountIdx = 0; accountIdx < 3; accountIdx++) stubNumSubaddresses.put(accountIdx, 200);
+    numGetAddressRequests.set(0);
+    numAddressIndexRequests.set(0);
+  }
+  
+  // Resolves addresses and their indices from the wallet's address cache
+  @Test
+  public void testAddressIndexCache() {
+    MoneroWalletRpc wallet = new MoneroWalletRpc("http://localhost:" + server.getAddress().getPort());
+    
+    // warm the cache with one get_address request per account
+    wallet.warmAddressCache();
+    assertEquals(3, numGetAddressRequests.get());
+    for (int accountIdx = 0; accountIdx < 3; accountIdx++) {
+      for (int subaddressIdx = 0; subaddressIdx < 200; subaddressIdx++) {
+        String address = getStubAddress(accountIdx, subaddressIdx);
+        MoneroSubaddress subaddress = wallet.getAddressIndex(address);
+        assertEquals(address, subaddress.getAddress());
+        assertEquals(accountIdx, (int) subaddress.getAccountIndex());
+        assertEquals(subaddressIdx, (int) subaddress.getIndex());
+        assertEquals(address, wallet.getAddress(accountIdx, subaddressIdx));
+      }
+    }
+    assertEquals(3, numGetAddressRequests.get());
+    assertEquals(0, numAddressIndexRequests.get());
+    
+    // created subaddresses are cached
+    MoneroSubaddress created = wallet.createSubaddress(1, null);
+    assertEquals(created.getIndex(), wallet.getAddressIndex(created.getAddress()).getIndex());
+    assertEquals(0, numAddressIndexRequests.get());
+    
+    // uncached addresses fall back to get_address_index and are then cached
+    String uncached = getStubAddress(2, 500);
+    assertEquals(500, (int) wallet.getAddressIndex(uncached).getIndex());
+    assertEquals(500, (int) wallet.getAddressIndex(uncached).getIndex());
+    assertEquals(1, numAddressIndexRequests.get());
+    assertEquals(3, numGetAddressRequests.get());
+  }
+  
+  // Shares one wallet between threads which read concurrently and modify the wallet one at a time
+  @Test
+  public void testWalletConcurrency() throws IOException, InterruptedException {
+    
+    // stub wallet-rpc handles requests concurrently and records the most requests in flight
+    AtomicInteger numReadsInFlight = new AtomicInteger();
+    AtomicInteger numWritesInFlight = new AtomicInteger();
+    AtomicInteger maxReadsInFlight = new AtomicInteger();
+    AtomicInteger maxWritesInFlight = new AtomicInteger();
+    ExecutorService executor = Executors.newFixedThreadPool(16);
+    HttpServer walletServer = HttpServer.create(new InetSocketAddress("localhost", 0), 0);
+    walletServer.setExecutor(executor);
+    walletServer.createContext("/json_rpc", new HttpHandler() {
+      @Override
+      public void handle(HttpExchange exchange) throws IOException {
+        Map<String, Object> req;
+        try (InputStream is = exchange.getRequestBody()) {
+          req = MoneroRpcConnection.MAPPER.readValue(is, new TypeReference<Map<String, Object>>(){});
+        }
+        String method = (String) req.get("method");
+        boolean isWrite = "transfer_split".equals(method) || "create_address".equals(method);
+        AtomicInteger numInFlight = isWrite ? numWritesInFlight : numReadsInFlight;
+        (isWrite ? maxWritesInFlight : maxReadsInFlight).accumulateAndGet(numInFlight.incrementAndGet(), Math::max);
+        byte[] resp;
+        try {
+          TimeUnit.MILLISECONDS.sleep(5);
+          resp = "transfer_split".equals(method) ? getJsonRpcResp(new HashMap<String, Object>()) : getAddressesResp(method, toMap(req.get("params")));
+        } catch (InterruptedException e) {
+          throw new RuntimeException(e);
+        } finally {
+          numInFlight.decrementAndGet();
+        }
+        sendJsonResponse(exchange, resp);
+      }
+    });
+    walletServer.start();
+    try {
+      
+      // 16 threads read addresses and indices, send, and create subaddresses on one wallet
+      MoneroWalletRpc wallet = new MoneroWalletRpc("http://localhost:" + walletServer.getAddress().getPort());
+      List<Throwable> errors = new CopyOnWriteArrayList<Throwable>();
+      Set<String> createdAddresses = ConcurrentHashMap.newKeySet();
+      List<Thread> threads = new ArrayList<Thread>();
+      for (int i = 0; i < 16; i++) {
+        int threadIdx = i;
+        threads.add(new Thread(() -> {
+          try {
+            for (int j = 0; j < 50; j++) {
+              int accountIdx = (threadIdx + j) % 3;
+              if (j % 10 == 0) {
+                wallet.sendSplit(new MoneroSendRequest(0, getStubAddress(1, 0), BigInteger.valueOf(1000000)));
+              } else if (j % 10 == 5) {
+                MoneroSubaddress created = wallet.createSubaddress(accountIdx);
+                assertTrue(createdAddresses.add(created.getAddress()));
+                assertEquals(created.getIndex(), wallet.getAddressIndex(created.getAddress()).getIndex());
+              } else {
+                assertEquals(getStubAddress(accountIdx, j), wallet.getAddress(accountIdx, j));
+                MoneroSubaddress subaddress = wallet.getAddressIndex(getStubAddress(accountIdx, 1000 + threadIdx * 50 + j));
+                assertEquals(accountIdx, (int) subaddress.getAccountIndex());
+                assertEquals(1000 + threadIdx * 50 + j, (int) subaddress.getIndex());
+              }
+            }
+          } catch (Throwable t) {
+            errors.add(t);
+          }
+        }));
+      }
+      for (Thread thread : threads) thread.start();
+      for (Thread thread : threads) thread.join();
+      if (!errors.isEmpty()) throw new AssertionError(errors.get(0));
+      assertEquals(80, createdAddresses.size());
+      assertEquals(1, maxWritesInFlight.get());
+      assertTrue(maxReadsInFlight.get() > 1);
+    } finally {
+      walletServer.stop(0);
+      executor.shutdownNow();
+    }
+  }
+  
+  // Syncs transfers incrementally above the last synced height and re-fetches unconfirmed transfers
+  @Test
+  public void testIncrementalTransfers() throws IOException {
+    
+    // stub wallet-rpc has 1000 confirmed incoming transfers, one per block from height 1000, and 10 in the pool
+    List<Map<String, Object>> walletTransfers = new CopyOnWriteArrayList<Map<String, Object>>();
+    for (int i = 0; i < 1000; i++) walletTransfers.add(getStubTransfer("in", i, 1000 + i));
+    for (int i = 1000; i < 1010; i++) walletTransfers.add(getStubTransfer("pool", i, 0));
+    AtomicInteger walletHeight = new AtomicInteger(2000);
+    AtomicInteger numTransfersSent = new AtomicInteger();
+    HttpServer walletServer = HttpServer.create(new InetSocketAddress("localhost", 0), 0);
+    walletServer.createContext("/json_rpc", new HttpHandler() {
+      @Override
+      public void handle(HttpExchange exchange) throws IOException {
+        Object req;
+        try (InputStream is = exchange.getRequestBody()) {
+          req = MoneroRpcConnection.MAPPER.readValue(is, Object.class);
+        }
+        sendJsonResponse(exchange, getJsonRpcResp(req, (method, params) -> getStubWalletResp(method, params, walletTransfers, walletHeight.get(), numTransfersSent)));
+      }
+    });
+    walletServer.start();
+    try {
+      MoneroWalletRpc wallet = new MoneroWalletRpc("http://localhost:" + walletServer.getAddress().getPort());
+      wallet.setIncrementalTransfers(true);
+      assertTrue(wallet.isIncrementalTransfers());
+      
+      // first sync downloads all transfers
+      assertEquals(1010, wallet.getTransfers().size());
+      assertEquals(1010, numTransfersSent.get());
+      
+      // 5 new blocks confirm 2 pool transfers and 5 new transfers
+      walletTransfers.set(1000, getStubTransfer("in", 1000, 2004));
+      walletTransfers.set(1001, getStubTransfer("in", 1001, 2004));
+      for (int i = 1010; i < 1015; i++) walletTransfers.add(getStubTransfer("in", i, 1990 + i - 1000));
+      walletHeight.set(2005);
+      
+      // later syncs download transfers in the last 10 synced blocks, new blocks and the pool
+      numTransfersSent.set(0);
+      List<MoneroTransfer> transfers = wallet.getTransfers();
+      assertEquals(10 + 5 + 2 + 8, numTransfersSent.get());
+      assertEquals(1015, transfers.size());
+      MoneroWalletRpc nonIncrementalWallet = new MoneroWalletRpc("http://localhost:" + walletServer.getAddress().getPort());
+      assertEquals(getTransferSummaries(nonIncrementalWallet.getTransfers()), getTransferSummaries(transfers));
+      for (MoneroTransfer transfer : transfers) {
+        if (transfer.getTx().isConfirmed()) assertEquals(2005 - transfer.getTx().getHeight(), (long) transfer.getTx().getNumConfirmations());
+      }
+      
+      // reorg drops a recent transfer
+      walletTransfers.remove(walletTransfers.size() - 1);
+      transfers = wallet.getTransfers();
+      assertEquals(1014, transfers.size());
+      assertEquals(getTransferSummaries(nonIncrementalWallet.getTransfers()), getTransferSummaries(transfers));
+      
+      // queries are answered from the index
+      assertEquals(getTransferSummaries(nonIncrementalWallet.getTransfers(1, 3)), getTransferSummaries(wallet.getTransfers(1, 3)));
+      MoneroTransferQuery query = new MoneroTransferQuery().setTxQuery(new MoneroTxQuery().setMinHeight(1500l).setMaxHeight(1600l));
+      assertEquals(101, wallet.getTransfers(query).size());
+      assertEquals(getTransferSummaries(nonIncrementalWallet.getTransfers(query)), getTransferSummaries(wallet.getTransfers(query)));
+      query = new MoneroTransferQuery().setTxQuery(new MoneroTxQuery().setTxIds(Arrays.asList(String.format("%064x", 5), String.format("%064x", 1001), String.format("%064x", 1005))));
+      assertEquals(3, wallet.getTransfers(query).size());
+      assertEquals(getTransferSummaries(nonIncrementalWallet.getTransfers(query)), getTransferSummaries(wallet.getTransfers(query)));
+      query = new MoneroTransferQuery().setTxQuery(new MoneroTxQuery().setPaymentIds(Arrays.asList(getStubPaymentId(100), getStubPaymentId(500))));
+      assertEquals(2, wallet.getTransfers(query).size());
+      assertEquals(getTransferSummaries(nonIncrementalWallet.getTransfers(query)), getTransferSummaries(wallet.getTransfers(query)));
+    } finally {
+      walletServer.stop(0);
+    }
+  }
+  
+  // Pushes tx ids, payment ids and heights of queries down to the wallet's rpc calls
+  @Test
+  public void testTransferQueryPlanner() throws IOException {
+    
+    // stub wallet-rpc has 1000 confirmed incoming transfers, one per block from height 1000, and 10 in the pool
+    List<Map<String, Object>> walletTransfers = new ArrayList<Map<String, Object>>();
+    for (int i = 0; i < 1000; i++) walletTransfers.add(getStubTransfer("in", i, 1000 + i));
+    for (int i = 1000; i < 1010; i++) walletTransfers.add(getStubTransfer("pool", i, 0));
+    List<String> methods = new CopyOnWriteArrayList<String>();
+    AtomicInteger numTransfersSent = new AtomicInteger();
+    HttpServer walletServer = HttpServer.create(new InetSocketAddress("localhost", 0), 0);
+    walletServer.createContext("/json_rpc", new HttpHandler() {
+      @Override
+      public void handle(HttpExchange exchange) throws IOException {
+        Object req;
+        try (InputStream is = exchange.getRequestBody()) {
+          req = MoneroRpcConnection.MAPPER.readValue(is, Object.class);
+        }
+        sendJsonResponse(exchange, getJsonRpcResp(req, (method, params) -> {
+          methods.add(method);
+          return getStubWalletResp(method, params, walletTransfers, 2000, numTransfersSent);
+        }));
+      }
+    });
+    walletServer.start();
+    try {
+      MoneroWalletRpc wallet = new MoneroWalletRpc("http://localhost:" + walletServer.getAddress().getPort());
+      List<MoneroTransfer> allTransfers = wallet.getTransfers();
+      assertEquals(1010, allTransfers.size());
+      
+      // few tx ids are fetched by id in each account
+      List<String> txIds = Arrays.asList(String.format("%064x", 5), String.format("%064x", 6), String.format("%064x", 1003));
+      MoneroTxQuery txQuery = new MoneroTxQuery().setTxIds(txIds);
+      assertEquals("transfers from get_transfer_by_txid for 3 tx ids in each account", wallet.explainTxs(txQuery));
+      methods.clear();
+      List<MoneroTxWallet> txs = wallet.getTxs(txQuery);
+      assertEquals(Arrays.asList("get_accounts", "get_transfer_by_txid", "get_transfer_by_txid", "get_transfer_by_txid", "get_transfer_by_txid", "get_transfer_by_txid", "get_transfer_by_txid"), methods);
+      assertEquals(3, txs.size());
+      for (int i = 0; i < txIds.size(); i++) assertEquals(txIds.get(i), txs.get(i).getId());
+      assertEquals(getTransferSummaries(getTransfersOfTxs(allTransfers, txIds)), getTransferSummaries(wallet.getTransfers(new MoneroTransferQuery().setTxQuery(txQuery))));
+      
+      // many tx ids are fetched with get_transfers
+      List<String> manyTxIds = new ArrayList<String>();
+      for (int i = 0; i < 30; i++) manyTxIds.add(String.format("%064x", 10 * i));
+      MoneroTransferQuery query = new MoneroTransferQuery().setTxQuery(new MoneroTxQuery().setTxIds(manyTxIds));
+      assertTrue(wallet.explainTransfers(query).startsWith("get_transfers"));
+      assertEquals(getTransferSummaries(getTransfersOfTxs(allTransfers, manyTxIds)), getTransferSummaries(wallet.getTransfers(query)));
+      
+      // payment ids of confirmed incoming transfers are fetched with get_bulk_payments
+      List<String> paymentIds = Arrays.asList(getStubPaymentId(100), getStubPaymentId(500));
+      query = new MoneroTransferQuery().setIsIncoming(true).setTxQuery(new MoneroTxQuery().setIsConfirmed(true).setPaymentIds(paymentIds));
+      assertEquals("get_bulk_payments for 2 payment ids, then get_transfer_by_txid for each paying tx", wallet.explainTransfers(query));
+      methods.clear();
+      List<MoneroTransfer> transfers = wallet.getTransfers(query);
+      assertEquals(Arrays.asList("get_bulk_payments", "get_transfer_by_txid", "get_transfer_by_txid"), methods);
+      assertEquals(getTransferSummaries(getTransfersOfTxs(allTransfers, Arrays.asList(String.format("%064x", 100), String.format("%064x", 500)))), getTransferSummaries(transfers));
+      
+      // payment ids of transfers which can be outgoing or unconfirmed are fetched with get_transfers
+      query = new MoneroTransferQuery().setTxQuery(new MoneroTxQuery().setPaymentIds(paymentIds));
+      assertTrue(wallet.explainTransfers(query).startsWith("get_transfers"));
+      assertEquals(getTransferSummaries(transfers), getTransferSummaries(wallet.getTransfers(query)));
+      
+      // a single height bounds get_transfers
+      txQuery = new MoneroTxQuery().setHeight(1500l);
+      assertTrue(wallet.explainTxs(txQuery).contains("\"max_height\":1500"));
+      numTransfersSent.set(0);
+      txs = wallet.getTxs(txQuery);
+      assertEquals(1, numTransfersSent.get());
+      assertEquals(1, txs.size());
+      assertEquals(1500, (long) txs.get(0).getHeight());
+    } finally {
+      walletServer.stop(0);
+    }
+  }
+  
+  private static List<MoneroTransfer> getTransfersOfTxs(List<MoneroTransfer> transfers, List<String> txIds) {
+    List<MoneroTransfer> txTransfers = new ArrayList<MoneroTransfer>();
+    for (MoneroTransfer transfer : transfers) {
+      if (txIds.contains(transfer.getTx().getId())) txTransfers.add(transfer);
+    }
+    return txTransfers;
+  }
+  
+  // stubs the transfer methods of wallet-rpc for a wallet with the given transfers at the given height
+  @SuppressWarnings("unchecked")
+  private static byte[] getStubWalletResp(String method, Map<String, Object> params, List<Map<String, Object>> walletTransfers, long walletHeight, AtomicInteger numTransfersSent) {
+    Map<String, Object> result = new HashMap<String, Object>();
+    if ("get_height".equals(method)) result.put("height", walletHeight);
+    else if ("get_accounts".equals(method)) {
+      List<Map<String, Object>> accounts = new ArrayList<Map<String, Object>>();
+      for (int accountIdx = 0; accountIdx < 2; accountIdx++) {
+        Map<String, Object> account = new HashMap<String, Object>();
+        account.put("account_index", accountIdx);
+        account.put("base_address", getStubAddress(accountIdx, 0));
+        account.put("balance", BigInteger.ZERO);
+        account.put("unlocked_balance", BigInteger.ZERO);
+        accounts.add(account);
+      }
+      result.put("subaddress_accounts", accounts);
+    } else if ("get_transfers".equals(method)) {
+      boolean filterByHeight = Boolean.TRUE.equals(params.get("filter_by_height"));
+      long minHeight = filterByHeight && params.get("min_height") != null ? ((Number) params.get("min_height")).longValue() : 0;
+      long maxHeight = filterByHeight && params.get("max_height") != null ? ((Number) params.get("max_height")).longValue() : Long.MAX_VALUE;
+      for (Map<String, Object> transfer : walletTransfers) {
+        String type = (String) transfer.get("type");
+        long height = ((Number) transfer.get("height")).longValue();
+        if (!Boolean.TRUE.equals(params.get(type)) || (height > 0 && (height <= minHeight || height > maxHeight))) continue;
+        if (params.get("account_index") != null && ((Number) params.get("account_index")).intValue() != (int) ((Map<String, Object>) transfer.get("subaddr_index")).get("major")) continue;
+        List<Map<String, Object>> rpcTransfers = (List<Map<String, Object>>) result.computeIfAbsent(type, key -> new ArrayList<Map<String, Object>>());
+        rpcTransfers.add(getStubRpcTransfer(transfer, walletHeight));
+        numTransfersSent.incrementAndGet();
+      }
+    } else if ("get_transfer_by_txid".equals(method)) {
+      List<Map<String, Object>> rpcTransfers = new ArrayList<Map<String, Object>>();
+      for (Map<String, Object> transfer : walletTransfers) {
+        if (!transfer.get("txid").equals(params.get("txid"))) continue;
+        if (((Number) params.get("account_index")).intValue() != (int) ((Map<String, Object>) transfer.get("subaddr_index")).get("major")) continue;
+        rpcTransfers.add(getStubRpcTransfer(transfer, walletHeight));
+      }
+      if (rpcTransfers.isEmpty()) return getJsonRpcErrorResp(-8, "Transaction not found.");
+      result.put("transfer", rpcTransfers.get(0));
+      result.put("transfers", rpcTransfers);
+    } else if ("get_payments".equals(method) || "get_bulk_payments".equals(method)) {
+      List<Object> paymentIds = "get_payments".equals(method) ? Arrays.asList(params.get("payment_id")) : (List<Object>) params.get("payment_ids");
+      List<Map<String, Object>> payments = new ArrayList<Map<String, Object>>();
+      for (Map<String, Object> transfer : walletTransfers) {
+        if (!"in".equals(transfer.get("type")) || !paymentIds.contains(transfer.get("payment_id"))) continue;
+        Map<String, Object> payment = new HashMap<String, Object>();
+        payment.put("payment_id", transfer.get("payment_id"));
+        payment.put("tx_hash", transfer.get("txid"));
+        payment.put("amount", transfer.get("amount"));
+        payment.put("block_height", transfer.get("height"));
+        payment.put("unlock_time", 0);
+        payment.put("subaddr_index", transfer.get("subaddr_index"));
+        payment.put("address", transfer.get("address"));
+        payments.add(payment);
+      }
+      if (!payments.isEmpty()) result.put("payments", payments);
+    }
+    return getJsonRpcResp(result);
+  }
+  
+  private static Map<String, Object> getStubRpcTransfer(Map<String, Object> transfer, long walletHeight) {
+    long height = ((Number) transfer.get("height")).longValue();
+    Map<String, Object> rpcTransfer = new HashMap<String, Object>(transfer);
+    rpcTransfer.put("confirmations", height == 0 ? 0 : walletHeight - height);
+    return rpcTransfer;
+  }
+  
+  private static Map<String, Object> getStubTransfer(String type, int index, long height) {
+    Map<String, Object> transfer = new HashMap<String, Object>();
+    transfer.put("txid", String.format("%064x", index));
+    transfer.put("type", type);
+    transfer.put("height", height);
+    transfer.put("timestamp", 1570000000l + index);
+    transfer.put("amount", BigInteger.valueOf(1000000000000l + index));
+    transfer.put("fee", BigInteger.valueOf(25000000l));
+    transfer.put("payment_id", index % 100 == 0 ? getStubPaymentId(index) : MoneroTx.DEFAULT_PAYMENT_ID);
+    transfer.put("address", getStubAddress(index % 2, index % 5));
+    Map<String, Object> subaddrIndex = new HashMap<String, Object>();
+    subaddrIndex.put("major", index % 2);
+    subaddrIndex.put("minor", index % 5);
+    transfer.put("subaddr_index", subaddrIndex);
+    transfer.put("subaddr_indices", Arrays.asList(subaddrIndex));
+    return transfer;
+  }
+  
+  private static String getStubPaymentId(int index) {
+    return String.format("%016x", index);
+  }
+  
+  private static List<String> getTransferSummaries(List<MoneroTransfer> transfers) {
+    List<String> summaries = new ArrayList<String>();
+    for (MoneroTransfer transfer : transfers) summaries.add(transfer.getTx().getId() + " " + transfer.getTx().getHeight() + " " + transfer.getTx().getNumConfirmations() + " " + transfer.getAccountIndex() + " " + transfer.getAmount());
+    Collections.sort(summaries);
+    return summaries;
+  }
+  
+  // Answers output queries from a local index which is re-fetched when the wallet's height or balances change
+  @Test
+  public void testIncrementalOutputs() throws IOException {
+    
+    // stub wallet-rpc has 2 accounts with 1000 outputs, one per block from height 1000, a third of which are spent
+    List<Map<String, Object>> walletOutputs = new ArrayList<Map<String, Object>>();
+    for (int i = 0; i < 1000; i++) {
+      Map<String, Object> output = new HashMap<String, Object>();
+      output.put("amount", BigInteger.valueOf(1000000000000l + i));
+      output.put("spent", i % 3 == 0);
+      output.put("key_image", getKeyImage(i));
+      output.put("global_index", i);
+      output.put("tx_hash", String.format("%064x", i));
+      output.put("unlocked", true);
+      output.put("frozen", false);
+      Map<String, Object> subaddrIndex = new HashMap<String, Object>();
+      subaddrIndex.put("major", i % 2);
+      subaddrIndex.put("minor", i % 5);
+      output.put("subaddr_index", subaddrIndex);
+      output.put("block_height", 1000 + i);
+      walletOutputs.add(output);
+    }
+    AtomicInteger walletBalance = new AtomicInteger(1000);
+    AtomicInteger numIncomingTransfersRequests = new AtomicInteger();
+    HttpServer walletServer = HttpServer.create(new InetSocketAddress("localhost", 0), 0);
+    walletServer.createContext("/json_rpc", new HttpHandler() {
+      @Override
+      public void handle(HttpExchange exchange) throws IOException {
+        Object req;
+        try (InputStream is = exchange.getRequestBody()) {
+          req = MoneroRpcConnection.MAPPER.readValue(is, Object.class);
+        }
+        sendJsonResponse(exchange, getJsonRpcResp(req, (method, params) -> {
+          Map<String, Object> result = new HashMap<String, Object>();
+          if ("get_height".equals(method)) result.put("height", 2000);
+          else if ("get_balance".equals(method)) {
+            result.put("balance", walletBalance.get());
+            result.put("unlocked_balance", walletBalance.get());
+          } else if ("get_accounts".equals(method)) {
+            List<Map<String, Object>> accounts = new ArrayList<Map<String, Object>>();
+            for (int accountIdx = 0; accountIdx < 2; accountIdx++) {
+              Map<String, Object> account = new HashMap<String, Object>();
+              account.put("account_index", accountIdx);
+              account.put("base_address", getStubAddress(accountIdx, 0));
+              account.put("balance", BigInteger.ZERO);
+              account.put("unlocked_balance", BigInteger.ZERO);
+              accounts.add(account);
+            }
+            result.put("subaddress_accounts", accounts);
+          } else if ("incoming_transfers".equals(method)) {
+            numIncomingTransfersRequests.incrementAndGet();
+            List<Map<String, Object>> transfers = new ArrayList<Map<String, Object>>();
+            for (Map<String, Object> output : walletOutputs) {
+              @SuppressWarnings("unchecked")
+              Map<String, Object> subaddrIndex = (Map<String, Object>) output.get("subaddr_index");
+              if (((Number) params.get("account_index")).intValue() != (int) subaddrIndex.get("major")) continue;
+              if (params.get("subaddr_indices") != null && !((List<?>) params.get("subaddr_indices")).contains(BigInteger.valueOf((int) subaddrIndex.get("minor")))) continue;
+              if ("available".equals(params.get("transfer_type")) && (Boolean) output.get("spent")) continue;
+              if ("unavailable".equals(params.get("transfer_type")) && !(Boolean) output.get("spent")) continue;
+              transfers.add(output);
+            }
+            if (!transfers.isEmpty()) result.put("transfers", transfers);
+          }
+          return getJsonRpcResp(result);
+        }));
+      }
+    });
+    walletServer.start();
+    try {
+      MoneroWalletRpc wallet = new MoneroWalletRpc("http://localhost:" + walletServer.getAddress().getPort());
+      MoneroWalletRpc nonIncrementalWallet = new MoneroWalletRpc("http://localhost:" + walletServer.getAddress().getPort());
+      wallet.setIncrementalOutputs(true);
+      assertTrue(wallet.isIncrementalOutputs());
+      
+      // first query fetches the outputs of each account
+      List<MoneroOutputWallet> outputs = wallet.getOutputs(new MoneroOutputQuery().setKeyImage(new MoneroKeyImage(getKeyImage(7))));
+      assertEquals(1, outputs.size());
+      assertEquals(getKeyImage(7), outputs.get(0).getKeyImage().getHex());
+      assertEquals(1007, (long) outputs.get(0).getTx().getHeight());
+      assertEquals(2, numIncomingTransfersRequests.get());
+      
+      // later queries are answered from the index while the wallet is unchanged
+      List<MoneroOutputQuery> queries = new ArrayList<MoneroOutputQuery>();
+      queries.add(new MoneroOutputQuery());
+      queries.add(new MoneroOutputQuery().setIsSpent(false));
+      queries.add(new MoneroOutputQuery().setAccountIndex(1));
+      queries.add(new MoneroOutputQuery().setAccountIndex(1).setSubaddressIndex(3));
+      queries.add(new MoneroOutputQuery().setAccountIndex(0).setSubaddressIndices(Arrays.asList(2, 4)).setIsSpent(true));
+      queries.add(new MoneroOutputQuery().setTxQuery(new MoneroTxQuery().setTxIds(Arrays.asList(String.format("%064x", 10), String.format("%064x", 11)))));
+      queries.add(new MoneroOutputQuery().setTxQuery(new MoneroTxQuery().setMinHeight(1100l).setMaxHeight(1199l)));
+      for (MoneroOutputQuery query : queries) {
+        assertEquals(getOutputSummaries(nonIncrementalWallet.getOutputs(query)), getOutputSummaries(wallet.getOutputs(query)));
+      }
+      assertEquals(666, wallet.getOutputs(new MoneroOutputQuery().setIsSpent(false)).size());
+      assertEquals(100, wallet.getOutputs(new MoneroOutputQuery().setTxQuery(new MoneroTxQuery().setMinHeight(1100l).setMaxHeight(1199l))).size());
+      int numNonIncrementalRequests = numIncomingTransfersRequests.get() - 2;
+      assertTrue(numNonIncrementalRequests > 0);
+      
+      // outputs are fetched again when the balance changes
+      walletOutputs.get(1).put("spent", true);
+      walletBalance.decrementAndGet();
+      assertEquals(665, wallet.getOutputs(new MoneroOutputQuery().setIsSpent(false)).size());
+      assertEquals(numNonIncrementalRequests + 4, numIncomingTransfersRequests.get());
+    } finally {
+      walletServer.stop(0);
+    }
+  }
+  
+  private static List<String> getOutputSummaries(List<MoneroOutputWallet> outputs) {
+    List<String> summaries = new ArrayList<String>();
+    for (MoneroOutputWallet output : outputs) summaries.add(output.getKeyImage().getHex() + " " + output.getTx().getId() + " " + output.getTx().getHeight() + " " + output.getAccountIndex() + " " + output.getSubaddressIndex() + " " + output.isSpent());
+    Collections.sort(summaries);
+    return summaries;
+  }
+  
+  // stubs the address methods of wallet-rpc
+  private static byte[] getAddressesResp(String method, Map<String, Object> params) {
+    if ("get_accounts".equals(method)) return getAccountsResp();
+    else if ("get_address".equals(method)) return getAddressResp(params);
+    else if ("get_address_index".equals(method)) return getAddressIndexResp(params);
+    else if ("create_address".equals(method)) return getCreateAddressResp(params);
+    else return getJsonRpcResp(new HashMap<String, Object>());
+  }
+  
+  // stubbed addresses encode their account and subaddress index
+  private static String getStubAddress(int accountIdx, int subaddressIdx) {
+    return String.format("8%04d%04d", accountIdx, subaddressIdx);
+  }
+  
+  private static byte[] getAccountsResp() {
+    List<Map<String, Object>> accounts = new ArrayList<Map<String, Object>>();
+    for (int accountIdx = 0; accountIdx < stubNumSubaddresses.size(); accountIdx++) {
+      Map<String, Object> account = new HashMap<String, Object>();
+      account.put("account_index", accountIdx);
+      account.put("base_address", getStubAddress(accountIdx, 0));
+      account.put("balance", BigInteger.ZERO);
+      account.put("unlocked_balance", BigInteger.ZERO);
+      accounts.add(account);
+    }
+    Map<String, Object> result = new HashMap<String, Object>();
+    result.put("subaddress_accounts", accounts);
+    return getJsonRpcResp(result);
+  }
+  
+  private static byte[] getAddressResp(Map<String, Object> params) {
+    numGetAddressRequests.incrementAndGet();
+    int accountIdx = ((Number) params.get("account_index")).intValue();
+    List<Map<String, Object>> addresses = new ArrayList<Map<String, Object>>();
+    for (int subaddressIdx = 0; subaddressIdx < stubNumSubaddresses.get(accountIdx); subaddressIdx++) {
+      Map<String, Object> address = new HashMap<String, Object>();
+      address.put("address", getStubAddress(accountIdx, subaddressIdx));
+      address.put("address_index", subaddressIdx);
+      address.put("used", false);
+      addresses.add(address);
+    }
+    Map<String, Object> result = new HashMap<String, Object>();
+    result.put("address", getStubAddress(accountIdx, 0));
+    result.put("addresses", addresses);
+    return getJsonRpcResp(result);
+  }
+  
+  private static byte[] getAddressIndexResp(Map<String, Object> params) {
+    numAddressIndexRequests.incrementAndGet();
+    String address = (String) params.get("address");
+    Map<String, Object> index = new HashMap<String, Object>();
+    index.put("major", Integer.parseInt(address.substring(1, 5)));
+    index.put("minor", Integer.parseInt(address.substring(5)));
+    Map<String, Object> result = new HashMap<String, Object>();
+    result.put("index", index);
+    return getJsonRpcResp(result);
+  }
+  
+  private static byte[] getCreateAddressResp(Map<String, Object> params) {
+    int accountIdx = ((Number) params.get("account_index")).intValue();
+    int subaddressIdx = stubNumSubaddresses.merge(accountIdx, 1, Integer::sum) - 1;
+    Map<String, Object> result = new HashMap<String, Object>();
+    result.put("address", getStubAddress(accountIdx, subaddressIdx));
+    result.put("address_index", subaddressIdx);
+    return getJsonRpcResp(result);
+  }
+}